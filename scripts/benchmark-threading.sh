@@ -0,0 +1,33 @@
+#!/usr/bin/env bash
+# Load-tests product listing and order creation against a running instance.
+# Run it once with VIRTUAL_THREADS_ENABLED=false and once with =true (Java 21+)
+# and compare the two reports.
+#
+# Requires `hey` (https://github.com/rakyll/hey).
+#
+# Usage:
+#   BASE_URL=http://localhost:8080 API_KEY=... STORE_ID=... PRODUCT_ID=... USER_ID=... \
+#     scripts/benchmark-threading.sh [requests] [concurrency]
+set -euo pipefail
+
+: "${BASE_URL:=http://localhost:8080}"
+: "${API_KEY:?API_KEY is required}"
+: "${STORE_ID:?STORE_ID is required}"
+: "${PRODUCT_ID:?PRODUCT_ID is required}"
+: "${USER_ID:?USER_ID is required}"
+
+REQUESTS="${1:-2000}"
+CONCURRENCY="${2:-200}"
+
+echo "== GET /api/stores/${STORE_ID}/products (n=${REQUESTS}, c=${CONCURRENCY})"
+hey -n "${REQUESTS}" -c "${CONCURRENCY}" \
+    -H "X-API-KEY: ${API_KEY}" \
+    "${BASE_URL}/api/stores/${STORE_ID}/products"
+
+echo "== POST /api/orders (n=${REQUESTS}, c=${CONCURRENCY})"
+hey -n "${REQUESTS}" -c "${CONCURRENCY}" -m POST \
+    -H "X-API-KEY: ${API_KEY}" \
+    -H "X-USER-ID: ${USER_ID}" \
+    -T "application/json" \
+    -d "{\"storeId\":\"${STORE_ID}\",\"items\":[{\"productId\":\"${PRODUCT_ID}\",\"quantity\":1}]}" \
+    "${BASE_URL}/api/orders"
@@ -0,0 +1,82 @@
+package com.HoussamAlwaked.minimarket.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.zip.GZIPOutputStream;
+import org.springframework.stereotype.Component;
+
+/**
+ * Encoded JSON bodies of the hot catalog reads, plain and gzipped, keyed by
+ * the ETag of the response. Tags are built from the store's catalog version,
+ * so a store change on any instance moves readers to a new key; the entries
+ * of a store are also dropped as soon as this instance bumps its version,
+ * so memory is not held by bodies nobody can ask for again.
+ */
+@Component
+public class ResponseBodyCache {
+
+    public static final class Body {
+        private final String storeId;
+        private final byte[] plain;
+        private final byte[] gzip;
+        private final String nextCursor;
+
+        private Body(String storeId, byte[] plain, byte[] gzip, String nextCursor) {
+            this.storeId = storeId;
+            this.plain = plain;
+            this.gzip = gzip;
+            this.nextCursor = nextCursor;
+        }
+
+        public String getStoreId() {
+            return storeId;
+        }
+
+        public byte[] getPlain() {
+            return plain;
+        }
+
+        /**
+         * Null when compressing would not make the body smaller.
+         */
+        public byte[] getGzip() {
+            return gzip;
+        }
+
+        public String getNextCursor() {
+            return nextCursor;
+        }
+    }
+
+    private static final int MAX_ENTRIES = 1_000;
+    private static final Duration TTL = Duration.ofMinutes(10);
+
+    private final TtlCache<String, Body> bodies = new TtlCache<>(MAX_ENTRIES, TTL);
+
+    public Body get(String etag) {
+        return bodies.get(etag);
+    }
+
+    public Body put(String etag, String storeId, byte[] plain, String nextCursor) {
+        byte[] gzip = gzip(plain);
+        Body body = new Body(storeId, plain, gzip.length < plain.length ? gzip : null, nextCursor);
+        bodies.put(etag, body);
+        return body;
+    }
+
+    public void invalidateStore(String storeId) {
+        bodies.invalidateIf((etag, body) -> body.getStoreId().equals(storeId));
+    }
+
+    private static byte[] gzip(byte[] plain) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(plain.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(plain);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return out.toByteArray();
+    }
+}
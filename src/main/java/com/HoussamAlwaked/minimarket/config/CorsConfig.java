@@ -30,9 +30,9 @@ public class CorsConfig implements WebMvcConfigurer {
                 .allowedMethods("GET", "POST", "PUT", "PATCH", "DELETE", "OPTIONS")
                 // Allow headers needed for JSON + your API key header
                 .allowedHeaders("Content-Type", "Authorization", "X-API-KEY", "X-USER-ID", "X-USER-EMAIL",
-                        "Accept", "Origin")
+                        "Idempotency-Key", "If-None-Match", "Accept", "Origin")
                 // If you want the browser to be able to read certain response headers, expose them here
-                .exposedHeaders("Location")
+                .exposedHeaders("Location", "X-Next-Cursor", "ETag")
                 // If you are NOT using cookies/sessions cross-site, keep this false
                 .allowCredentials(false)
                 // Cache preflight response for 1 hour
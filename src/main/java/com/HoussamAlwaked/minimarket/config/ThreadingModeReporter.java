@@ -0,0 +1,36 @@
+package com.HoussamAlwaked.minimarket.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Component;
+
+/**
+ * Logs which thread model serves requests, and warns when virtual threads
+ * were requested on a runtime that cannot provide them.
+ */
+@Component
+public class ThreadingModeReporter implements CommandLineRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(ThreadingModeReporter.class);
+    private static final String VIRTUAL_THREADS_ENV = "VIRTUAL_THREADS_ENABLED";
+    private static final int VIRTUAL_THREADS_MIN_JAVA = 21;
+
+    @Override
+    public void run(String... args) {
+        boolean requested = Boolean.parseBoolean(System.getenv(VIRTUAL_THREADS_ENV));
+        int javaVersion = Runtime.version().feature();
+        if (!requested) {
+            log.info("Serving requests on platform threads (Java {}).", javaVersion);
+            return;
+        }
+        if (javaVersion < VIRTUAL_THREADS_MIN_JAVA) {
+            log.warn("{}=true is ignored: Java {} has no virtual threads, Java {}+ is required.",
+                    VIRTUAL_THREADS_ENV, javaVersion, VIRTUAL_THREADS_MIN_JAVA);
+            return;
+        }
+        String pinningTrace = System.getProperty("jdk.tracePinnedThreads");
+        log.info("Serving requests on virtual threads (Java {}); pinned thread tracing is {}.",
+                javaVersion, pinningTrace == null ? "off (set -Djdk.tracePinnedThreads=short)" : pinningTrace);
+    }
+}
@@ -0,0 +1,139 @@
+package com.HoussamAlwaked.minimarket.controller;
+
+import com.HoussamAlwaked.minimarket.cache.ResponseBodyCache;
+import com.HoussamAlwaked.minimarket.dto.Page;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+
+/**
+ * Serves catalog reads from ResponseBodyCache. On a miss the page is loaded,
+ * encoded once with the application's JSON message converter and cached; on
+ * a hit the stored bytes are returned as they are, in the gzip variant when
+ * the client accepts it, so neither Firestore nor the converter is involved.
+ */
+@Component
+public class CachedJsonResponses {
+
+    private final RequestMappingHandlerAdapter handlerAdapter;
+    private final ResponseBodyCache cache;
+
+    public CachedJsonResponses(RequestMappingHandlerAdapter handlerAdapter, ResponseBodyCache cache) {
+        this.handlerAdapter = handlerAdapter;
+        this.cache = cache;
+    }
+
+    public <T> CompletableFuture<ResponseEntity<byte[]>> page(String storeId,
+                                                              String etag,
+                                                              String acceptEncoding,
+                                                              Supplier<CompletableFuture<Page<T>>> loader) {
+        ResponseBodyCache.Body cached = cache.get(etag);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(toResponse(cached, etag, acceptEncoding));
+        }
+        return loader.get().thenApply(page -> {
+            byte[] plain = encode(page.getItems());
+            return toResponse(cache.put(etag, storeId, plain, page.getNextCursor()), etag, acceptEncoding);
+        });
+    }
+
+    public <T> CompletableFuture<ResponseEntity<byte[]>> list(String storeId,
+                                                              String etag,
+                                                              String acceptEncoding,
+                                                              Supplier<CompletableFuture<List<T>>> loader) {
+        return page(storeId, etag, acceptEncoding, () -> loader.get().thenApply(items -> new Page<>(items, null)));
+    }
+
+    private ResponseEntity<byte[]> toResponse(ResponseBodyCache.Body body, String etag, String acceptEncoding) {
+        boolean gzip = body.getGzip() != null && acceptsGzip(acceptEncoding);
+        ResponseEntity.BodyBuilder builder = ETags.ok(gzip ? ETags.gzip(etag) : etag)
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (body.getNextCursor() != null) {
+            builder.header(PagedResponses.NEXT_CURSOR_HEADER, body.getNextCursor());
+        }
+        byte[] bytes = body.getPlain();
+        if (gzip) {
+            builder.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+            bytes = body.getGzip();
+        }
+        return builder.contentLength(bytes.length).body(bytes);
+    }
+
+    // Accepts "gzip" unless given q=0; "*" only counts when gzip is not listed itself.
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        Boolean gzip = null;
+        boolean wildcard = false;
+        for (String candidate : acceptEncoding.toLowerCase(Locale.ROOT).split(",")) {
+            String[] parts = candidate.split(";");
+            String coding = parts[0].trim();
+            if (!coding.equals("gzip") && !coding.equals("*")) {
+                continue;
+            }
+            boolean refused = false;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        refused = Double.parseDouble(param.substring(2)) <= 0;
+                    } catch (NumberFormatException ex) {
+                        refused = true;
+                    }
+                }
+            }
+            if (coding.equals("gzip")) {
+                gzip = !refused;
+            } else {
+                wildcard = !refused;
+            }
+        }
+        return gzip != null ? gzip : wildcard;
+    }
+
+    @SuppressWarnings("unchecked")
+    private byte[] encode(Object value) {
+        for (HttpMessageConverter<?> converter : handlerAdapter.getMessageConverters()) {
+            if (converter.canWrite(value.getClass(), MediaType.APPLICATION_JSON)) {
+                BufferMessage message = new BufferMessage();
+                try {
+                    ((HttpMessageConverter<Object>) converter).write(value, MediaType.APPLICATION_JSON, message);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+                return message.body.toByteArray();
+            }
+        }
+        throw new IllegalStateException("No JSON converter for " + value.getClass().getName());
+    }
+
+    private static class BufferMessage implements HttpOutputMessage {
+
+        private final HttpHeaders headers = new HttpHeaders();
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+
+        @Override
+        public OutputStream getBody() {
+            return body;
+        }
+    }
+}
@@ -3,11 +3,14 @@ package com.HoussamAlwaked.minimarket.controller;
 import com.HoussamAlwaked.minimarket.entity.Category;
 import com.HoussamAlwaked.minimarket.exception.BadRequestException;
 import com.HoussamAlwaked.minimarket.exception.NotFoundException;
+import com.HoussamAlwaked.minimarket.repository.CatalogReplica;
 import com.HoussamAlwaked.minimarket.repository.CategoryRepository;
 import com.HoussamAlwaked.minimarket.repository.StoreRepository;
 import com.HoussamAlwaked.minimarket.service.AccessControlService;
+import com.HoussamAlwaked.minimarket.service.CatalogVersionService;
 import jakarta.servlet.http.HttpServletRequest;
-import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -16,6 +19,7 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
@@ -26,19 +30,38 @@ public class CategoryController {
     private final CategoryRepository categoryRepository;
     private final StoreRepository storeRepository;
     private final AccessControlService accessControlService;
+    private final CatalogVersionService catalogVersionService;
+    private final CachedJsonResponses cachedJsonResponses;
+    private final CatalogReplica catalogReplica;
 
     public CategoryController(CategoryRepository categoryRepository,
                               StoreRepository storeRepository,
-                              AccessControlService accessControlService) {
+                              AccessControlService accessControlService,
+                              CatalogVersionService catalogVersionService,
+                              CachedJsonResponses cachedJsonResponses,
+                              CatalogReplica catalogReplica) {
         this.categoryRepository = categoryRepository;
         this.storeRepository = storeRepository;
         this.accessControlService = accessControlService;
+        this.catalogVersionService = catalogVersionService;
+        this.cachedJsonResponses = cachedJsonResponses;
+        this.catalogReplica = catalogReplica;
     }
 
     @GetMapping
-    public List<Category> getCategories(@PathVariable String storeId) {
-        ensureStoreExists(storeId);
-        return categoryRepository.findByStoreId(storeId);
+    public CompletableFuture<ResponseEntity<byte[]>> getCategories(
+            @PathVariable String storeId,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        return catalogStateAsync(storeId).thenCompose(state -> {
+            String etag = ETags.of("categories", storeId, state);
+            String matched = ETags.matching(ifNoneMatch, etag);
+            if (matched != null) {
+                return CompletableFuture.completedFuture(ETags.<byte[]>notModified(matched));
+            }
+            return cachedJsonResponses.list(storeId, etag, acceptEncoding,
+                    () -> catalogReplica.findCategoriesAsync(storeId));
+        });
     }
 
     @PostMapping
@@ -47,10 +70,11 @@ public class CategoryController {
                                                    HttpServletRequest servletRequest) {
         accessControlService.requireStoreManager(servletRequest, storeId);
         validateCategory(request);
-        ensureStoreExists(storeId);
+        ensureStoreWritable(storeId);
         request.setId(null);
         request.setStoreId(storeId);
         Category saved = categoryRepository.save(request);
+        catalogVersionService.bump(storeId);
         return ResponseEntity.status(HttpStatus.CREATED).body(saved);
     }
 
@@ -61,7 +85,7 @@ public class CategoryController {
                                    HttpServletRequest servletRequest) {
         accessControlService.requireStoreManager(servletRequest, storeId);
         validateCategory(request);
-        ensureStoreExists(storeId);
+        ensureStoreWritable(storeId);
         Category existing = categoryRepository.findById(id)
                 .orElseThrow(() -> new NotFoundException("Category not found: " + id));
         if (!storeId.equals(existing.getStoreId())) {
@@ -72,7 +96,9 @@ public class CategoryController {
         existing.setSlug(request.getSlug());
         existing.setStoreId(storeId);
 
-        return categoryRepository.save(existing);
+        Category saved = categoryRepository.save(existing);
+        catalogVersionService.bump(storeId);
+        return saved;
     }
 
     @DeleteMapping("/{id}")
@@ -86,6 +112,7 @@ public class CategoryController {
             throw new BadRequestException("Category does not belong to store: " + storeId);
         }
         categoryRepository.deleteById(id);
+        catalogVersionService.bump(storeId);
         return ResponseEntity.noContent().build();
     }
 
@@ -101,12 +128,24 @@ public class CategoryController {
         }
     }
 
-    private void ensureStoreExists(String storeId) {
+    private void ensureStoreWritable(String storeId) {
         if (storeId == null || storeId.isBlank()) {
             throw new BadRequestException("Store id is required.");
         }
         if (!storeRepository.existsById(storeId)) {
             throw new NotFoundException("Store not found: " + storeId);
         }
+        if (storeRepository.isDeleting(storeId)) {
+            throw new BadRequestException("Store is being deleted: " + storeId);
+        }
+    }
+
+    // Also serves as the existence check, so a conditional GET costs at most a single document read.
+    private CompletableFuture<String> catalogStateAsync(String storeId) {
+        if (storeId == null || storeId.isBlank()) {
+            throw new BadRequestException("Store id is required.");
+        }
+        return catalogReplica.findCatalogStateAsync(storeId).thenApply(state ->
+                state.orElseThrow(() -> new NotFoundException("Store not found: " + storeId)));
     }
 }
\ No newline at end of file
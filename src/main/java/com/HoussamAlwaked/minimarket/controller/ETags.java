@@ -0,0 +1,88 @@
+package com.HoussamAlwaked.minimarket.controller;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+final class ETags {
+
+    private ETags() {
+    }
+
+    /**
+     * A strong ETag naming the given parts, such as the resource, the
+     * catalog version and the query parameters that shape the response.
+     */
+    static String of(Object... parts) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available.", ex);
+        }
+        for (Object part : parts) {
+            digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        return "\"" + HexFormat.of().formatHex(digest.digest(), 0, 16) + "\"";
+    }
+
+    /**
+     * The tag of the gzip-encoded variant. The two encodings are different
+     * bytes, so a strong tag may not be shared between them.
+     */
+    static String gzip(String etag) {
+        return etag.substring(0, etag.length() - 1) + "-gzip\"";
+    }
+
+    /**
+     * Whether an If-None-Match header names the tag or its gzip variant.
+     * Uses the weak comparison RFC 9110 prescribes for If-None-Match.
+     */
+    static boolean matches(String ifNoneMatch, String etag) {
+        return matching(ifNoneMatch, etag) != null;
+    }
+
+    /**
+     * The tag, or its gzip variant, that an If-None-Match header names, so a
+     * 304 repeats the tag of the representation the client holds. Null when
+     * neither is named.
+     */
+    static String matching(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || ifNoneMatch.isBlank()) {
+            return null;
+        }
+        String gzip = gzip(etag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*")) {
+                return etag;
+            }
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag) || tag.equals(gzip)) {
+                return tag;
+            }
+        }
+        return null;
+    }
+
+    static <T> ResponseEntity<T> notModified(String etag) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                .eTag(etag)
+                .cacheControl(CacheControl.noCache())
+                .build();
+    }
+
+    // no-cache lets clients keep the body but makes them revalidate it on every use.
+    static ResponseEntity.BodyBuilder ok(String etag) {
+        return ResponseEntity.ok()
+                .eTag(etag)
+                .cacheControl(CacheControl.noCache());
+    }
+}
@@ -0,0 +1,110 @@
+package com.HoussamAlwaked.minimarket.controller;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+/**
+ * Writes a JSON array element by element as a source produces them. Each
+ * element goes through the application's own JSON message converter, so the
+ * output matches the regular endpoints while only one element is held in
+ * memory at a time.
+ */
+@Component
+public class JsonArrayStreamer {
+
+    private static final byte[] OPEN = "[".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SEPARATOR = ",".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CLOSE = "]".getBytes(StandardCharsets.US_ASCII);
+
+    private final RequestMappingHandlerAdapter handlerAdapter;
+
+    public JsonArrayStreamer(RequestMappingHandlerAdapter handlerAdapter) {
+        this.handlerAdapter = handlerAdapter;
+    }
+
+    public <T> ResponseEntity<StreamingResponseBody> stream(Class<T> type, Consumer<Consumer<T>> source) {
+        HttpMessageConverter<T> converter = converterFor(type);
+        StreamingResponseBody body = outputStream -> {
+            ElementMessage message = new ElementMessage(outputStream);
+            outputStream.write(OPEN);
+            try {
+                source.accept(new Consumer<T>() {
+                    private boolean first = true;
+
+                    @Override
+                    public void accept(T element) {
+                        try {
+                            if (!first) {
+                                outputStream.write(SEPARATOR);
+                            }
+                            first = false;
+                            converter.write(element, MediaType.APPLICATION_JSON, message);
+                        } catch (IOException ex) {
+                            throw new UncheckedIOException(ex);
+                        }
+                    }
+                });
+            } catch (UncheckedIOException ex) {
+                throw ex.getCause();
+            }
+            outputStream.write(CLOSE);
+            outputStream.flush();
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> HttpMessageConverter<T> converterFor(Class<T> type) {
+        for (HttpMessageConverter<?> converter : handlerAdapter.getMessageConverters()) {
+            if (converter.canWrite(type, MediaType.APPLICATION_JSON)) {
+                return (HttpMessageConverter<T>) converter;
+            }
+        }
+        throw new IllegalStateException("No JSON converter for " + type.getName());
+    }
+
+    // The converter flushes and may close its target after every element; neither should reach the response.
+    private static class ElementMessage implements HttpOutputMessage {
+
+        private final OutputStream body;
+
+        ElementMessage(OutputStream target) {
+            this.body = new FilterOutputStream(target) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void flush() {
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return new HttpHeaders();
+        }
+
+        @Override
+        public OutputStream getBody() {
+            return body;
+        }
+    }
+}
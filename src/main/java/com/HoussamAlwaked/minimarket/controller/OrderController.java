@@ -1,45 +1,84 @@
 package com.HoussamAlwaked.minimarket.controller;
 
 import com.HoussamAlwaked.minimarket.dto.OrderRequest;
+import com.HoussamAlwaked.minimarket.dto.Page;
 import com.HoussamAlwaked.minimarket.entity.Order;
 import com.HoussamAlwaked.minimarket.entity.User;
+import com.HoussamAlwaked.minimarket.exception.BadRequestException;
 import com.HoussamAlwaked.minimarket.service.AccessControlService;
+import com.HoussamAlwaked.minimarket.service.OrderSequencer;
 import com.HoussamAlwaked.minimarket.service.OrderService;
 import jakarta.servlet.http.HttpServletRequest;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 @RequestMapping("/api/orders")
 public class OrderController {
 
+    private static final String EXPAND_PRODUCT = "product";
+
     private final OrderService orderService;
+    private final OrderSequencer orderSequencer;
     private final AccessControlService accessControlService;
+    private final JsonArrayStreamer jsonArrayStreamer;
 
-    public OrderController(OrderService orderService, AccessControlService accessControlService) {
+    public OrderController(OrderService orderService,
+                           OrderSequencer orderSequencer,
+                           AccessControlService accessControlService,
+                           JsonArrayStreamer jsonArrayStreamer) {
         this.orderService = orderService;
+        this.orderSequencer = orderSequencer;
         this.accessControlService = accessControlService;
+        this.jsonArrayStreamer = jsonArrayStreamer;
     }
 
     @PostMapping
     public ResponseEntity<Order> createOrder(@RequestBody OrderRequest request,
+                                             @RequestHeader(value = "Idempotency-Key", required = false)
+                                             String idempotencyKey,
                                              HttpServletRequest servletRequest) {
         User user = accessControlService.requireUser(servletRequest);
-        Order created = orderService.createOrder(user.getId(), request);
+        Order created = orderSequencer.isEnabled()
+                ? orderSequencer.createOrder(user.getId(), request, idempotencyKey)
+                : orderService.createOrder(user.getId(), request, idempotencyKey);
         return ResponseEntity.status(HttpStatus.CREATED).body(created);
     }
 
     @GetMapping
-    public List<Order> getOrders(@RequestParam(required = false) String storeId,
-                                 HttpServletRequest servletRequest) {
+    public CompletableFuture<ResponseEntity<List<Order>>> getOrders(
+            @RequestParam(required = false) String storeId,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String expand,
+            HttpServletRequest servletRequest) {
+        if (expand != null && !EXPAND_PRODUCT.equals(expand)) {
+            throw new BadRequestException("Unsupported expand: " + expand);
+        }
+        User user = accessControlService.requireUser(servletRequest);
+        if (Page.isUnpaged(cursor, limit)) {
+            return PagedResponses.<Order>all(
+                    next -> orderService.getOrders(user, storeId, next, Page.MAX_LIMIT, expand != null))
+                    .thenApply(PagedResponses::ok);
+        }
+        return orderService.getOrders(user, storeId, cursor, Page.resolveLimit(limit), expand != null)
+                .thenApply(PagedResponses::ok);
+    }
+
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportOrders(HttpServletRequest servletRequest) {
         User user = accessControlService.requireUser(servletRequest);
-        return orderService.getOrders(user, storeId);
+        orderService.ensureCanListOrders(user);
+        return jsonArrayStreamer.stream(Order.class, action -> orderService.forEachOrder(user, action));
     }
 }
\ No newline at end of file
@@ -0,0 +1,51 @@
+package com.HoussamAlwaked.minimarket.controller;
+
+import com.HoussamAlwaked.minimarket.dto.Page;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import org.springframework.http.ResponseEntity;
+
+final class PagedResponses {
+
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    private PagedResponses() {
+    }
+
+    /**
+     * Keeps list endpoints returning a plain JSON array; the token for the
+     * next page, if any, travels in the X-Next-Cursor header.
+     */
+    static <T> ResponseEntity<List<T>> ok(Page<T> page) {
+        return ok(page, ResponseEntity.ok());
+    }
+
+    static <T> ResponseEntity<List<T>> ok(Page<T> page, ResponseEntity.BodyBuilder builder) {
+        if (page.getNextCursor() != null) {
+            builder.header(NEXT_CURSOR_HEADER, page.getNextCursor());
+        }
+        return builder.body(page.getItems());
+    }
+
+    /**
+     * Follows the cursors of a paged query, MAX_LIMIT items at a time, and
+     * returns every item as one page.
+     */
+    static <T> CompletableFuture<Page<T>> all(Function<String, CompletableFuture<Page<T>>> fetchPage) {
+        return collect(fetchPage, null, new ArrayList<>());
+    }
+
+    private static <T> CompletableFuture<Page<T>> collect(Function<String, CompletableFuture<Page<T>>> fetchPage,
+                                                          String cursor,
+                                                          List<T> items) {
+        return fetchPage.apply(cursor).thenCompose(page -> {
+            items.addAll(page.getItems());
+            if (page.getNextCursor() == null) {
+                return CompletableFuture.completedFuture(new Page<>(items, null));
+            }
+            return collect(fetchPage, page.getNextCursor(), items);
+        });
+    }
+}
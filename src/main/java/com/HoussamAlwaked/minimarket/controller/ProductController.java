@@ -1,20 +1,38 @@
 package com.HoussamAlwaked.minimarket.controller;
 
+import com.HoussamAlwaked.minimarket.dto.BulkStockReport;
+import com.HoussamAlwaked.minimarket.dto.BulkStockRequest;
+import com.HoussamAlwaked.minimarket.dto.Page;
+import com.HoussamAlwaked.minimarket.dto.ProductImportReport;
+import com.HoussamAlwaked.minimarket.dto.ProductQuery;
+import com.HoussamAlwaked.minimarket.dto.ProductSort;
 import com.HoussamAlwaked.minimarket.dto.StockDecrementRequest;
+import com.HoussamAlwaked.minimarket.dto.StockShardsRequest;
 import com.HoussamAlwaked.minimarket.dto.StockUpdateRequest;
 import com.HoussamAlwaked.minimarket.entity.Category;
+import com.HoussamAlwaked.minimarket.entity.Money;
 import com.HoussamAlwaked.minimarket.entity.Product;
 import com.HoussamAlwaked.minimarket.exception.BadRequestException;
 import com.HoussamAlwaked.minimarket.exception.NotFoundException;
+import com.HoussamAlwaked.minimarket.repository.CatalogReplica;
 import com.HoussamAlwaked.minimarket.repository.CategoryRepository;
 import com.HoussamAlwaked.minimarket.repository.ProductRepository;
 import com.HoussamAlwaked.minimarket.repository.StoreRepository;
 import com.HoussamAlwaked.minimarket.service.AccessControlService;
+import com.HoussamAlwaked.minimarket.service.CatalogVersionService;
+import com.HoussamAlwaked.minimarket.service.ProductImport;
+import com.HoussamAlwaked.minimarket.service.ProductImportService;
+import com.HoussamAlwaked.minimarket.service.ProductSearchService;
 import com.HoussamAlwaked.minimarket.service.ProductService;
 import jakarta.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigDecimal;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -22,6 +40,7 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
@@ -32,30 +51,80 @@ public class ProductController {
 
     private final ProductRepository productRepository;
     private final ProductService productService;
+    private final ProductImportService productImportService;
+    private final ProductImportReader productImportReader;
     private final CategoryRepository categoryRepository;
     private final StoreRepository storeRepository;
     private final AccessControlService accessControlService;
+    private final CatalogVersionService catalogVersionService;
+    private final CachedJsonResponses cachedJsonResponses;
+    private final CatalogReplica catalogReplica;
+    private final ProductSearchService productSearchService;
 
     public ProductController(ProductRepository productRepository,
                              ProductService productService,
+                             ProductImportService productImportService,
+                             ProductImportReader productImportReader,
                              CategoryRepository categoryRepository,
                              StoreRepository storeRepository,
-                             AccessControlService accessControlService) {
+                             AccessControlService accessControlService,
+                             CatalogVersionService catalogVersionService,
+                             CachedJsonResponses cachedJsonResponses,
+                             CatalogReplica catalogReplica,
+                             ProductSearchService productSearchService) {
         this.productRepository = productRepository;
         this.productService = productService;
+        this.productImportService = productImportService;
+        this.productImportReader = productImportReader;
         this.categoryRepository = categoryRepository;
         this.storeRepository = storeRepository;
         this.accessControlService = accessControlService;
+        this.catalogVersionService = catalogVersionService;
+        this.cachedJsonResponses = cachedJsonResponses;
+        this.catalogReplica = catalogReplica;
+        this.productSearchService = productSearchService;
     }
 
     @GetMapping
-    public List<Product> getProducts(@PathVariable String storeId,
-                                     @RequestParam(required = false) String categoryId) {
-        ensureStoreExists(storeId);
-        if (categoryId != null && !categoryId.isBlank()) {
-            return productRepository.findByStoreAndCategory(storeId, categoryId);
-        }
-        return productRepository.findByStoreId(storeId);
+    public CompletableFuture<ResponseEntity<byte[]>> getProducts(
+            @PathVariable String storeId,
+            @RequestParam(required = false) String categoryId,
+            @RequestParam(required = false) BigDecimal minPrice,
+            @RequestParam(required = false) BigDecimal maxPrice,
+            @RequestParam(defaultValue = "false") boolean inStock,
+            @RequestParam(required = false) String sort,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        boolean unpaged = Page.isUnpaged(cursor, limit);
+        int pageSize = unpaged ? Page.MAX_LIMIT : Page.resolveLimit(limit);
+        ProductQuery filter = new ProductQuery();
+        filter.setCategoryId(categoryId);
+        filter.setMinPrice(minPrice == null ? null : Money.of(minPrice));
+        filter.setMaxPrice(maxPrice == null ? null : Money.of(maxPrice));
+        filter.setInStock(inStock);
+        filter.setSort(ProductSort.fromParam(sort));
+        return catalogStateAsync(storeId).thenCompose(state -> {
+            String etag = ETags.of("products", storeId, state, filter.getCategoryId(), filter.getMinPrice(),
+                    filter.getMaxPrice(), filter.isInStock(), filter.getSort(), cursor, unpaged ? "all" : pageSize);
+            String matched = ETags.matching(ifNoneMatch, etag);
+            if (matched != null) {
+                return CompletableFuture.completedFuture(ETags.<byte[]>notModified(matched));
+            }
+            return cachedJsonResponses.page(storeId, etag, acceptEncoding,
+                    () -> unpaged
+                            ? PagedResponses.all(next -> catalogReplica.findProductsAsync(storeId, filter, next,
+                                    pageSize))
+                            : catalogReplica.findProductsAsync(storeId, filter, cursor, pageSize));
+        });
+    }
+
+    @GetMapping("/search")
+    public CompletableFuture<List<Product>> searchProducts(@PathVariable String storeId,
+                                                           @RequestParam String q,
+                                                           @RequestParam(required = false) Integer limit) {
+        return productSearchService.search(storeId, q, Page.resolveLimit(limit));
     }
 
     @PostMapping
@@ -63,21 +132,39 @@ public class ProductController {
                                                  @RequestBody Product request,
                                                  HttpServletRequest servletRequest) {
         accessControlService.requireStoreManager(servletRequest, storeId);
-        ensureStoreExists(storeId);
+        ensureStoreWritable(storeId);
         validateProduct(request, storeId);
         request.setId(null);
         request.setStoreId(storeId);
+        // Sharding is switched on through the rebalance endpoint once the product exists.
+        request.setStockShards(0);
         Product saved = productRepository.save(request);
+        catalogVersionService.bump(storeId);
         return ResponseEntity.status(HttpStatus.CREATED).body(saved);
     }
 
+    @PostMapping(value = "/import",
+            consumes = {MediaType.APPLICATION_NDJSON_VALUE, ProductImportReader.TEXT_CSV_VALUE})
+    public ProductImportReport importProducts(@PathVariable String storeId,
+                                              HttpServletRequest servletRequest) {
+        accessControlService.requireStoreManager(servletRequest, storeId);
+        ensureStoreWritable(storeId);
+        try (ProductImport productImport = productImportService.begin(storeId);
+             InputStream body = servletRequest.getInputStream()) {
+            productImportReader.read(body, servletRequest.getContentType(), productImport);
+            return productImport.finish();
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to read product import.", ex);
+        }
+    }
+
     @PutMapping("/{id}")
     public Product updateProduct(@PathVariable String storeId,
                                  @PathVariable String id,
                                  @RequestBody Product request,
                                  HttpServletRequest servletRequest) {
         accessControlService.requireStoreManager(servletRequest, storeId);
-        ensureStoreExists(storeId);
+        ensureStoreWritable(storeId);
         validateProduct(request, storeId);
         Product existing = productRepository.findById(id)
                 .orElseThrow(() -> new NotFoundException("Product not found: " + id));
@@ -92,27 +179,55 @@ public class ProductController {
         existing.setStock(request.getStock());
         existing.setStoreId(storeId);
 
-        return productRepository.save(existing);
+        Product saved = productRepository.save(existing);
+        catalogVersionService.bump(storeId);
+        if (saved.getStockShards() > 0) {
+            StockUpdateRequest stock = new StockUpdateRequest();
+            stock.setStock(request.getStock());
+            return productService.setStock(storeId, id, stock, null);
+        }
+        return saved;
+    }
+
+    @PostMapping("/stock")
+    public BulkStockReport bulkUpdateStock(@PathVariable String storeId,
+                                           @RequestBody BulkStockRequest request,
+                                           HttpServletRequest servletRequest) {
+        accessControlService.requireStoreManager(servletRequest, storeId);
+        ensureStoreWritable(storeId);
+        return productService.bulkUpdateStock(storeId, request);
     }
 
     @PostMapping("/{id}/stock")
     public Product setStock(@PathVariable String storeId,
                             @PathVariable String id,
                             @RequestBody StockUpdateRequest request,
+                            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
                             HttpServletRequest servletRequest) {
         accessControlService.requireStoreManager(servletRequest, storeId);
-        ensureStoreExists(storeId);
-        return productService.setStock(storeId, id, request);
+        ensureStoreWritable(storeId);
+        return productService.setStock(storeId, id, request, idempotencyKey);
     }
 
     @PostMapping("/{id}/stock/decrement")
     public Product decrementStock(@PathVariable String storeId,
                                   @PathVariable String id,
                                   @RequestBody StockDecrementRequest request,
+                                  @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
+                                  HttpServletRequest servletRequest) {
+        accessControlService.requireStoreManager(servletRequest, storeId);
+        ensureStoreWritable(storeId);
+        return productService.decrementStock(storeId, id, request, idempotencyKey);
+    }
+
+    @PostMapping("/{id}/stock/rebalance")
+    public Product rebalanceStock(@PathVariable String storeId,
+                                  @PathVariable String id,
+                                  @RequestBody StockShardsRequest request,
                                   HttpServletRequest servletRequest) {
         accessControlService.requireStoreManager(servletRequest, storeId);
-        ensureStoreExists(storeId);
-        return productService.decrementStock(storeId, id, request);
+        ensureStoreWritable(storeId);
+        return productService.rebalanceStockShards(storeId, id, request);
     }
 
     @DeleteMapping("/{id}")
@@ -120,51 +235,44 @@ public class ProductController {
                                               @PathVariable String id,
                                               HttpServletRequest servletRequest) {
         accessControlService.requireStoreManager(servletRequest, storeId);
-        ensureStoreExists(storeId);
+        ensureStoreWritable(storeId);
         Product existing = productRepository.findById(id)
                 .orElseThrow(() -> new NotFoundException("Product not found: " + id));
         if (!storeId.equals(existing.getStoreId())) {
             throw new BadRequestException("Product does not belong to store: " + storeId);
         }
         productRepository.deleteById(id);
+        catalogVersionService.bump(storeId);
         return ResponseEntity.noContent().build();
     }
 
     private void validateProduct(Product product, String storeId) {
-        if (product == null) {
-            throw new BadRequestException("Product payload is required.");
-        }
-        if (product.getName() == null || product.getName().isBlank()) {
-            throw new BadRequestException("Product name is required.");
-        }
-        if (product.getCategoryId() == null || product.getCategoryId().isBlank()) {
-            throw new BadRequestException("Product category is required.");
-        }
+        productService.validateProductFields(product);
         Category category = categoryRepository.findById(product.getCategoryId())
                 .orElseThrow(() -> new BadRequestException("Invalid category id: " + product.getCategoryId()));
         if (category.getStoreId() == null || !category.getStoreId().equals(storeId)) {
             throw new BadRequestException("Category does not belong to store: " + storeId);
         }
-        if (product.getImage() != null && product.getImage().isBlank()) {
-            throw new BadRequestException("Product image must not be blank.");
-        }
-        if (product.getPrice() == null) {
-            throw new BadRequestException("Product price is required.");
-        }
-        if (product.getPrice().compareTo(BigDecimal.ZERO) < 0) {
-            throw new BadRequestException("Product price must be zero or greater.");
-        }
-        if (product.getStock() < 0) {
-            throw new BadRequestException("Product stock must be zero or greater.");
-        }
     }
 
-    private void ensureStoreExists(String storeId) {
+    private void ensureStoreWritable(String storeId) {
         if (storeId == null || storeId.isBlank()) {
             throw new BadRequestException("Store id is required.");
         }
         if (!storeRepository.existsById(storeId)) {
             throw new NotFoundException("Store not found: " + storeId);
         }
+        if (storeRepository.isDeleting(storeId)) {
+            throw new BadRequestException("Store is being deleted: " + storeId);
+        }
+    }
+
+    // Also serves as the existence check, so a conditional GET costs at most a single document read.
+    private CompletableFuture<String> catalogStateAsync(String storeId) {
+        if (storeId == null || storeId.isBlank()) {
+            throw new BadRequestException("Store id is required.");
+        }
+        return catalogReplica.findCatalogStateAsync(storeId).thenApply(state ->
+                state.orElseThrow(() -> new NotFoundException("Store not found: " + storeId)));
     }
 }
\ No newline at end of file
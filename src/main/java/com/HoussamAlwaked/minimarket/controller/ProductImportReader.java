@@ -0,0 +1,217 @@
+package com.HoussamAlwaked.minimarket.controller;
+
+import com.HoussamAlwaked.minimarket.entity.Money;
+import com.HoussamAlwaked.minimarket.entity.Product;
+import com.HoussamAlwaked.minimarket.exception.BadRequestException;
+import com.HoussamAlwaked.minimarket.service.ProductImport;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+
+/**
+ * Reads a product import body line by line and feeds each row to the
+ * import as soon as it is parsed. NDJSON lines go through the application's
+ * JSON message converter, so they accept the same fields as the single
+ * product endpoint. CSV needs a header row naming the columns: name,
+ * categoryId, price, stock and image. Quoted CSV values may not span lines.
+ * Rows are numbered by their line in the body.
+ */
+@Component
+public class ProductImportReader {
+
+    public static final String TEXT_CSV_VALUE = "text/csv";
+
+    private final RequestMappingHandlerAdapter handlerAdapter;
+
+    public ProductImportReader(RequestMappingHandlerAdapter handlerAdapter) {
+        this.handlerAdapter = handlerAdapter;
+    }
+
+    public void read(InputStream body, String contentType, ProductImport target) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        RowSink rows = new ImportSink(target);
+        if (contentType != null && contentType.toLowerCase(Locale.ROOT).startsWith(TEXT_CSV_VALUE)) {
+            readCsv(reader, rows);
+        } else {
+            readNdjson(reader, rows);
+        }
+    }
+
+    private void readNdjson(BufferedReader reader, RowSink target) throws IOException {
+        HttpMessageConverter<Product> converter = converterFor(Product.class);
+        String line;
+        int row = 0;
+        while ((line = reader.readLine()) != null) {
+            row++;
+            if (line.isBlank()) {
+                continue;
+            }
+            Product product;
+            try {
+                product = converter.read(Product.class, new LineMessage(line));
+            } catch (IOException | RuntimeException ex) {
+                target.reject(row, "Invalid JSON.");
+                continue;
+            }
+            target.add(row, product);
+        }
+    }
+
+    static void readCsv(BufferedReader reader, RowSink target) throws IOException {
+        String header = reader.readLine();
+        if (header == null) {
+            return;
+        }
+        if (!header.isEmpty() && header.charAt(0) == '\uFEFF') {
+            header = header.substring(1);
+        }
+        Map<String, Integer> columns = new HashMap<>();
+        List<String> names = parseCsvLine(header);
+        for (int i = 0; i < names.size(); i++) {
+            columns.put(names.get(i).trim().toLowerCase(Locale.ROOT), i);
+        }
+        for (String required : List.of("name", "categoryid", "price")) {
+            if (!columns.containsKey(required)) {
+                throw new BadRequestException("CSV header is missing column: " + required);
+            }
+        }
+
+        String line;
+        int row = 1;
+        while ((line = reader.readLine()) != null) {
+            row++;
+            if (line.isBlank()) {
+                continue;
+            }
+            try {
+                List<String> values = parseCsvLine(line);
+                Product product = new Product();
+                product.setName(value(values, columns, "name"));
+                product.setCategoryId(value(values, columns, "categoryid"));
+                product.setImage(value(values, columns, "image"));
+                String price = value(values, columns, "price");
+                product.setPrice(price == null ? null : Money.parse(price));
+                String stock = value(values, columns, "stock");
+                product.setStock(stock == null ? 0 : Integer.parseInt(stock));
+                target.add(row, product);
+            } catch (NumberFormatException ex) {
+                target.reject(row, "Invalid price or stock.");
+            } catch (IllegalArgumentException ex) {
+                target.reject(row, "Invalid CSV row: " + ex.getMessage());
+            }
+        }
+    }
+
+    // Empty values read as null, so optional columns may be left blank.
+    private static String value(List<String> values, Map<String, Integer> columns, String name) {
+        Integer index = columns.get(name);
+        if (index == null || index >= values.size()) {
+            return null;
+        }
+        String value = values.get(index).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    static List<String> parseCsvLine(String line) {
+        List<String> values = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    current.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    current.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(current.toString());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("unterminated quote");
+        }
+        values.add(current.toString());
+        return values;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> HttpMessageConverter<T> converterFor(Class<T> type) {
+        for (HttpMessageConverter<?> converter : handlerAdapter.getMessageConverters()) {
+            if (converter.canRead(type, MediaType.APPLICATION_JSON)) {
+                return (HttpMessageConverter<T>) converter;
+            }
+        }
+        throw new IllegalStateException("No JSON converter for " + type.getName());
+    }
+
+    // Where parsed rows go, so the parsing can be exercised without an import.
+    interface RowSink {
+
+        void add(int row, Product product);
+
+        void reject(int row, String error);
+    }
+
+    private static class ImportSink implements RowSink {
+
+        private final ProductImport target;
+
+        ImportSink(ProductImport target) {
+            this.target = target;
+        }
+
+        @Override
+        public void add(int row, Product product) {
+            target.add(row, product);
+        }
+
+        @Override
+        public void reject(int row, String error) {
+            target.reject(row, error);
+        }
+    }
+
+    private static class LineMessage implements HttpInputMessage {
+
+        private final byte[] body;
+
+        LineMessage(String line) {
+            this.body = line.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.APPLICATION_JSON);
+            return headers;
+        }
+
+        @Override
+        public InputStream getBody() {
+            return new ByteArrayInputStream(body);
+        }
+    }
+}
@@ -4,15 +4,17 @@ import com.HoussamAlwaked.minimarket.dto.AssignSubAdminRequest;
 import com.HoussamAlwaked.minimarket.dto.StoreRequest;
 import com.HoussamAlwaked.minimarket.dto.StoreResponse;
 import com.HoussamAlwaked.minimarket.entity.Store;
+import com.HoussamAlwaked.minimarket.entity.StoreDeletionJob;
 import com.HoussamAlwaked.minimarket.entity.User;
 import com.HoussamAlwaked.minimarket.exception.BadRequestException;
 import com.HoussamAlwaked.minimarket.exception.NotFoundException;
 import com.HoussamAlwaked.minimarket.repository.StoreRepository;
 import com.HoussamAlwaked.minimarket.service.AccessControlService;
-import com.HoussamAlwaked.minimarket.service.OfferService;
 import com.HoussamAlwaked.minimarket.service.StoreService;
 import jakarta.servlet.http.HttpServletRequest;
+import java.util.Collections;
 import java.util.List;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -21,6 +23,7 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
@@ -31,26 +34,35 @@ public class StoreController {
     private final StoreRepository storeRepository;
     private final StoreService storeService;
     private final AccessControlService accessControlService;
-    private final OfferService offerService;
 
     public StoreController(StoreRepository storeRepository,
                            StoreService storeService,
-                           AccessControlService accessControlService,
-                           OfferService offerService) {
+                           AccessControlService accessControlService) {
         this.storeRepository = storeRepository;
         this.storeService = storeService;
         this.accessControlService = accessControlService;
-        this.offerService = offerService;
     }
 
     @GetMapping
-    public List<StoreResponse> getStores() {
+    public ResponseEntity<List<StoreResponse>> getStores(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         List<Store> stores = storeRepository.findAll();
         List<StoreResponse> responses = new java.util.ArrayList<>();
+        // The list has no version of its own, so the tag hashes the fields the response carries.
+        List<Object> parts = new java.util.ArrayList<>();
+        parts.add("stores");
         for (Store store : stores) {
-            responses.add(toResponse(store));
+            StoreResponse response = toResponse(store);
+            responses.add(response);
+            Collections.addAll(parts, response.getId(), response.getName(), response.getAddress(),
+                    response.getCategoryId(), response.getTimeZone(), response.getSubAdminIds(),
+                    response.isHasActiveOffer());
         }
-        return responses;
+        String etag = ETags.of(parts.toArray());
+        if (ETags.matches(ifNoneMatch, etag)) {
+            return ETags.notModified(etag);
+        }
+        return ETags.ok(etag).body(responses);
     }
 
     @GetMapping("/{storeId}")
@@ -77,11 +89,20 @@ public class StoreController {
     }
 
     @DeleteMapping("/{storeId}")
-    public ResponseEntity<Void> deleteStore(@PathVariable String storeId,
-                                            HttpServletRequest servletRequest) {
+    public ResponseEntity<StoreDeletionJob> deleteStore(@PathVariable String storeId,
+                                                        HttpServletRequest servletRequest) {
+        accessControlService.requireSuperAdmin(servletRequest);
+        StoreDeletionJob job = storeService.deleteStore(storeId);
+        return ResponseEntity.accepted()
+                .header(HttpHeaders.LOCATION, "/api/stores/deletion-jobs/" + job.getId())
+                .body(job);
+    }
+
+    @GetMapping("/deletion-jobs/{jobId}")
+    public StoreDeletionJob getDeletionJob(@PathVariable String jobId,
+                                           HttpServletRequest servletRequest) {
         accessControlService.requireSuperAdmin(servletRequest);
-        storeService.deleteStore(storeId);
-        return ResponseEntity.noContent().build();
+        return storeService.getDeletionJob(jobId);
     }
 
     @PostMapping("/{storeId}/sub-admins")
@@ -116,8 +137,9 @@ public class StoreController {
         response.setName(store.getName());
         response.setAddress(store.getAddress());
         response.setCategoryId(store.getCategoryId());
+        response.setTimeZone(store.getTimeZone());
         response.setSubAdminIds(store.getSubAdminIds());
-        response.setHasActiveOffer(offerService.hasActiveOffer(store.getId()));
+        response.setHasActiveOffer(store.isHasActiveOffer());
         return response;
     }
 }
@@ -1,5 +1,6 @@
 package com.HoussamAlwaked.minimarket.controller;
 
+import com.HoussamAlwaked.minimarket.dto.Page;
 import com.HoussamAlwaked.minimarket.dto.UserRequest;
 import com.HoussamAlwaked.minimarket.entity.User;
 import com.HoussamAlwaked.minimarket.entity.UserRole;
@@ -8,6 +9,7 @@ import com.HoussamAlwaked.minimarket.service.AccessControlService;
 import com.HoussamAlwaked.minimarket.service.UserService;
 import jakarta.servlet.http.HttpServletRequest;
 import java.util.List;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -15,8 +17,11 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 @RequestMapping
@@ -25,13 +30,16 @@ public class UserController {
     private final UserService userService;
     private final UserRepository userRepository;
     private final AccessControlService accessControlService;
+    private final JsonArrayStreamer jsonArrayStreamer;
 
     public UserController(UserService userService,
                           UserRepository userRepository,
-                          AccessControlService accessControlService) {
+                          AccessControlService accessControlService,
+                          JsonArrayStreamer jsonArrayStreamer) {
         this.userService = userService;
         this.userRepository = userRepository;
         this.accessControlService = accessControlService;
+        this.jsonArrayStreamer = jsonArrayStreamer;
     }
 
     @PostMapping("/api/users")
@@ -41,8 +49,16 @@ public class UserController {
     }
 
     @GetMapping("/api/users/me")
-    public User getCurrentUser(HttpServletRequest servletRequest) {
-        return accessControlService.requireUser(servletRequest);
+    public ResponseEntity<User> getCurrentUser(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            HttpServletRequest servletRequest) {
+        User user = accessControlService.requireUser(servletRequest);
+        String etag = ETags.of("me", user.getId(), user.getName(), user.getEmail(), user.getRole(),
+                user.getAssignedStoreId());
+        if (ETags.matches(ifNoneMatch, etag)) {
+            return ETags.notModified(etag);
+        }
+        return ETags.ok(etag).body(user);
     }
 
     @PostMapping("/api/admin/users")
@@ -62,8 +78,19 @@ public class UserController {
     }
 
     @GetMapping("/api/admin/users")
-    public List<User> listUsers(HttpServletRequest servletRequest) {
+    public ResponseEntity<List<User>> listUsers(@RequestParam(required = false) String cursor,
+                                                @RequestParam(required = false) Integer limit,
+                                                HttpServletRequest servletRequest) {
         accessControlService.requireSuperAdmin(servletRequest);
-        return userRepository.findAll();
+        if (Page.isUnpaged(cursor, limit)) {
+            return ResponseEntity.ok(userRepository.findAll());
+        }
+        return PagedResponses.ok(userRepository.findPage(cursor, Page.resolveLimit(limit)));
+    }
+
+    @GetMapping("/api/admin/users/export")
+    public ResponseEntity<StreamingResponseBody> exportUsers(HttpServletRequest servletRequest) {
+        accessControlService.requireSuperAdmin(servletRequest);
+        return jsonArrayStreamer.stream(User.class, userRepository::forEach);
     }
 }
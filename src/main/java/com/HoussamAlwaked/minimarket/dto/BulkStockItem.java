@@ -0,0 +1,35 @@
+package com.HoussamAlwaked.minimarket.dto;
+
+public class BulkStockItem {
+
+    private String productId;
+    private Integer stock;
+    private Integer delta;
+
+    public BulkStockItem() {
+    }
+
+    public String getProductId() {
+        return productId;
+    }
+
+    public void setProductId(String productId) {
+        this.productId = productId;
+    }
+
+    public Integer getStock() {
+        return stock;
+    }
+
+    public void setStock(Integer stock) {
+        this.stock = stock;
+    }
+
+    public Integer getDelta() {
+        return delta;
+    }
+
+    public void setDelta(Integer delta) {
+        this.delta = delta;
+    }
+}
@@ -0,0 +1,47 @@
+package com.HoussamAlwaked.minimarket.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class BulkStockReport {
+
+    private int total;
+    private int updated;
+    private int failed;
+    private List<BulkStockResult> items = new ArrayList<>();
+
+    public BulkStockReport() {
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public void setTotal(int total) {
+        this.total = total;
+    }
+
+    public int getUpdated() {
+        return updated;
+    }
+
+    public void setUpdated(int updated) {
+        this.updated = updated;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public void setFailed(int failed) {
+        this.failed = failed;
+    }
+
+    public List<BulkStockResult> getItems() {
+        return items;
+    }
+
+    public void setItems(List<BulkStockResult> items) {
+        this.items = items;
+    }
+}
@@ -0,0 +1,20 @@
+package com.HoussamAlwaked.minimarket.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class BulkStockRequest {
+
+    private List<BulkStockItem> items = new ArrayList<>();
+
+    public BulkStockRequest() {
+    }
+
+    public List<BulkStockItem> getItems() {
+        return items;
+    }
+
+    public void setItems(List<BulkStockItem> items) {
+        this.items = items;
+    }
+}
@@ -0,0 +1,47 @@
+package com.HoussamAlwaked.minimarket.dto;
+
+public class BulkStockResult {
+
+    public static final String UPDATED = "UPDATED";
+    public static final String FAILED = "FAILED";
+
+    private String productId;
+    private String status;
+    private Integer stock;
+    private String error;
+
+    public BulkStockResult() {
+    }
+
+    public String getProductId() {
+        return productId;
+    }
+
+    public void setProductId(String productId) {
+        this.productId = productId;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public Integer getStock() {
+        return stock;
+    }
+
+    public void setStock(Integer stock) {
+        this.stock = stock;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+}
@@ -1,5 +1,6 @@
 package com.HoussamAlwaked.minimarket.dto;
 
+import com.HoussamAlwaked.minimarket.entity.Money;
 import com.HoussamAlwaked.minimarket.entity.OfferScope;
 import com.HoussamAlwaked.minimarket.entity.OfferType;
 import java.math.BigDecimal;
@@ -15,7 +16,7 @@ public class OfferRequest {
     private OfferType discountType;
     private BigDecimal discountValue;
     private boolean freeDelivery;
-    private BigDecimal minOrderTotal;
+    private Money minOrderTotal;
     private String categoryId;
     private List<String> productIds = new ArrayList<>();
     private Instant validFrom;
@@ -75,11 +76,11 @@ public class OfferRequest {
         this.freeDelivery = freeDelivery;
     }
 
-    public BigDecimal getMinOrderTotal() {
+    public Money getMinOrderTotal() {
         return minOrderTotal;
     }
 
-    public void setMinOrderTotal(BigDecimal minOrderTotal) {
+    public void setMinOrderTotal(Money minOrderTotal) {
         this.minOrderTotal = minOrderTotal;
     }
 
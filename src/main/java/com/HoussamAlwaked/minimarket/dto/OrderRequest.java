@@ -1,5 +1,6 @@
 package com.HoussamAlwaked.minimarket.dto;
 
+import com.HoussamAlwaked.minimarket.entity.Money;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -7,7 +8,7 @@ public class OrderRequest {
 
     private String storeId;
     private List<OrderItemRequest> items = new ArrayList<>();
-    private java.math.BigDecimal deliveryFee;
+    private Money deliveryFee;
 
     public OrderRequest() {
     }
@@ -28,11 +29,11 @@ public class OrderRequest {
         this.storeId = storeId;
     }
 
-    public java.math.BigDecimal getDeliveryFee() {
+    public Money getDeliveryFee() {
         return deliveryFee;
     }
 
-    public void setDeliveryFee(java.math.BigDecimal deliveryFee) {
+    public void setDeliveryFee(Money deliveryFee) {
         this.deliveryFee = deliveryFee;
     }
 }
@@ -0,0 +1,60 @@
+package com.HoussamAlwaked.minimarket.dto;
+
+import com.HoussamAlwaked.minimarket.exception.BadRequestException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class Page<T> {
+
+    public static final int DEFAULT_LIMIT = 50;
+    public static final int MAX_LIMIT = 200;
+
+    private List<T> items = new ArrayList<>();
+    private String nextCursor;
+
+    public Page() {
+    }
+
+    public Page(List<T> items, String nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    public static <T> Page<T> empty() {
+        return new Page<>(new ArrayList<>(), null);
+    }
+
+    /**
+     * Requests with neither limit nor cursor keep the pre-paging contract and
+     * get the whole list.
+     */
+    public static boolean isUnpaged(String cursor, Integer limit) {
+        return limit == null && (cursor == null || cursor.isBlank());
+    }
+
+    public static int resolveLimit(Integer limit) {
+        if (limit == null) {
+            return DEFAULT_LIMIT;
+        }
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new BadRequestException("Limit must be between 1 and " + MAX_LIMIT + ".");
+        }
+        return limit;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    public void setItems(List<T> items) {
+        this.items = items;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+}
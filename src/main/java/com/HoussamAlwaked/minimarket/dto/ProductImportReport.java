@@ -0,0 +1,47 @@
+package com.HoussamAlwaked.minimarket.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ProductImportReport {
+
+    private int total;
+    private int created;
+    private int failed;
+    private List<ProductImportRow> rows = new ArrayList<>();
+
+    public ProductImportReport() {
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public void setTotal(int total) {
+        this.total = total;
+    }
+
+    public int getCreated() {
+        return created;
+    }
+
+    public void setCreated(int created) {
+        this.created = created;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public void setFailed(int failed) {
+        this.failed = failed;
+    }
+
+    public List<ProductImportRow> getRows() {
+        return rows;
+    }
+
+    public void setRows(List<ProductImportRow> rows) {
+        this.rows = rows;
+    }
+}
@@ -0,0 +1,68 @@
+package com.HoussamAlwaked.minimarket.dto;
+
+import com.HoussamAlwaked.minimarket.entity.Money;
+
+/**
+ * Filters and order of a product listing. A price range orders by price,
+ * ascending unless PRICE_DESC is asked for, since Firestore can only
+ * range-scan the field it orders by first.
+ */
+public class ProductQuery {
+
+    private String categoryId;
+    private boolean inStock;
+    private Money minPrice;
+    private Money maxPrice;
+    private ProductSort sort = ProductSort.ID;
+
+    public ProductQuery() {
+    }
+
+    public String getCategoryId() {
+        return categoryId;
+    }
+
+    public void setCategoryId(String categoryId) {
+        this.categoryId = categoryId == null || categoryId.isBlank() ? null : categoryId;
+    }
+
+    public boolean isInStock() {
+        return inStock;
+    }
+
+    public void setInStock(boolean inStock) {
+        this.inStock = inStock;
+    }
+
+    public Money getMinPrice() {
+        return minPrice;
+    }
+
+    public void setMinPrice(Money minPrice) {
+        this.minPrice = minPrice;
+    }
+
+    public Money getMaxPrice() {
+        return maxPrice;
+    }
+
+    public void setMaxPrice(Money maxPrice) {
+        this.maxPrice = maxPrice;
+    }
+
+    public ProductSort getSort() {
+        return sort;
+    }
+
+    public void setSort(ProductSort sort) {
+        this.sort = sort == null ? ProductSort.ID : sort;
+    }
+
+    public boolean isOrderedByPrice() {
+        return sort != ProductSort.ID || minPrice != null || maxPrice != null;
+    }
+
+    public boolean isDescending() {
+        return sort == ProductSort.PRICE_DESC;
+    }
+}
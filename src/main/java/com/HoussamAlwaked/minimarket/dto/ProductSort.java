@@ -0,0 +1,26 @@
+package com.HoussamAlwaked.minimarket.dto;
+
+import com.HoussamAlwaked.minimarket.exception.BadRequestException;
+
+public enum ProductSort {
+    ID,
+    PRICE_ASC,
+    PRICE_DESC;
+
+    /**
+     * Maps the sort query parameter: none for id order, "price" or "-price".
+     */
+    public static ProductSort fromParam(String value) {
+        if (value == null || value.isBlank()) {
+            return ID;
+        }
+        switch (value.trim()) {
+            case "price":
+                return PRICE_ASC;
+            case "-price":
+                return PRICE_DESC;
+            default:
+                throw new BadRequestException("Unsupported sort: " + value + ". Use price or -price.");
+        }
+    }
+}
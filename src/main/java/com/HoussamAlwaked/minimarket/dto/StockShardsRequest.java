@@ -0,0 +1,17 @@
+package com.HoussamAlwaked.minimarket.dto;
+
+public class StockShardsRequest {
+
+    private int shards;
+
+    public StockShardsRequest() {
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    public void setShards(int shards) {
+        this.shards = shards;
+    }
+}
@@ -5,6 +5,7 @@ public class StoreRequest {
     private String name;
     private String address;
     private String categoryId;
+    private String timeZone;
 
     public StoreRequest() {
     }
@@ -32,4 +33,12 @@ public class StoreRequest {
     public void setCategoryId(String categoryId) {
         this.categoryId = categoryId;
     }
+
+    public String getTimeZone() {
+        return timeZone;
+    }
+
+    public void setTimeZone(String timeZone) {
+        this.timeZone = timeZone;
+    }
 }
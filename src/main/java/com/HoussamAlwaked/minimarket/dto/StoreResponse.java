@@ -9,6 +9,7 @@ public class StoreResponse {
     private String name;
     private String address;
     private String categoryId;
+    private String timeZone;
     private List<String> subAdminIds = new ArrayList<>();
     private boolean hasActiveOffer;
 
@@ -47,6 +48,14 @@ public class StoreResponse {
         this.categoryId = categoryId;
     }
 
+    public String getTimeZone() {
+        return timeZone;
+    }
+
+    public void setTimeZone(String timeZone) {
+        this.timeZone = timeZone;
+    }
+
     public List<String> getSubAdminIds() {
         return subAdminIds;
     }
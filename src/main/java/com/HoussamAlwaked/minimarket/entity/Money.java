@@ -0,0 +1,121 @@
+package com.HoussamAlwaked.minimarket.entity;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * An amount of the shop's currency held as a long count of minor units
+ * (cents, SCALE decimal places), so sums and comparisons are exact integer
+ * operations. It reads and writes JSON as a plain decimal number.
+ */
+public final class Money implements Comparable<Money> {
+
+    public static final int SCALE = 2;
+    public static final Money ZERO = new Money(0);
+
+    private static final long BASIS_POINTS_PER_UNIT = 10_000;
+
+    private final long minorUnits;
+
+    private Money(long minorUnits) {
+        this.minorUnits = minorUnits;
+    }
+
+    public static Money ofMinor(long minorUnits) {
+        return minorUnits == 0 ? ZERO : new Money(minorUnits);
+    }
+
+    /**
+     * Rejects amounts with more than SCALE decimal places or beyond the long
+     * range of minor units.
+     */
+    @JsonCreator(mode = JsonCreator.Mode.DELEGATING)
+    public static Money of(BigDecimal amount) {
+        try {
+            return ofMinor(amount.setScale(SCALE, RoundingMode.UNNECESSARY).unscaledValue().longValueExact());
+        } catch (ArithmeticException ex) {
+            throw new IllegalArgumentException("Invalid amount: " + amount.toPlainString()
+                    + ". At most " + SCALE + " decimal places are allowed.");
+        }
+    }
+
+    public static Money parse(String amount) {
+        return of(new BigDecimal(amount.trim()));
+    }
+
+    /**
+     * Rounds to the nearest minor unit, half up; for amounts stored before
+     * the scale was enforced.
+     */
+    public static Money rounded(BigDecimal amount) {
+        return of(amount.setScale(SCALE, RoundingMode.HALF_UP));
+    }
+
+    public long getMinorUnits() {
+        return minorUnits;
+    }
+
+    @JsonValue
+    public BigDecimal toBigDecimal() {
+        return BigDecimal.valueOf(minorUnits, SCALE);
+    }
+
+    public Money plus(Money other) {
+        return ofMinor(Math.addExact(minorUnits, other.minorUnits));
+    }
+
+    public Money minus(Money other) {
+        return ofMinor(Math.subtractExact(minorUnits, other.minorUnits));
+    }
+
+    public Money times(int quantity) {
+        return ofMinor(Math.multiplyExact(minorUnits, (long) quantity));
+    }
+
+    /**
+     * The given percentage of this amount, rounded half up to the minor unit.
+     */
+    public Money percent(BigDecimal percent) {
+        BigDecimal basisPoints = percent.movePointRight(2);
+        if (basisPoints.scale() <= 0) {
+            try {
+                long scaled = Math.multiplyExact(minorUnits, basisPoints.longValueExact());
+                long half = scaled < 0 ? -BASIS_POINTS_PER_UNIT / 2 : BASIS_POINTS_PER_UNIT / 2;
+                return ofMinor(Math.addExact(scaled, half) / BASIS_POINTS_PER_UNIT);
+            } catch (ArithmeticException ex) {
+                // Too large for long arithmetic; computed exactly below.
+            }
+        }
+        return rounded(toBigDecimal().multiply(percent).movePointLeft(2));
+    }
+
+    public Money min(Money other) {
+        return compareTo(other) <= 0 ? this : other;
+    }
+
+    public int signum() {
+        return Long.signum(minorUnits);
+    }
+
+    @Override
+    public int compareTo(Money other) {
+        return Long.compare(minorUnits, other.minorUnits);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Money && ((Money) other).minorUnits == minorUnits;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(minorUnits);
+    }
+
+    @Override
+    public String toString() {
+        return toBigDecimal().toPlainString();
+    }
+}
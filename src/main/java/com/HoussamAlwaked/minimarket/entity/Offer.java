@@ -15,7 +15,7 @@ public class Offer {
     private OfferType discountType = OfferType.PERCENT;
     private BigDecimal discountValue;
     private boolean freeDelivery;
-    private BigDecimal minOrderTotal;
+    private Money minOrderTotal;
     private String categoryId;
     private List<String> productIds = new ArrayList<>();
     private Instant validFrom;
@@ -93,11 +93,11 @@ public class Offer {
         this.freeDelivery = freeDelivery;
     }
 
-    public BigDecimal getMinOrderTotal() {
+    public Money getMinOrderTotal() {
         return minOrderTotal;
     }
 
-    public void setMinOrderTotal(BigDecimal minOrderTotal) {
+    public void setMinOrderTotal(Money minOrderTotal) {
         this.minOrderTotal = minOrderTotal;
     }
 
@@ -1,6 +1,5 @@
 package com.HoussamAlwaked.minimarket.entity;
 
-import java.math.BigDecimal;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
@@ -11,10 +10,10 @@ public class Order {
     private String customerId;
     private String storeId;
     private Instant createdAt;
-    private BigDecimal subtotal;
-    private BigDecimal discount;
-    private BigDecimal deliveryFee;
-    private BigDecimal total;
+    private Money subtotal;
+    private Money discount;
+    private Money deliveryFee;
+    private Money total;
     private String status;
     private String appliedOfferId;
     private boolean freeDelivery;
@@ -55,35 +54,35 @@ public class Order {
         this.createdAt = createdAt;
     }
 
-    public BigDecimal getTotal() {
+    public Money getTotal() {
         return total;
     }
 
-    public void setTotal(BigDecimal total) {
+    public void setTotal(Money total) {
         this.total = total;
     }
 
-    public BigDecimal getSubtotal() {
+    public Money getSubtotal() {
         return subtotal;
     }
 
-    public void setSubtotal(BigDecimal subtotal) {
+    public void setSubtotal(Money subtotal) {
         this.subtotal = subtotal;
     }
 
-    public BigDecimal getDiscount() {
+    public Money getDiscount() {
         return discount;
     }
 
-    public void setDiscount(BigDecimal discount) {
+    public void setDiscount(Money discount) {
         this.discount = discount;
     }
 
-    public BigDecimal getDeliveryFee() {
+    public Money getDeliveryFee() {
         return deliveryFee;
     }
 
-    public void setDeliveryFee(BigDecimal deliveryFee) {
+    public void setDeliveryFee(Money deliveryFee) {
         this.deliveryFee = deliveryFee;
     }
 
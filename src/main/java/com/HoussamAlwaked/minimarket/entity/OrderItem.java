@@ -1,13 +1,15 @@
 package com.HoussamAlwaked.minimarket.entity;
 
-import java.math.BigDecimal;
-
 public class OrderItem {
 
     private String id;
+    private String productId;
+    private String name;
+    private String categoryId;
+    // The product as ordered, or the current product when the caller asks for it.
     private Product product;
     private int quantity;
-    private BigDecimal price;
+    private Money price;
 
     public OrderItem() {
     }
@@ -20,6 +22,30 @@ public class OrderItem {
         this.id = id;
     }
 
+    public String getProductId() {
+        return productId;
+    }
+
+    public void setProductId(String productId) {
+        this.productId = productId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getCategoryId() {
+        return categoryId;
+    }
+
+    public void setCategoryId(String categoryId) {
+        this.categoryId = categoryId;
+    }
+
     public Product getProduct() {
         return product;
     }
@@ -36,11 +62,11 @@ public class OrderItem {
         this.quantity = quantity;
     }
 
-    public BigDecimal getPrice() {
+    public Money getPrice() {
         return price;
     }
 
-    public void setPrice(BigDecimal price) {
+    public void setPrice(Money price) {
         this.price = price;
     }
 }
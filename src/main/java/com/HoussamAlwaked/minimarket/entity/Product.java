@@ -1,7 +1,5 @@
 package com.HoussamAlwaked.minimarket.entity;
 
-import java.math.BigDecimal;
-
 public class Product {
 
     private String id;
@@ -9,8 +7,10 @@ public class Product {
     private String categoryId;
     private String storeId;
     private String image;
-    private BigDecimal price;
+    private Money price;
     private int stock;
+    // Number of stock counter shards; 0 keeps the stock on the product document.
+    private int stockShards;
 
     public Product() {
     }
@@ -55,11 +55,11 @@ public class Product {
         this.image = image;
     }
 
-    public BigDecimal getPrice() {
+    public Money getPrice() {
         return price;
     }
 
-    public void setPrice(BigDecimal price) {
+    public void setPrice(Money price) {
         this.price = price;
     }
 
@@ -70,4 +70,12 @@ public class Product {
     public void setStock(int stock) {
         this.stock = stock;
     }
+
+    public int getStockShards() {
+        return stockShards;
+    }
+
+    public void setStockShards(int stockShards) {
+        this.stockShards = stockShards;
+    }
 }
@@ -9,7 +9,14 @@ public class Store {
     private String name;
     private String address;
     private String categoryId;
+    private String timeZone;
     private List<String> subAdminIds = new ArrayList<>();
+    // Maintained by OfferService; not written by StoreRepository.save.
+    private boolean hasActiveOffer;
+    // Maintained by CatalogVersionService; not written by StoreRepository.save.
+    private long catalogVersion;
+    // Set by StoreDeletionService; not written by StoreRepository.save.
+    private boolean deleting;
 
     public Store() {
     }
@@ -46,6 +53,14 @@ public class Store {
         this.categoryId = categoryId;
     }
 
+    public String getTimeZone() {
+        return timeZone;
+    }
+
+    public void setTimeZone(String timeZone) {
+        this.timeZone = timeZone;
+    }
+
     public List<String> getSubAdminIds() {
         return subAdminIds;
     }
@@ -53,4 +68,28 @@ public class Store {
     public void setSubAdminIds(List<String> subAdminIds) {
         this.subAdminIds = subAdminIds == null ? new ArrayList<>() : subAdminIds;
     }
+
+    public boolean isHasActiveOffer() {
+        return hasActiveOffer;
+    }
+
+    public void setHasActiveOffer(boolean hasActiveOffer) {
+        this.hasActiveOffer = hasActiveOffer;
+    }
+
+    public long getCatalogVersion() {
+        return catalogVersion;
+    }
+
+    public void setCatalogVersion(long catalogVersion) {
+        this.catalogVersion = catalogVersion;
+    }
+
+    public boolean isDeleting() {
+        return deleting;
+    }
+
+    public void setDeleting(boolean deleting) {
+        this.deleting = deleting;
+    }
 }
@@ -0,0 +1,147 @@
+package com.HoussamAlwaked.minimarket.entity;
+
+import java.time.Instant;
+
+public class StoreDeletionJob {
+
+    public static final String PENDING = "PENDING";
+    public static final String RUNNING = "RUNNING";
+    public static final String COMPLETED = "COMPLETED";
+    public static final String FAILED = "FAILED";
+
+    public static final String PHASE_PRODUCTS = "PRODUCTS";
+    public static final String PHASE_CATEGORIES = "CATEGORIES";
+    public static final String PHASE_SUB_ADMINS = "SUB_ADMINS";
+    public static final String PHASE_STORE = "STORE";
+    public static final String PHASE_DONE = "DONE";
+
+    private String id;
+    private String storeId;
+    private String status;
+    private String phase;
+    private int deletedProducts;
+    private int deletedCategories;
+    private int unassignedSubAdmins;
+    private String error;
+    private String owner;
+    private int attempts;
+    private Instant nextAttemptAt;
+    private Instant createdAt;
+    private Instant updatedAt;
+
+    public StoreDeletionJob() {
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getStoreId() {
+        return storeId;
+    }
+
+    public void setStoreId(String storeId) {
+        this.storeId = storeId;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public String getPhase() {
+        return phase;
+    }
+
+    public void setPhase(String phase) {
+        this.phase = phase;
+    }
+
+    public int getDeletedProducts() {
+        return deletedProducts;
+    }
+
+    public void setDeletedProducts(int deletedProducts) {
+        this.deletedProducts = deletedProducts;
+    }
+
+    public int getDeletedCategories() {
+        return deletedCategories;
+    }
+
+    public void setDeletedCategories(int deletedCategories) {
+        this.deletedCategories = deletedCategories;
+    }
+
+    public int getUnassignedSubAdmins() {
+        return unassignedSubAdmins;
+    }
+
+    public void setUnassignedSubAdmins(int unassignedSubAdmins) {
+        this.unassignedSubAdmins = unassignedSubAdmins;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public Instant getNextAttemptAt() {
+        return nextAttemptAt;
+    }
+
+    public void setNextAttemptAt(Instant nextAttemptAt) {
+        this.nextAttemptAt = nextAttemptAt;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    public boolean isFinished() {
+        return COMPLETED.equals(status);
+    }
+
+    // Failed jobs are retried until they run out of attempts, which leaves nextAttemptAt empty.
+    public boolean isRetryDue(Instant now) {
+        return FAILED.equals(status) && nextAttemptAt != null && !nextAttemptAt.isAfter(now);
+    }
+}
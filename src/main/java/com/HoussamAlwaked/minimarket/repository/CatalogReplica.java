@@ -0,0 +1,299 @@
+package com.HoussamAlwaked.minimarket.repository;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentChange;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.FirestoreException;
+import com.google.cloud.firestore.ListenerRegistration;
+import com.google.cloud.firestore.QuerySnapshot;
+import com.HoussamAlwaked.minimarket.dto.Page;
+import com.HoussamAlwaked.minimarket.dto.ProductQuery;
+import com.HoussamAlwaked.minimarket.entity.Category;
+import com.HoussamAlwaked.minimarket.entity.Product;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Opt-in in-memory copy of store catalogs, enabled with
+ * CATALOG_REPLICA_ENABLED=true. The first catalog read of an existing store
+ * starts snapshot listeners on its store document, products and categories;
+ * once each has delivered its initial snapshot, the store's catalog reads and
+ * catalog state are answered from memory and kept current by the
+ * listeners' incremental changes. Every instance listens on its own, so
+ * writes made anywhere reach all of them with no extra infrastructure.
+ *
+ * Until a store is ready, or when replication is off, every method falls
+ * back to the regular Firestore queries. A listener error drops the store's
+ * replica; the next read starts a new one. At most MAX_STORES stores are
+ * replicated per instance and the rest are always read from Firestore.
+ *
+ * Products are held in ProductColumns, off-heap with
+ * CATALOG_REPLICA_OFF_HEAP=true. Stock held in shards is not replicated;
+ * sharded products still have their stock summed from the shards for every
+ * page.
+ */
+@Repository
+public class CatalogReplica implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(CatalogReplica.class);
+    private static final String ENABLED_ENV = "CATALOG_REPLICA_ENABLED";
+    private static final String OFF_HEAP_ENV = "CATALOG_REPLICA_OFF_HEAP";
+    private static final int MAX_STORES = 200;
+
+    private final Firestore firestore;
+    private final StoreRepository storeRepository;
+    private final ProductRepository productRepository;
+    private final CategoryRepository categoryRepository;
+    private final StockShardRepository stockShardRepository;
+    private final boolean enabled = Boolean.parseBoolean(System.getenv(ENABLED_ENV));
+    private final boolean offHeap = Boolean.parseBoolean(System.getenv(OFF_HEAP_ENV));
+    private final Map<String, StoreReplica> stores = new ConcurrentHashMap<>();
+
+    public CatalogReplica(Firestore firestore,
+                          StoreRepository storeRepository,
+                          ProductRepository productRepository,
+                          CategoryRepository categoryRepository,
+                          StockShardRepository stockShardRepository) {
+        this.firestore = firestore;
+        this.storeRepository = storeRepository;
+        this.productRepository = productRepository;
+        this.categoryRepository = categoryRepository;
+        this.stockShardRepository = stockShardRepository;
+    }
+
+    /**
+     * A token that changes whenever the store's catalog reads may return
+     * something else; empty if the store does not exist. From the replica it
+     * covers the catalog version and the exact product and category
+     * documents held, so it never labels data older than it describes.
+     */
+    public CompletableFuture<Optional<String>> findCatalogStateAsync(String storeId) {
+        StoreReplica replica = replicaFor(storeId);
+        if (replica != null) {
+            return CompletableFuture.completedFuture(Optional.of(replica.state()));
+        }
+        return storeRepository.findCatalogVersionAsync(storeId).thenApply(version -> {
+            // Only stores known to exist are replicated.
+            if (version.isPresent() && enabled && !stores.containsKey(storeId) && stores.size() < MAX_STORES) {
+                stores.computeIfAbsent(storeId, this::start);
+            }
+            return version.map(value -> "v" + value);
+        });
+    }
+
+    /**
+     * Same filters, order and cursors as ProductRepository.findByStoreAsync.
+     */
+    public CompletableFuture<Page<Product>> findProductsAsync(String storeId,
+                                                              ProductQuery filter,
+                                                              String cursor,
+                                                              int limit) {
+        StoreReplica replica = replicaFor(storeId);
+        if (replica == null) {
+            return productRepository.findByStoreAsync(storeId, filter, cursor, limit);
+        }
+
+        boolean hasCursor = cursor != null && !cursor.isBlank();
+        Long minPrice = filter.getMinPrice() == null ? null : filter.getMinPrice().getMinorUnits();
+        Long maxPrice = filter.getMaxPrice() == null ? null : filter.getMaxPrice().getMinorUnits();
+        if (filter.isOrderedByPrice()) {
+            String[] after = hasCursor ? PageCursor.decode(cursor, 2) : null;
+            List<Product> fetched = replica.products.selectByPrice(storeId, filter.getCategoryId(),
+                    filter.isInStock(), minPrice, maxPrice, filter.isDescending(),
+                    after == null ? null : PageCursor.decodeLong(after[0]), after == null ? null : after[1], limit);
+            return stockShardRepository.fillStockAsync(fetched)
+                    .thenApply(products -> PageCursor.toPage(products, limit, ProductRepository::priceCursor));
+        }
+        String afterId = hasCursor ? PageCursor.decode(cursor, 1)[0] : null;
+        List<Product> fetched = replica.products.select(storeId, filter.getCategoryId(), filter.isInStock(),
+                null, null, afterId, limit);
+        return stockShardRepository.fillStockAsync(fetched)
+                .thenApply(products -> PageCursor.toPage(products, limit,
+                        product -> PageCursor.encode(product.getId())));
+    }
+
+    public CompletableFuture<List<Category>> findCategoriesAsync(String storeId) {
+        StoreReplica replica = replicaFor(storeId);
+        if (replica == null) {
+            return categoryRepository.findByStoreIdAsync(storeId);
+        }
+        List<Category> categories = new ArrayList<>();
+        for (DocumentSnapshot snapshot : replica.categories.values()) {
+            categories.add(categoryRepository.fromSnapshot(snapshot));
+        }
+        return CompletableFuture.completedFuture(categories);
+    }
+
+    @Override
+    public void destroy() {
+        for (StoreReplica replica : stores.values()) {
+            replica.close();
+        }
+        stores.clear();
+    }
+
+    // Null unless the store is replicated and ready.
+    private StoreReplica replicaFor(String storeId) {
+        if (!enabled || storeId == null || storeId.isBlank()) {
+            return null;
+        }
+        StoreReplica replica = stores.get(storeId);
+        return replica != null && replica.isReady() ? replica : null;
+    }
+
+    private StoreReplica start(String storeId) {
+        StoreReplica replica = new StoreReplica(storeId, offHeap);
+        replica.register(storeRepository.getDocument(storeId).addSnapshotListener((snapshot, error) -> {
+            if (error != null) {
+                drop(replica, error);
+                return;
+            }
+            if (!snapshot.exists()) {
+                drop(replica, null);
+                return;
+            }
+            Long version = snapshot.getLong(StoreRepository.CATALOG_VERSION_FIELD);
+            replica.version = version == null ? 0 : version;
+            replica.storeLoaded = true;
+        }));
+        replica.register(productRepository.addStoreListener(storeId, (snapshot, error) -> {
+            if (error != null) {
+                drop(replica, error);
+                return;
+            }
+            replica.applyProducts(snapshot, productRepository);
+        }));
+        replica.register(firestore.collection("categories").whereEqualTo("storeId", storeId)
+                .addSnapshotListener((snapshot, error) -> {
+                    if (error != null) {
+                        drop(replica, error);
+                        return;
+                    }
+                    replica.applyCategories(snapshot);
+                }));
+        return replica;
+    }
+
+    private void drop(StoreReplica replica, FirestoreException error) {
+        if (error != null) {
+            log.warn("Catalog replica of store {} stopped; it restarts on the next read.", replica.storeId, error);
+        }
+        stores.remove(replica.storeId, replica);
+        replica.close();
+    }
+
+    // Same documents at the same update times give the same hash on every instance.
+    private static long hash(DocumentSnapshot snapshot) {
+        long h = 1125899906842597L;
+        String id = snapshot.getId();
+        for (int i = 0; i < id.length(); i++) {
+            h = 31 * h + id.charAt(i);
+        }
+        Timestamp updateTime = snapshot.getUpdateTime();
+        if (updateTime != null) {
+            h = 31 * h + updateTime.getSeconds();
+            h = 31 * h + updateTime.getNanos();
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static final class StoreReplica {
+        private final String storeId;
+        private final List<ListenerRegistration> registrations = new ArrayList<>();
+        private final ReentrantLock lock = new ReentrantLock();
+        private final ProductColumns products;
+        private final ConcurrentSkipListMap<String, DocumentSnapshot> categories = new ConcurrentSkipListMap<>();
+        // Each listener delivers its events one at a time, so only the matching listener writes these.
+        private volatile long version;
+        private volatile long categoryDigest;
+        private volatile boolean storeLoaded;
+        private volatile boolean productsLoaded;
+        private volatile boolean categoriesLoaded;
+        private volatile boolean closed;
+
+        private StoreReplica(String storeId, boolean offHeap) {
+            this.storeId = storeId;
+            this.products = new ProductColumns(offHeap);
+        }
+
+        private boolean isReady() {
+            return storeLoaded && productsLoaded && categoriesLoaded && !closed;
+        }
+
+        private String state() {
+            return "r" + version + ":" + Long.toHexString(products.digest()) + ":" + Long.toHexString(categoryDigest);
+        }
+
+        private void applyProducts(QuerySnapshot snapshot, ProductRepository productRepository) {
+            for (DocumentChange change : snapshot.getDocumentChanges()) {
+                DocumentSnapshot document = change.getDocument();
+                if (change.getType() == DocumentChange.Type.REMOVED) {
+                    products.remove(document.getId());
+                } else {
+                    products.upsert(productRepository.fromSnapshot(document), hash(document));
+                }
+            }
+            productsLoaded = true;
+        }
+
+        private void applyCategories(QuerySnapshot snapshot) {
+            long digest = categoryDigest;
+            for (DocumentChange change : snapshot.getDocumentChanges()) {
+                DocumentSnapshot document = change.getDocument();
+                DocumentSnapshot previous = categories.remove(document.getId());
+                if (previous != null) {
+                    digest ^= hash(previous);
+                }
+                if (change.getType() != DocumentChange.Type.REMOVED) {
+                    categories.put(document.getId(), document);
+                    digest ^= hash(document);
+                }
+            }
+            categoryDigest = digest;
+            categoriesLoaded = true;
+        }
+
+        // A listener can fail before the others are registered, so late registrations are removed at once.
+        private void register(ListenerRegistration registration) {
+            lock.lock();
+            try {
+                if (closed) {
+                    registration.remove();
+                } else {
+                    registrations.add(registration);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void close() {
+            lock.lock();
+            try {
+                closed = true;
+                for (ListenerRegistration registration : registrations) {
+                    registration.remove();
+                }
+                registrations.clear();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
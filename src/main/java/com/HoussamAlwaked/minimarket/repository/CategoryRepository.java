@@ -1,17 +1,20 @@
 package com.HoussamAlwaked.minimarket.repository;
 
 import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
 import com.google.cloud.firestore.DocumentSnapshot;
 import com.google.cloud.firestore.Firestore;
 import com.google.cloud.firestore.QuerySnapshot;
 import com.HoussamAlwaked.minimarket.entity.Category;
 import com.HoussamAlwaked.minimarket.exception.BadRequestException;
+import com.HoussamAlwaked.minimarket.repository.firestore.FirestoreFutures;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import org.springframework.stereotype.Repository;
 
@@ -111,6 +114,40 @@ public class CategoryRepository {
         }
     }
 
+    public List<Category> findByStoreId(String storeId, int limit) {
+        if (storeId == null || storeId.isBlank()) {
+            return List.of();
+        }
+        try {
+            QuerySnapshot snapshot = collection.whereEqualTo("storeId", storeId).limit(limit).get().get();
+            List<Category> categories = new ArrayList<>();
+            for (DocumentSnapshot document : snapshot.getDocuments()) {
+                categories.add(fromSnapshot(document));
+            }
+            return categories;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Category list interrupted.", ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Failed to load categories.", ex.getCause());
+        }
+    }
+
+    public CompletableFuture<List<Category>> findByStoreIdAsync(String storeId) {
+        if (storeId == null || storeId.isBlank()) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+        return FirestoreFutures.toCompletable(collection.whereEqualTo("storeId", storeId).get(),
+                        "Failed to load categories.")
+                .thenApply(snapshot -> {
+                    List<Category> categories = new ArrayList<>();
+                    for (DocumentSnapshot document : snapshot.getDocuments()) {
+                        categories.add(fromSnapshot(document));
+                    }
+                    return categories;
+                });
+    }
+
     public void deleteById(String id) {
         if (id == null || id.isBlank()) {
             return;
@@ -125,6 +162,10 @@ public class CategoryRepository {
         }
     }
 
+    public DocumentReference getDocument(String id) {
+        return collection.document(id);
+    }
+
     public Map<String, Object> toMap(Category category) {
         Map<String, Object> data = new HashMap<>();
         data.put("id", category.getId());
@@ -0,0 +1,125 @@
+package com.HoussamAlwaked.minimarket.repository;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.HoussamAlwaked.minimarket.exception.BadRequestException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Idempotency keys sent by clients, each recorded in the same transaction
+ * as the write it guards. A key belongs to a scope (the operation and the
+ * caller or target it was sent for); the document id is a hash of both, so
+ * any client key maps to a valid id and keys of different scopes never
+ * collide. Each record also holds a hash of the request it was sent with;
+ * reusing a key for a different request is rejected. Records expire after
+ * RETENTION; expiresAt can also back a Firestore TTL policy to delete them.
+ */
+@Repository
+public class IdempotencyKeyRepository {
+
+    public static final Duration RETENTION = Duration.ofHours(24);
+    public static final int MAX_KEY_LENGTH = 255;
+    private static final String REQUEST_HASH_FIELD = "requestHash";
+    private static final String RESULT_ID_FIELD = "resultId";
+    private static final String RESULT_STOCK_FIELD = "resultStock";
+    private static final String EXPIRES_AT_FIELD = "expiresAt";
+
+    private final CollectionReference collection;
+
+    public IdempotencyKeyRepository(Firestore firestore) {
+        this.collection = firestore.collection("idempotencyKeys");
+    }
+
+    /**
+     * Returns null when no key was sent.
+     */
+    public DocumentReference getDocument(String scope, String key) {
+        if (key == null) {
+            return null;
+        }
+        if (key.isBlank() || key.length() > MAX_KEY_LENGTH) {
+            throw new BadRequestException("Idempotency-Key must be 1 to " + MAX_KEY_LENGTH + " characters.");
+        }
+        return collection.document(hash(scope + '\n' + key));
+    }
+
+    public Map<String, Object> toMap(String scope, String requestHash, String resultId, Integer resultStock) {
+        Instant now = Instant.now();
+        Instant expiresAt = now.plus(RETENTION);
+        Map<String, Object> data = new HashMap<>();
+        data.put("scope", scope);
+        data.put(REQUEST_HASH_FIELD, requestHash);
+        data.put(RESULT_ID_FIELD, resultId);
+        data.put(RESULT_STOCK_FIELD, resultStock);
+        data.put("createdAt", now.toEpochMilli());
+        data.put(EXPIRES_AT_FIELD, Timestamp.ofTimeSecondsAndNanos(expiresAt.getEpochSecond(), expiresAt.getNano()));
+        return data;
+    }
+
+    /**
+     * TTL deletion runs late, so expired records are treated as absent here.
+     */
+    public static boolean isLive(DocumentSnapshot snapshot, Instant now) {
+        if (snapshot == null || !snapshot.exists()) {
+            return false;
+        }
+        Timestamp expiresAt = snapshot.getTimestamp(EXPIRES_AT_FIELD);
+        return expiresAt == null || expiresAt.toDate().toInstant().isAfter(now);
+    }
+
+    /**
+     * Hash of the fields that identify a request, in the order given.
+     */
+    public static String requestHash(Object... fields) {
+        StringBuilder value = new StringBuilder();
+        for (Object field : fields) {
+            value.append(field).append('\n');
+        }
+        return hash(value.toString());
+    }
+
+    /**
+     * Rejects a live record that was written for a different request.
+     * Records written before request hashes were stored are accepted.
+     */
+    public static void checkRequest(DocumentSnapshot snapshot, String requestHash) {
+        String stored = snapshot.getString(REQUEST_HASH_FIELD);
+        if (stored != null && !stored.equals(requestHash)) {
+            throw new BadRequestException("Idempotency-Key was already used with a different request.");
+        }
+    }
+
+    // Key for in-memory replay caches, so a key reused with another request misses and is checked in Firestore.
+    public static String replayKey(DocumentReference keyRef, String requestHash) {
+        return keyRef.getId() + ':' + requestHash;
+    }
+
+    public static String resultId(DocumentSnapshot snapshot) {
+        return snapshot.getString(RESULT_ID_FIELD);
+    }
+
+    public static Integer resultStock(DocumentSnapshot snapshot) {
+        Long stock = snapshot.getLong(RESULT_STOCK_FIELD);
+        return stock == null ? null : stock.intValue();
+    }
+
+    private static String hash(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available.", ex);
+        }
+    }
+}
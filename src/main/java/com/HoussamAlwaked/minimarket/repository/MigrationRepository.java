@@ -0,0 +1,72 @@
+package com.HoussamAlwaked.minimarket.repository;
+
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.HoussamAlwaked.minimarket.entity.MigrationState;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public class MigrationRepository {
+
+    private final CollectionReference collection;
+
+    public MigrationRepository(Firestore firestore) {
+        this.collection = firestore.collection("migrations");
+    }
+
+    public MigrationState save(MigrationState state) {
+        state.setUpdatedAt(Instant.now());
+        try {
+            collection.document(state.getId()).set(toMap(state)).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Migration checkpoint interrupted.", ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Failed to save migration checkpoint.", ex.getCause());
+        }
+        return state;
+    }
+
+    public Optional<MigrationState> findById(String id) {
+        if (id == null || id.isBlank()) {
+            return Optional.empty();
+        }
+        try {
+            DocumentSnapshot snapshot = collection.document(id).get().get();
+            if (!snapshot.exists()) {
+                return Optional.empty();
+            }
+            return Optional.of(fromSnapshot(snapshot));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Migration lookup interrupted.", ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Failed to load migration checkpoint.", ex.getCause());
+        }
+    }
+
+    public Map<String, Object> toMap(MigrationState state) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("id", state.getId());
+        data.put("lastDocumentId", state.getLastDocumentId());
+        data.put("completed", state.isCompleted());
+        data.put("updatedAt", state.getUpdatedAt() == null ? null : state.getUpdatedAt().toEpochMilli());
+        return data;
+    }
+
+    public MigrationState fromSnapshot(DocumentSnapshot snapshot) {
+        MigrationState state = new MigrationState();
+        state.setId(snapshot.getId());
+        state.setLastDocumentId(snapshot.getString("lastDocumentId"));
+        state.setCompleted(Boolean.TRUE.equals(snapshot.getBoolean("completed")));
+        Long updatedAt = snapshot.getLong("updatedAt");
+        state.setUpdatedAt(updatedAt == null ? null : Instant.ofEpochMilli(updatedAt));
+        return state;
+    }
+}
@@ -6,6 +6,7 @@ import com.google.cloud.firestore.DocumentReference;
 import com.google.cloud.firestore.DocumentSnapshot;
 import com.google.cloud.firestore.Firestore;
 import com.google.cloud.firestore.QuerySnapshot;
+import com.HoussamAlwaked.minimarket.entity.Money;
 import com.HoussamAlwaked.minimarket.entity.Offer;
 import com.HoussamAlwaked.minimarket.entity.OfferScope;
 import com.HoussamAlwaked.minimarket.entity.OfferType;
@@ -110,7 +111,8 @@ public class OfferRepository {
         data.put("discountType", offer.getDiscountType() == null ? null : offer.getDiscountType().name());
         data.put("discountValue", offer.getDiscountValue() == null ? null : offer.getDiscountValue().toPlainString());
         data.put("freeDelivery", offer.isFreeDelivery());
-        data.put("minOrderTotal", offer.getMinOrderTotal() == null ? null : offer.getMinOrderTotal().toPlainString());
+        data.put("minOrderTotal", offer.getMinOrderTotal() == null ? null : offer.getMinOrderTotal().toString());
+        data.put("minOrderTotalMinor", offer.getMinOrderTotal() == null ? null : offer.getMinOrderTotal().getMinorUnits());
         data.put("categoryId", offer.getCategoryId());
         data.put("productIds", offer.getProductIds());
         data.put("validFrom", offer.getValidFrom() == null ? null : offer.getValidFrom().toEpochMilli());
@@ -139,7 +141,7 @@ public class OfferRepository {
         }
         offer.setDiscountValue(parseDecimal(snapshot.get("discountValue")));
         offer.setFreeDelivery(Boolean.TRUE.equals(snapshot.getBoolean("freeDelivery")));
-        offer.setMinOrderTotal(parseDecimal(snapshot.get("minOrderTotal")));
+        offer.setMinOrderTotal(parseMoney(snapshot.get("minOrderTotalMinor"), snapshot.get("minOrderTotal")));
         offer.setCategoryId(snapshot.getString("categoryId"));
         Object productIds = snapshot.get("productIds");
         if (productIds instanceof List) {
@@ -193,4 +195,15 @@ public class OfferRepository {
         }
         return new BigDecimal(value.toString());
     }
+
+    // Documents written before the minor units field only have the decimal string, or a number.
+    private Money parseMoney(Object minorUnits, Object legacy) {
+        if (minorUnits instanceof Number) {
+            return Money.ofMinor(((Number) minorUnits).longValue());
+        }
+        if (legacy == null) {
+            return null;
+        }
+        return Money.rounded(new BigDecimal(legacy.toString()));
+    }
 }
@@ -4,11 +4,17 @@ import com.google.cloud.Timestamp;
 import com.google.cloud.firestore.CollectionReference;
 import com.google.cloud.firestore.DocumentReference;
 import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
 import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Query;
 import com.google.cloud.firestore.QuerySnapshot;
+import com.HoussamAlwaked.minimarket.dto.Page;
+import com.HoussamAlwaked.minimarket.entity.Money;
 import com.HoussamAlwaked.minimarket.entity.Order;
 import com.HoussamAlwaked.minimarket.entity.OrderItem;
 import com.HoussamAlwaked.minimarket.entity.Product;
+import com.HoussamAlwaked.minimarket.repository.firestore.FirestoreFutures;
+import com.HoussamAlwaked.minimarket.repository.firestore.FirestoreStreams;
 import java.math.BigDecimal;
 import java.time.Instant;
 import java.util.ArrayList;
@@ -16,12 +22,17 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
 import org.springframework.stereotype.Repository;
 
 @Repository
 public class OrderRepository {
 
+    private static final String ITEM_ENCODING_FIELD = "itemEncoding";
+    private static final long SLIM_ITEM_ENCODING = 2;
+
     private final CollectionReference collection;
 
     public OrderRepository(Firestore firestore) {
@@ -44,6 +55,20 @@ public class OrderRepository {
         return order;
     }
 
+    public boolean existsById(String id) {
+        if (id == null || id.isBlank()) {
+            return false;
+        }
+        try {
+            return collection.document(id).get().get().exists();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Order lookup interrupted.", ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Failed to check order.", ex.getCause());
+        }
+    }
+
     public List<Order> findAll() {
         try {
             QuerySnapshot snapshot = collection.get().get();
@@ -98,6 +123,34 @@ public class OrderRepository {
         }
     }
 
+    public CompletableFuture<Page<Order>> findByStoreIdAsync(String storeId, String cursor, int limit) {
+        if (storeId == null || storeId.isBlank()) {
+            return CompletableFuture.completedFuture(Page.empty());
+        }
+        return findPageAsync(collection.whereEqualTo("storeId", storeId), cursor, limit);
+    }
+
+    public CompletableFuture<Page<Order>> findByCustomerIdAsync(String customerId, String cursor, int limit) {
+        if (customerId == null || customerId.isBlank()) {
+            return CompletableFuture.completedFuture(Page.empty());
+        }
+        return findPageAsync(collection.whereEqualTo("customerId", customerId), cursor, limit);
+    }
+
+    public void forEachByStoreId(String storeId, Consumer<Order> action) {
+        if (storeId == null || storeId.isBlank()) {
+            return;
+        }
+        forEachNewestFirst(collection.whereEqualTo("storeId", storeId), action);
+    }
+
+    public void forEachByCustomerId(String customerId, Consumer<Order> action) {
+        if (customerId == null || customerId.isBlank()) {
+            return;
+        }
+        forEachNewestFirst(collection.whereEqualTo("customerId", customerId), action);
+    }
+
     public DocumentReference getDocument(String id) {
         return collection.document(id);
     }
@@ -108,13 +161,18 @@ public class OrderRepository {
         data.put("customerId", order.getCustomerId());
         data.put("storeId", order.getStoreId());
         data.put("createdAt", order.getCreatedAt() == null ? null : order.getCreatedAt().toEpochMilli());
-        data.put("subtotal", order.getSubtotal() == null ? null : order.getSubtotal().toPlainString());
-        data.put("discount", order.getDiscount() == null ? null : order.getDiscount().toPlainString());
-        data.put("deliveryFee", order.getDeliveryFee() == null ? null : order.getDeliveryFee().toPlainString());
-        data.put("total", order.getTotal() == null ? null : order.getTotal().toPlainString());
+        data.put("subtotal", order.getSubtotal() == null ? null : order.getSubtotal().toString());
+        data.put("subtotalMinor", order.getSubtotal() == null ? null : order.getSubtotal().getMinorUnits());
+        data.put("discount", order.getDiscount() == null ? null : order.getDiscount().toString());
+        data.put("discountMinor", order.getDiscount() == null ? null : order.getDiscount().getMinorUnits());
+        data.put("deliveryFee", order.getDeliveryFee() == null ? null : order.getDeliveryFee().toString());
+        data.put("deliveryFeeMinor", order.getDeliveryFee() == null ? null : order.getDeliveryFee().getMinorUnits());
+        data.put("total", order.getTotal() == null ? null : order.getTotal().toString());
+        data.put("totalMinor", order.getTotal() == null ? null : order.getTotal().getMinorUnits());
         data.put("status", order.getStatus());
         data.put("appliedOfferId", order.getAppliedOfferId());
         data.put("freeDelivery", order.isFreeDelivery());
+        data.put(ITEM_ENCODING_FIELD, SLIM_ITEM_ENCODING);
 
         List<Map<String, Object>> items = new ArrayList<>();
         if (order.getOrderItems() != null) {
@@ -132,14 +190,16 @@ public class OrderRepository {
         order.setCustomerId(snapshot.getString("customerId"));
         order.setStoreId(snapshot.getString("storeId"));
         order.setCreatedAt(parseInstant(snapshot.get("createdAt")));
-        order.setSubtotal(parseDecimal(snapshot.get("subtotal")));
-        order.setDiscount(parseDecimal(snapshot.get("discount")));
-        order.setDeliveryFee(parseDecimal(snapshot.get("deliveryFee")));
-        order.setTotal(parseDecimal(snapshot.get("total")));
+        order.setSubtotal(parseMoney(snapshot.get("subtotalMinor"), snapshot.get("subtotal")));
+        order.setDiscount(parseMoney(snapshot.get("discountMinor"), snapshot.get("discount")));
+        order.setDeliveryFee(parseMoney(snapshot.get("deliveryFeeMinor"), snapshot.get("deliveryFee")));
+        order.setTotal(parseMoney(snapshot.get("totalMinor"), snapshot.get("total")));
         order.setStatus(snapshot.getString("status"));
         order.setAppliedOfferId(snapshot.getString("appliedOfferId"));
         order.setFreeDelivery(Boolean.TRUE.equals(snapshot.getBoolean("freeDelivery")));
 
+        Long storedEncoding = snapshot.getLong(ITEM_ENCODING_FIELD);
+        long encoding = storedEncoding == null ? 1 : storedEncoding;
         List<OrderItem> items = new ArrayList<>();
         Object itemsRaw = snapshot.get("orderItems");
         if (itemsRaw instanceof List) {
@@ -148,61 +208,103 @@ public class OrderRepository {
                 if (rawItem instanceof Map) {
                     @SuppressWarnings("unchecked")
                     Map<String, Object> itemMap = (Map<String, Object>) rawItem;
-                    items.add(fromMap(itemMap));
+                    items.add(fromMap(itemMap, encoding));
                 }
             }
         }
+        for (int i = 0; i < items.size(); i++) {
+            OrderItem item = items.get(i);
+            if (item.getId() == null) {
+                item.setId(lineId(order.getId(), i));
+            }
+            item.setProduct(productSnapshot(item, order.getStoreId()));
+        }
         order.setOrderItems(items);
         return order;
     }
 
-    private Map<String, Object> toMap(OrderItem item) {
-        Map<String, Object> data = new HashMap<>();
-        data.put("id", item.getId());
-        data.put("quantity", item.getQuantity());
-        data.put("price", item.getPrice() == null ? null : item.getPrice().toPlainString());
-        data.put("product", toMap(item.getProduct()));
-        return data;
+    // Slim items are not stored with an id; the order id and line position identify them instead.
+    public static String lineId(String orderId, int index) {
+        return orderId + "-" + index;
     }
 
-    private Map<String, Object> toMap(Product product) {
-        if (product == null) {
-            return null;
+    // Newest orders first; the document id breaks ties between orders created in the same millisecond.
+    private CompletableFuture<Page<Order>> findPageAsync(Query query, String cursor, int limit) {
+        Query paged = query.orderBy("createdAt", Query.Direction.DESCENDING)
+                .orderBy(FieldPath.documentId(), Query.Direction.DESCENDING)
+                .limit(limit + 1);
+        if (cursor != null && !cursor.isBlank()) {
+            String[] values = PageCursor.decode(cursor, 2);
+            Long createdAt = values[0].isEmpty() ? null : PageCursor.decodeLong(values[0]);
+            paged = paged.startAfter(createdAt, values[1]);
+        }
+        return FirestoreFutures.toCompletable(paged.get(), "Failed to load orders.")
+                .thenApply(snapshot -> PageCursor.toPage(toOrders(snapshot), limit, this::cursorOf));
+    }
+
+    // A null createdAt sorts after every date, and is written as an empty value.
+    private String cursorOf(Order order) {
+        Instant createdAt = order.getCreatedAt();
+        return PageCursor.encode(createdAt == null ? "" : String.valueOf(createdAt.toEpochMilli()), order.getId());
+    }
+
+    private void forEachNewestFirst(Query query, Consumer<Order> action) {
+        Query ordered = query.orderBy("createdAt", Query.Direction.DESCENDING)
+                .orderBy(FieldPath.documentId(), Query.Direction.DESCENDING);
+        FirestoreStreams.forEach(ordered, document -> action.accept(fromSnapshot(document)),
+                "Failed to load orders.");
+    }
+
+    private List<Order> toOrders(QuerySnapshot snapshot) {
+        List<Order> orders = new ArrayList<>();
+        for (DocumentSnapshot document : snapshot.getDocuments()) {
+            orders.add(fromSnapshot(document));
         }
+        return orders;
+    }
+
+    // Items carry only what the order needs; the product itself is not copied.
+    private Map<String, Object> toMap(OrderItem item) {
         Map<String, Object> data = new HashMap<>();
-        data.put("id", product.getId());
-        data.put("name", product.getName());
-        data.put("categoryId", product.getCategoryId());
-        data.put("storeId", product.getStoreId());
-        data.put("image", product.getImage());
-        data.put("price", product.getPrice() == null ? null : product.getPrice().toPlainString());
-        data.put("stock", product.getStock());
+        data.put("productId", item.getProductId());
+        data.put("name", item.getName());
+        data.put("categoryId", item.getCategoryId());
+        data.put("price", item.getPrice() == null ? null : item.getPrice().toString());
+        data.put("priceMinor", item.getPrice() == null ? null : item.getPrice().getMinorUnits());
+        data.put("quantity", item.getQuantity());
         return data;
     }
 
-    private OrderItem fromMap(Map<String, Object> map) {
+    private OrderItem fromMap(Map<String, Object> map, long encoding) {
         OrderItem item = new OrderItem();
-        item.setId(asString(map.get("id")));
         item.setQuantity(parseInt(map.get("quantity")));
-        item.setPrice(parseDecimal(map.get("price")));
+        item.setPrice(parseMoney(map.get("priceMinor"), map.get("price")));
+        if (encoding >= SLIM_ITEM_ENCODING) {
+            item.setProductId(asString(map.get("productId")));
+            item.setName(asString(map.get("name")));
+            item.setCategoryId(asString(map.get("categoryId")));
+            return item;
+        }
+        // Orders written before the slim encoding embed a full product snapshot.
+        item.setId(asString(map.get("id")));
         Object productRaw = map.get("product");
         if (productRaw instanceof Map) {
-            @SuppressWarnings("unchecked")
-            Map<String, Object> productMap = (Map<String, Object>) productRaw;
-            item.setProduct(fromProductMap(productMap));
+            Map<?, ?> productMap = (Map<?, ?>) productRaw;
+            item.setProductId(asString(productMap.get("id")));
+            item.setName(asString(productMap.get("name")));
+            item.setCategoryId(asString(productMap.get("categoryId")));
         }
         return item;
     }
 
-    private Product fromProductMap(Map<String, Object> map) {
+    // The product as it was at order time, from the fields the line keeps.
+    private Product productSnapshot(OrderItem item, String storeId) {
         Product product = new Product();
-        product.setId(asString(map.get("id")));
-        product.setName(asString(map.get("name")));
-        product.setCategoryId(asString(map.get("categoryId")));
-        product.setStoreId(asString(map.get("storeId")));
-        product.setImage(asString(map.get("image")));
-        product.setPrice(parseDecimal(map.get("price")));
-        product.setStock(parseInt(map.get("stock")));
+        product.setId(item.getProductId());
+        product.setStoreId(storeId);
+        product.setName(item.getName());
+        product.setCategoryId(item.getCategoryId());
+        product.setPrice(item.getPrice());
         return product;
     }
 
@@ -219,17 +321,15 @@ public class OrderRepository {
         return Instant.ofEpochMilli(Long.parseLong(value.toString()));
     }
 
-    private BigDecimal parseDecimal(Object value) {
-        if (value == null) {
-            return null;
+    // Documents written before the minor units field only have the decimal string, or a number.
+    private Money parseMoney(Object minorUnits, Object legacy) {
+        if (minorUnits instanceof Number) {
+            return Money.ofMinor(((Number) minorUnits).longValue());
         }
-        if (value instanceof BigDecimal) {
-            return (BigDecimal) value;
-        }
-        if (value instanceof Number) {
-            return BigDecimal.valueOf(((Number) value).doubleValue());
+        if (legacy == null) {
+            return null;
         }
-        return new BigDecimal(value.toString());
+        return Money.rounded(new BigDecimal(legacy.toString()));
     }
 
     private int parseInt(Object value) {
@@ -0,0 +1,59 @@
+package com.HoussamAlwaked.minimarket.repository;
+
+import com.HoussamAlwaked.minimarket.dto.Page;
+import com.HoussamAlwaked.minimarket.exception.BadRequestException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Opaque page tokens. A token carries the sort key values of the last item
+ * of a page, which the next query passes to startAfter.
+ */
+final class PageCursor {
+
+    private static final String SEPARATOR = "\n";
+
+    private PageCursor() {
+    }
+
+    static String encode(String... values) {
+        String raw = String.join(SEPARATOR, values);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String[] decode(String cursor, int expectedValues) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String[] values = raw.split(SEPARATOR, -1);
+            if (values.length != expectedValues) {
+                throw new BadRequestException("Invalid cursor.");
+            }
+            return values;
+        } catch (IllegalArgumentException ex) {
+            throw new BadRequestException("Invalid cursor.");
+        }
+    }
+
+    static long decodeLong(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException ex) {
+            throw new BadRequestException("Invalid cursor.");
+        }
+    }
+
+    /**
+     * Turns the result of a query fetched with limit + 1 into a page, using
+     * the extra item only to tell whether another page follows.
+     */
+    static <T> Page<T> toPage(List<T> fetched, int limit, Function<T, String> cursorOf) {
+        if (fetched.size() <= limit) {
+            return new Page<>(fetched, null);
+        }
+        List<T> items = new ArrayList<>(fetched.subList(0, limit));
+        return new Page<>(items, cursorOf.apply(items.get(limit - 1)));
+    }
+}
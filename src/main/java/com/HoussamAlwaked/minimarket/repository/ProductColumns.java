@@ -0,0 +1,411 @@
+package com.HoussamAlwaked.minimarket.repository;
+
+import com.HoussamAlwaked.minimarket.entity.Money;
+import com.HoussamAlwaked.minimarket.entity.Product;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The products of one store held column by column instead of as objects.
+ * Prices are Money minor units, stock, shard counts and category
+ * codes are ints, and category ids are dictionary-encoded, so a filter is a
+ * loop over primitive columns. The numeric columns can live off-heap in
+ * direct buffers. Product objects are only built for the rows a page
+ * returns.
+ *
+ * A product occupies a slot; removed slots are reused. Rows are visited in
+ * document id order, or by price and then id, the orders of the Firestore
+ * queries, so pages and cursors match them.
+ */
+public final class ProductColumns {
+
+    private static final int INITIAL_CAPACITY = 64;
+    // Price column value for a product without a price.
+    private static final long NO_PRICE = Long.MIN_VALUE;
+
+    private final boolean offHeap;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> slotsById = new HashMap<>();
+    private final Map<String, Integer> categoryCodes = new HashMap<>();
+    private final List<String> categoryIds = new ArrayList<>();
+
+    private String[] ids = new String[INITIAL_CAPACITY];
+    private String[] names = new String[INITIAL_CAPACITY];
+    private String[] images = new String[INITIAL_CAPACITY];
+    private LongBuffer priceMinor;
+    private IntBuffer stock;
+    private IntBuffer stockShards;
+    private IntBuffer category;
+    private LongBuffer hash;
+    private int[] freeSlots = new int[INITIAL_CAPACITY];
+    private int freeCount;
+    private int slotCount;
+    private int[] order = new int[0];
+    private boolean orderDirty;
+    // Priced slots by price and then id; rebuilt when a row is added, removed or repriced.
+    private int[] priceOrder = new int[0];
+    private boolean priceOrderDirty;
+    private long digest;
+
+    public ProductColumns(boolean offHeap) {
+        this.offHeap = offHeap;
+        this.priceMinor = allocate(INITIAL_CAPACITY * Long.BYTES).asLongBuffer();
+        this.stock = allocate(INITIAL_CAPACITY * Integer.BYTES).asIntBuffer();
+        this.stockShards = allocate(INITIAL_CAPACITY * Integer.BYTES).asIntBuffer();
+        this.category = allocate(INITIAL_CAPACITY * Integer.BYTES).asIntBuffer();
+        this.hash = allocate(INITIAL_CAPACITY * Long.BYTES).asLongBuffer();
+    }
+
+    /**
+     * Adds the product or replaces the row with the same id. The hash
+     * identifies this version of the product in digest().
+     */
+    public void upsert(Product product, long productHash) {
+        lock.writeLock().lock();
+        try {
+            Integer existing = slotsById.get(product.getId());
+            int slot;
+            long price = product.getPrice() == null ? NO_PRICE : product.getPrice().getMinorUnits();
+            if (existing != null) {
+                slot = existing;
+                digest ^= hash.get(slot);
+                if (priceMinor.get(slot) != price) {
+                    priceOrderDirty = true;
+                }
+            } else {
+                slot = freeCount > 0 ? freeSlots[--freeCount] : nextSlot();
+                slotsById.put(product.getId(), slot);
+                orderDirty = true;
+                priceOrderDirty = true;
+            }
+            ids[slot] = product.getId();
+            names[slot] = product.getName();
+            images[slot] = product.getImage();
+            priceMinor.put(slot, price);
+            stock.put(slot, product.getStock());
+            stockShards.put(slot, product.getStockShards());
+            category.put(slot, categoryCode(product.getCategoryId()));
+            hash.put(slot, productHash);
+            digest ^= productHash;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String id) {
+        lock.writeLock().lock();
+        try {
+            Integer slot = slotsById.remove(id);
+            if (slot == null) {
+                return;
+            }
+            digest ^= hash.get(slot);
+            ids[slot] = null;
+            names[slot] = null;
+            images[slot] = null;
+            if (freeCount == freeSlots.length) {
+                freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+            }
+            freeSlots[freeCount++] = slot;
+            orderDirty = true;
+            priceOrderDirty = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * XOR of the hashes of the products held; equal on every instance that
+     * holds the same product versions.
+     */
+    public long digest() {
+        lock.readLock().lock();
+        try {
+            return digest;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Up to limit + 1 products after afterId in id order that match every
+     * given filter; a null filter matches everything. For sharded products
+     * the stock held here is the document's total, which is only exact in
+     * sign; that is all inStockOnly needs.
+     */
+    public List<Product> select(String storeId,
+                                String categoryId,
+                                boolean inStockOnly,
+                                Long minPriceMinor,
+                                Long maxPriceMinor,
+                                String afterId,
+                                int limit) {
+        while (true) {
+            lock.readLock().lock();
+            try {
+                if (!orderDirty) {
+                    Filter filter = new Filter(categoryId, inStockOnly, minPriceMinor, maxPriceMinor, false);
+                    return scan(storeId, filter, afterId, limit);
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            lock.writeLock().lock();
+            try {
+                if (orderDirty) {
+                    rebuildOrder();
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Like select, but ordered by price and then id, descending if asked,
+     * continuing after the row with afterPriceMinor and afterId. Products
+     * without a price are left out.
+     */
+    public List<Product> selectByPrice(String storeId,
+                                       String categoryId,
+                                       boolean inStockOnly,
+                                       Long minPriceMinor,
+                                       Long maxPriceMinor,
+                                       boolean descending,
+                                       Long afterPriceMinor,
+                                       String afterId,
+                                       int limit) {
+        while (true) {
+            lock.readLock().lock();
+            try {
+                if (!priceOrderDirty) {
+                    Filter filter = new Filter(categoryId, inStockOnly, minPriceMinor, maxPriceMinor, true);
+                    return scanByPrice(storeId, filter, descending, afterPriceMinor, afterId, limit);
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            lock.writeLock().lock();
+            try {
+                if (priceOrderDirty) {
+                    rebuildPriceOrder();
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    // Walks priceOrder from the cursor, backwards when descending.
+    private List<Product> scanByPrice(String storeId,
+                                      Filter filter,
+                                      boolean descending,
+                                      Long afterPriceMinor,
+                                      String afterId,
+                                      int limit) {
+        if (filter.noCategory) {
+            return new ArrayList<>();
+        }
+        int step = descending ? -1 : 1;
+        int i;
+        if (afterId == null) {
+            i = descending ? priceOrder.length - 1 : 0;
+        } else if (descending) {
+            i = priceBound(afterPriceMinor, afterId, false) - 1;
+        } else {
+            i = priceBound(afterPriceMinor, afterId, true);
+        }
+        List<Product> matches = new ArrayList<>(Math.min(limit + 1, priceOrder.length));
+        for (; i >= 0 && i < priceOrder.length && matches.size() <= limit; i += step) {
+            int slot = priceOrder[i];
+            if (filter.matches(slot)) {
+                matches.add(toProduct(storeId, slot));
+            }
+        }
+        return matches;
+    }
+
+    // The first position in priceOrder past the (price, id) key, or at it unless pastEqual.
+    private int priceBound(long price, String id, boolean pastEqual) {
+        int low = 0;
+        int high = priceOrder.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int compared = comparePriceOrder(priceOrder[mid], price, id, false);
+            if (compared < 0 || (pastEqual && compared == 0)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int comparePriceOrder(int slot, long otherPrice, String otherId, boolean descending) {
+        int result = Long.compare(priceMinor.get(slot), otherPrice);
+        if (result == 0) {
+            result = ids[slot].compareTo(otherId);
+        }
+        return descending ? -result : result;
+    }
+
+    private List<Product> scan(String storeId, Filter filter, String afterId, int limit) {
+        if (filter.noCategory) {
+            return new ArrayList<>();
+        }
+        List<Product> matches = new ArrayList<>(Math.min(limit + 1, order.length));
+        for (int i = afterId == null ? 0 : firstAfter(afterId); i < order.length && matches.size() <= limit; i++) {
+            int slot = order[i];
+            if (filter.matches(slot)) {
+                matches.add(toProduct(storeId, slot));
+            }
+        }
+        return matches;
+    }
+
+    private int firstAfter(String afterId) {
+        int low = 0;
+        int high = order.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ids[order[mid]].compareTo(afterId) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private Product toProduct(String storeId, int slot) {
+        Product product = new Product();
+        product.setId(ids[slot]);
+        product.setStoreId(storeId);
+        product.setName(names[slot]);
+        product.setImage(images[slot]);
+        product.setCategoryId(categoryIds.get(category.get(slot)));
+        long price = priceMinor.get(slot);
+        product.setPrice(price == NO_PRICE ? null : Money.ofMinor(price));
+        product.setStock(stock.get(slot));
+        product.setStockShards(stockShards.get(slot));
+        return product;
+    }
+
+    // Built under the read lock; matches reads the columns.
+    private final class Filter {
+        private final int wantedCategory;
+        private final boolean noCategory;
+        private final boolean inStockOnly;
+        private final boolean byPrice;
+        private final long minPrice;
+        private final long maxPrice;
+
+        private Filter(String categoryId, boolean inStockOnly, Long minPriceMinor, Long maxPriceMinor,
+                       boolean priced) {
+            Integer code = categoryId == null ? null : categoryCodes.get(categoryId);
+            this.wantedCategory = code == null ? -1 : code;
+            this.noCategory = categoryId != null && code == null;
+            this.inStockOnly = inStockOnly;
+            this.byPrice = priced || minPriceMinor != null || maxPriceMinor != null;
+            this.minPrice = minPriceMinor == null ? Long.MIN_VALUE : minPriceMinor;
+            this.maxPrice = maxPriceMinor == null ? Long.MAX_VALUE : maxPriceMinor;
+        }
+
+        private boolean matches(int slot) {
+            if (wantedCategory >= 0 && category.get(slot) != wantedCategory) {
+                return false;
+            }
+            if (inStockOnly && stock.get(slot) <= 0) {
+                return false;
+            }
+            if (byPrice) {
+                long price = priceMinor.get(slot);
+                return price != NO_PRICE && price >= minPrice && price <= maxPrice;
+            }
+            return true;
+        }
+    }
+
+    private int categoryCode(String categoryId) {
+        String key = categoryId == null ? "" : categoryId;
+        Integer code = categoryCodes.get(key);
+        if (code == null) {
+            code = categoryIds.size();
+            categoryIds.add(categoryId);
+            categoryCodes.put(key, code);
+        }
+        return code;
+    }
+
+    private void rebuildOrder() {
+        String[] sorted = slotsById.keySet().toArray(new String[0]);
+        Arrays.sort(sorted);
+        int[] rebuilt = new int[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            rebuilt[i] = slotsById.get(sorted[i]);
+        }
+        order = rebuilt;
+        orderDirty = false;
+    }
+
+    // Boxed only to sort, which happens once per change to the rows or prices.
+    private void rebuildPriceOrder() {
+        List<Integer> priced = new ArrayList<>(slotsById.size());
+        for (int slot : slotsById.values()) {
+            if (priceMinor.get(slot) != NO_PRICE) {
+                priced.add(slot);
+            }
+        }
+        priced.sort((a, b) -> comparePriceOrder(a, priceMinor.get(b), ids[b], false));
+        int[] rebuilt = new int[priced.size()];
+        for (int i = 0; i < rebuilt.length; i++) {
+            rebuilt[i] = priced.get(i);
+        }
+        priceOrder = rebuilt;
+        priceOrderDirty = false;
+    }
+
+    private int nextSlot() {
+        if (slotCount == ids.length) {
+            grow(ids.length * 2);
+        }
+        return slotCount++;
+    }
+
+    private void grow(int capacity) {
+        ids = Arrays.copyOf(ids, capacity);
+        names = Arrays.copyOf(names, capacity);
+        images = Arrays.copyOf(images, capacity);
+        priceMinor = copy(priceMinor, capacity);
+        stock = copy(stock, capacity);
+        stockShards = copy(stockShards, capacity);
+        category = copy(category, capacity);
+        hash = copy(hash, capacity);
+    }
+
+    private ByteBuffer allocate(int bytes) {
+        return offHeap
+                ? ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder())
+                : ByteBuffer.allocate(bytes).order(ByteOrder.nativeOrder());
+    }
+
+    private LongBuffer copy(LongBuffer source, int capacity) {
+        LongBuffer target = allocate(capacity * Long.BYTES).asLongBuffer();
+        target.put(source.duplicate().clear());
+        return target;
+    }
+
+    private IntBuffer copy(IntBuffer source, int capacity) {
+        IntBuffer target = allocate(capacity * Integer.BYTES).asIntBuffer();
+        target.put(source.duplicate().clear());
+        return target;
+    }
+}
@@ -3,27 +3,49 @@ package com.HoussamAlwaked.minimarket.repository;
 import com.google.cloud.firestore.CollectionReference;
 import com.google.cloud.firestore.DocumentReference;
 import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.EventListener;
+import com.google.cloud.firestore.FieldPath;
 import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.ListenerRegistration;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
 import com.google.cloud.firestore.QuerySnapshot;
+import com.HoussamAlwaked.minimarket.dto.ProductQuery;
+import com.HoussamAlwaked.minimarket.dto.Page;
+import com.HoussamAlwaked.minimarket.entity.Money;
 import com.HoussamAlwaked.minimarket.entity.Product;
 import com.HoussamAlwaked.minimarket.exception.BadRequestException;
+import com.HoussamAlwaked.minimarket.repository.firestore.FirestoreFutures;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Repository;
+import org.springframework.web.server.ResponseStatusException;
 
 @Repository
 public class ProductRepository {
 
+    public static final String PRICE_MINOR_FIELD = "priceMinor";
+    public static final String IN_STOCK_FIELD = "inStock";
+
+    private final Firestore firestore;
     private final CollectionReference collection;
+    private final StockShardRepository stockShardRepository;
+    // Set once every product has the indexed price and stock fields.
+    private volatile boolean queryFieldsReady;
 
-    public ProductRepository(Firestore firestore) {
+    public ProductRepository(Firestore firestore, StockShardRepository stockShardRepository) {
+        this.firestore = firestore;
         this.collection = firestore.collection("products");
+        this.stockShardRepository = stockShardRepository;
     }
 
     public Product save(Product product) {
@@ -54,7 +76,11 @@ public class ProductRepository {
             if (!snapshot.exists()) {
                 return Optional.empty();
             }
-            return Optional.of(fromSnapshot(snapshot));
+            Product product = fromSnapshot(snapshot);
+            if (product.getStockShards() > 0) {
+                product.setStock(stockShardRepository.sum(id, product.getStockShards()));
+            }
+            return Optional.of(product);
         } catch (InterruptedException ex) {
             Thread.currentThread().interrupt();
             throw new RuntimeException("Product lookup interrupted.", ex);
@@ -98,6 +124,25 @@ public class ProductRepository {
         }
     }
 
+    /**
+     * Up to limit products of the store in no particular order, with stock
+     * as stored on the product documents.
+     */
+    public List<Product> findByStoreId(String storeId, int limit) {
+        if (storeId == null || storeId.isBlank()) {
+            return List.of();
+        }
+        try {
+            QuerySnapshot snapshot = collection.whereEqualTo("storeId", storeId).limit(limit).get().get();
+            return toProducts(snapshot);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Product list interrupted.", ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Failed to load products.", ex.getCause());
+        }
+    }
+
     public List<Product> findByStoreAndCategory(String storeId, String categoryId) {
         if (storeId == null || storeId.isBlank() || categoryId == null || categoryId.isBlank()) {
             return List.of();
@@ -120,6 +165,161 @@ public class ProductRepository {
         }
     }
 
+    /**
+     * A page of the store's products matching the query, filtered and
+     * ordered by Firestore. Until the query fields have been backfilled,
+     * queries that need them fail with 503, since answering them would mean
+     * reading every product of the store.
+     */
+    public CompletableFuture<Page<Product>> findByStoreAsync(String storeId,
+                                                             ProductQuery filter,
+                                                             String cursor,
+                                                             int limit) {
+        if (storeId == null || storeId.isBlank()) {
+            return CompletableFuture.completedFuture(Page.empty());
+        }
+        Query query = collection.whereEqualTo("storeId", storeId);
+        if (filter.getCategoryId() != null) {
+            query = query.whereEqualTo("categoryId", filter.getCategoryId());
+        }
+        if (!queryFieldsReady && (filter.isInStock() || filter.isOrderedByPrice())) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                    "Price and stock filters are unavailable until the product migration completes.");
+        }
+        if (filter.isInStock()) {
+            query = query.whereEqualTo(IN_STOCK_FIELD, true);
+        }
+        if (!filter.isOrderedByPrice()) {
+            return findPageAsync(query, cursor, limit);
+        }
+
+        if (filter.getMinPrice() != null) {
+            query = query.whereGreaterThanOrEqualTo(PRICE_MINOR_FIELD, filter.getMinPrice().getMinorUnits());
+        }
+        if (filter.getMaxPrice() != null) {
+            query = query.whereLessThanOrEqualTo(PRICE_MINOR_FIELD, filter.getMaxPrice().getMinorUnits());
+        }
+        Query.Direction direction = filter.isDescending() ? Query.Direction.DESCENDING : Query.Direction.ASCENDING;
+        Query paged = query.orderBy(PRICE_MINOR_FIELD, direction)
+                .orderBy(FieldPath.documentId(), direction)
+                .limit(limit + 1);
+        if (cursor != null && !cursor.isBlank()) {
+            String[] values = PageCursor.decode(cursor, 2);
+            paged = paged.startAfter(PageCursor.decodeLong(values[0]), values[1]);
+        }
+        return FirestoreFutures.toCompletable(paged.get(), "Failed to load products.")
+                .thenCompose(snapshot -> stockShardRepository.fillStockAsync(toProducts(snapshot)))
+                .thenApply(products -> PageCursor.toPage(products, limit, ProductRepository::priceCursor));
+    }
+
+    /**
+     * Writes the indexed price and stock fields to a page of products that
+     * lack them, in document id order. Returns the last id of the page, or
+     * null once there are no more products.
+     */
+    public String backfillQueryFields(String startAfterId, int pageSize) {
+        Query query = collection.orderBy(FieldPath.documentId()).limit(pageSize);
+        if (startAfterId != null) {
+            query = query.startAfter(startAfterId);
+        }
+        Query page = query;
+        try {
+            // A transaction, so a concurrent stock or price write is never overwritten with older values.
+            return firestore.runTransaction(transaction -> {
+                QuerySnapshot snapshot = transaction.get(page).get();
+                if (snapshot.isEmpty()) {
+                    return null;
+                }
+                List<Product> products = toProducts(snapshot);
+                // Every read comes before the first write, so the shards of the whole page are read here.
+                List<DocumentReference> shardRefs = new ArrayList<>();
+                for (Product product : products) {
+                    for (int i = 0; i < product.getStockShards(); i++) {
+                        shardRefs.add(stockShardRepository.getDocument(product.getId(), i));
+                    }
+                }
+                Map<String, Integer> shardTotals = new HashMap<>();
+                if (!shardRefs.isEmpty()) {
+                    for (DocumentSnapshot shard : transaction.getAll(
+                            shardRefs.toArray(new DocumentReference[0])).get()) {
+                        shardTotals.merge(shard.getReference().getParent().getParent().getId(),
+                                StockShardRepository.count(shard), Integer::sum);
+                    }
+                }
+                for (int index = 0; index < products.size(); index++) {
+                    Product product = products.get(index);
+                    DocumentSnapshot document = snapshot.getDocuments().get(index);
+                    Map<String, Object> fields = new HashMap<>();
+                    Long priceMinor = product.getPrice() == null ? null : product.getPrice().getMinorUnits();
+                    if (priceMinor != null && !priceMinor.equals(document.getLong(PRICE_MINOR_FIELD))) {
+                        fields.put(PRICE_MINOR_FIELD, priceMinor);
+                    }
+                    if (product.getStockShards() > 0) {
+                        product.setStock(shardTotals.getOrDefault(product.getId(), 0));
+                    }
+                    if (!Boolean.valueOf(isInStock(product)).equals(document.getBoolean(IN_STOCK_FIELD))) {
+                        fields.put(IN_STOCK_FIELD, isInStock(product));
+                        fields.put("stock", product.getStock());
+                    }
+                    if (!fields.isEmpty()) {
+                        transaction.update(document.getReference(), fields);
+                    }
+                }
+                List<QueryDocumentSnapshot> documents = snapshot.getDocuments();
+                return documents.get(documents.size() - 1).getId();
+            }).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Product backfill interrupted.", ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Failed to backfill product query fields.", ex.getCause());
+        }
+    }
+
+    public void setQueryFieldsReady(boolean queryFieldsReady) {
+        this.queryFieldsReady = queryFieldsReady;
+    }
+
+    /**
+     * Listens to the products of the store. The first snapshot holds all of
+     * them; later ones carry the changes as document changes.
+     */
+    public ListenerRegistration addStoreListener(String storeId, EventListener<QuerySnapshot> listener) {
+        return collection.whereEqualTo("storeId", storeId).addSnapshotListener(listener);
+    }
+
+    /**
+     * Loads the given products in one batched read, keyed by id. Products
+     * that no longer exist are left out.
+     */
+    public CompletableFuture<Map<String, Product>> findAllByIdsAsync(Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return CompletableFuture.completedFuture(Map.of());
+        }
+        DocumentReference[] refs = new DocumentReference[ids.size()];
+        int index = 0;
+        for (String id : ids) {
+            refs[index++] = collection.document(id);
+        }
+        return FirestoreFutures.toCompletable(firestore.getAll(refs), "Failed to load products.")
+                .thenCompose(snapshots -> {
+                    List<Product> found = new ArrayList<>();
+                    for (DocumentSnapshot snapshot : snapshots) {
+                        if (snapshot.exists()) {
+                            found.add(fromSnapshot(snapshot));
+                        }
+                    }
+                    return stockShardRepository.fillStockAsync(found);
+                })
+                .thenApply(found -> {
+                    Map<String, Product> products = new HashMap<>();
+                    for (Product product : found) {
+                        products.put(product.getId(), product);
+                    }
+                    return products;
+                });
+    }
+
     public boolean existsById(String id) {
         if (id == null || id.isBlank()) {
             return false;
@@ -141,6 +341,7 @@ public class ProductRepository {
         }
         try {
             collection.document(id).delete().get();
+            stockShardRepository.deleteAll(id);
         } catch (InterruptedException ex) {
             Thread.currentThread().interrupt();
             throw new RuntimeException("Product delete interrupted.", ex);
@@ -160,8 +361,11 @@ public class ProductRepository {
         data.put("categoryId", product.getCategoryId());
         data.put("storeId", product.getStoreId());
         data.put("image", product.getImage());
-        data.put("price", product.getPrice() == null ? null : product.getPrice().toPlainString());
+        data.put("price", product.getPrice() == null ? null : product.getPrice().toString());
+        data.put(PRICE_MINOR_FIELD, product.getPrice() == null ? null : product.getPrice().getMinorUnits());
         data.put("stock", product.getStock());
+        data.put("stockShards", product.getStockShards());
+        data.put(IN_STOCK_FIELD, isInStock(product));
         return data;
     }
 
@@ -172,22 +376,53 @@ public class ProductRepository {
         product.setCategoryId(snapshot.getString("categoryId"));
         product.setStoreId(snapshot.getString("storeId"));
         product.setImage(snapshot.getString("image"));
-        product.setPrice(parseDecimal(snapshot.get("price")));
+        product.setPrice(parseMoney(snapshot.get(PRICE_MINOR_FIELD), snapshot.get("price")));
         Long stockValue = snapshot.getLong("stock");
         product.setStock(stockValue == null ? 0 : stockValue.intValue());
+        Long shards = snapshot.getLong("stockShards");
+        product.setStockShards(shards == null ? 0 : shards.intValue());
         return product;
     }
 
-    private BigDecimal parseDecimal(Object value) {
-        if (value == null) {
-            return null;
+    private CompletableFuture<Page<Product>> findPageAsync(Query query, String cursor, int limit) {
+        Query paged = query.orderBy(FieldPath.documentId()).limit(limit + 1);
+        if (cursor != null && !cursor.isBlank()) {
+            paged = paged.startAfter(PageCursor.decode(cursor, 1)[0]);
         }
-        if (value instanceof BigDecimal) {
-            return (BigDecimal) value;
+        return FirestoreFutures.toCompletable(paged.get(), "Failed to load products.")
+                .thenCompose(snapshot -> stockShardRepository.fillStockAsync(toProducts(snapshot)))
+                .thenApply(products -> PageCursor.toPage(products, limit,
+                        product -> PageCursor.encode(product.getId())));
+    }
+
+    /**
+     * The stock on a sharded product's document is the shard total as of the
+     * last time it could have crossed zero, so its sign is still current.
+     */
+    public static boolean isInStock(Product product) {
+        return product.getStock() > 0;
+    }
+
+    static String priceCursor(Product product) {
+        return PageCursor.encode(String.valueOf(product.getPrice().getMinorUnits()), product.getId());
+    }
+
+    private List<Product> toProducts(QuerySnapshot snapshot) {
+        List<Product> products = new ArrayList<>();
+        for (DocumentSnapshot document : snapshot.getDocuments()) {
+            products.add(fromSnapshot(document));
+        }
+        return products;
+    }
+
+    // Documents written before the minor units field only have the decimal string, or a number.
+    private Money parseMoney(Object minorUnits, Object legacy) {
+        if (minorUnits instanceof Number) {
+            return Money.ofMinor(((Number) minorUnits).longValue());
         }
-        if (value instanceof Number) {
-            return BigDecimal.valueOf(((Number) value).doubleValue());
+        if (legacy == null) {
+            return null;
         }
-        return new BigDecimal(value.toString());
+        return Money.rounded(new BigDecimal(legacy.toString()));
     }
 }
@@ -0,0 +1,126 @@
+package com.HoussamAlwaked.minimarket.repository;
+
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.WriteBatch;
+import com.HoussamAlwaked.minimarket.entity.Product;
+import com.HoussamAlwaked.minimarket.repository.firestore.FirestoreFutures;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Stock counter shards of products in sharded stock mode. Shard i of a
+ * product lives at products/{productId}/stockShards/{i} and holds a count;
+ * the product's stock is the sum of its shards.
+ */
+@Repository
+public class StockShardRepository {
+
+    public static final String COUNT_FIELD = "count";
+    private static final String SUBCOLLECTION = "stockShards";
+
+    private final Firestore firestore;
+
+    public StockShardRepository(Firestore firestore) {
+        this.firestore = firestore;
+    }
+
+    public DocumentReference getDocument(String productId, int shard) {
+        return firestore.collection("products").document(productId)
+                .collection(SUBCOLLECTION).document(String.valueOf(shard));
+    }
+
+    public DocumentReference[] getDocuments(String productId, int shards) {
+        DocumentReference[] refs = new DocumentReference[shards];
+        for (int i = 0; i < shards; i++) {
+            refs[i] = getDocument(productId, i);
+        }
+        return refs;
+    }
+
+    public int sum(String productId, int shards) {
+        try {
+            return sum(firestore.getAll(getDocuments(productId, shards)).get());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Stock lookup interrupted.", ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Failed to load stock.", ex.getCause());
+        }
+    }
+
+    /**
+     * Replaces the stock of every sharded product in the list with the sum
+     * of its shards, reading the shards of all of them in one batch.
+     */
+    public CompletableFuture<List<Product>> fillStockAsync(List<Product> products) {
+        List<DocumentReference> refs = new ArrayList<>();
+        for (Product product : products) {
+            if (product.getStockShards() > 0) {
+                for (int i = 0; i < product.getStockShards(); i++) {
+                    refs.add(getDocument(product.getId(), i));
+                }
+            }
+        }
+        if (refs.isEmpty()) {
+            return CompletableFuture.completedFuture(products);
+        }
+        return FirestoreFutures.toCompletable(firestore.getAll(refs.toArray(new DocumentReference[0])),
+                        "Failed to load stock.")
+                .thenApply(snapshots -> {
+                    Map<String, Integer> totals = new HashMap<>();
+                    for (DocumentSnapshot snapshot : snapshots) {
+                        String productId = snapshot.getReference().getParent().getParent().getId();
+                        totals.merge(productId, count(snapshot), Integer::sum);
+                    }
+                    for (Product product : products) {
+                        if (product.getStockShards() > 0) {
+                            product.setStock(totals.getOrDefault(product.getId(), 0));
+                        }
+                    }
+                    return products;
+                });
+    }
+
+    public void deleteAll(String productId) {
+        try {
+            WriteBatch batch = firestore.batch();
+            boolean pending = false;
+            for (DocumentReference ref : firestore.collection("products").document(productId)
+                    .collection(SUBCOLLECTION).listDocuments()) {
+                batch.delete(ref);
+                pending = true;
+            }
+            if (pending) {
+                batch.commit().get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Stock shard delete interrupted.", ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Failed to delete stock shards.", ex.getCause());
+        }
+    }
+
+    public static int sum(List<DocumentSnapshot> shards) {
+        int total = 0;
+        for (DocumentSnapshot shard : shards) {
+            total += count(shard);
+        }
+        return total;
+    }
+
+    public static int count(DocumentSnapshot shard) {
+        if (!shard.exists()) {
+            return 0;
+        }
+        Long count = shard.getLong(COUNT_FIELD);
+        return count == null ? 0 : count.intValue();
+    }
+}
@@ -0,0 +1,195 @@
+package com.HoussamAlwaked.minimarket.repository;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.QuerySnapshot;
+import com.HoussamAlwaked.minimarket.entity.StoreDeletionJob;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public class StoreDeletionJobRepository {
+
+    private static final List<String> UNFINISHED =
+            List.of(StoreDeletionJob.PENDING, StoreDeletionJob.RUNNING, StoreDeletionJob.FAILED);
+
+    private final Firestore firestore;
+    private final CollectionReference collection;
+
+    public StoreDeletionJobRepository(Firestore firestore) {
+        this.firestore = firestore;
+        this.collection = firestore.collection("storeDeletionJobs");
+    }
+
+    public StoreDeletionJob save(StoreDeletionJob job) {
+        job.setUpdatedAt(Instant.now());
+        try {
+            collection.document(job.getId()).set(toMap(job)).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Deletion job save interrupted.", ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Failed to save deletion job.", ex.getCause());
+        }
+        return job;
+    }
+
+    /**
+     * Saves a checkpoint of a running job only if it still belongs to the
+     * given owner. Returns false, without writing, once another instance
+     * has taken the job over.
+     */
+    public boolean saveIfOwner(StoreDeletionJob job, String owner) {
+        DocumentReference ref = collection.document(job.getId());
+        try {
+            return firestore.runTransaction(transaction -> {
+                DocumentSnapshot snapshot = transaction.get(ref).get();
+                if (!snapshot.exists() || !owner.equals(snapshot.getString("owner"))) {
+                    return false;
+                }
+                job.setUpdatedAt(Instant.now());
+                transaction.set(ref, toMap(job));
+                return true;
+            }).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Deletion job save interrupted.", ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Failed to save deletion job.", ex.getCause());
+        }
+    }
+
+    public Optional<StoreDeletionJob> findById(String id) {
+        if (id == null || id.isBlank()) {
+            return Optional.empty();
+        }
+        try {
+            DocumentSnapshot snapshot = collection.document(id).get().get();
+            if (!snapshot.exists()) {
+                return Optional.empty();
+            }
+            return Optional.of(fromSnapshot(snapshot));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Deletion job lookup interrupted.", ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Failed to load deletion job.", ex.getCause());
+        }
+    }
+
+    public List<StoreDeletionJob> findUnfinished() {
+        return query(collection.whereIn("status", UNFINISHED).get());
+    }
+
+    /**
+     * Takes over an unfinished job for the given owner if it already belongs
+     * to that owner, its last checkpoint is older than staleBefore, which
+     * means the instance that ran it is gone, or it failed and its next
+     * attempt is due. Returns the claimed job, or empty if it is finished,
+     * waiting for its next attempt or another instance is still working on it.
+     */
+    public Optional<StoreDeletionJob> tryClaim(String id, String owner, Instant staleBefore) {
+        DocumentReference ref = collection.document(id);
+        try {
+            ApiFuture<StoreDeletionJob> future = firestore.runTransaction(transaction -> {
+                DocumentSnapshot snapshot = transaction.get(ref).get();
+                if (!snapshot.exists()) {
+                    return null;
+                }
+                StoreDeletionJob job = fromSnapshot(snapshot);
+                if (StoreDeletionJob.FAILED.equals(job.getStatus())) {
+                    if (!job.isRetryDue(Instant.now())) {
+                        return null;
+                    }
+                } else {
+                    boolean stale = job.getUpdatedAt() == null || job.getUpdatedAt().isBefore(staleBefore);
+                    if (job.isFinished() || (!owner.equals(job.getOwner()) && !stale)) {
+                        return null;
+                    }
+                }
+                job.setOwner(owner);
+                job.setStatus(StoreDeletionJob.RUNNING);
+                job.setUpdatedAt(Instant.now());
+                transaction.set(ref, toMap(job));
+                return job;
+            });
+            return Optional.ofNullable(future.get());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Deletion job claim interrupted.", ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Failed to claim deletion job.", ex.getCause());
+        }
+    }
+
+    public DocumentReference getDocument(String id) {
+        return collection.document(id);
+    }
+
+    public Map<String, Object> toMap(StoreDeletionJob job) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("id", job.getId());
+        data.put("storeId", job.getStoreId());
+        data.put("status", job.getStatus());
+        data.put("phase", job.getPhase());
+        data.put("deletedProducts", job.getDeletedProducts());
+        data.put("deletedCategories", job.getDeletedCategories());
+        data.put("unassignedSubAdmins", job.getUnassignedSubAdmins());
+        data.put("error", job.getError());
+        data.put("owner", job.getOwner());
+        data.put("attempts", job.getAttempts());
+        data.put("nextAttemptAt", job.getNextAttemptAt() == null ? null : job.getNextAttemptAt().toEpochMilli());
+        data.put("createdAt", job.getCreatedAt() == null ? null : job.getCreatedAt().toEpochMilli());
+        data.put("updatedAt", job.getUpdatedAt() == null ? null : job.getUpdatedAt().toEpochMilli());
+        return data;
+    }
+
+    public StoreDeletionJob fromSnapshot(DocumentSnapshot snapshot) {
+        StoreDeletionJob job = new StoreDeletionJob();
+        job.setId(snapshot.getId());
+        job.setStoreId(snapshot.getString("storeId"));
+        job.setStatus(snapshot.getString("status"));
+        job.setPhase(snapshot.getString("phase"));
+        job.setDeletedProducts(intValue(snapshot.getLong("deletedProducts")));
+        job.setDeletedCategories(intValue(snapshot.getLong("deletedCategories")));
+        job.setUnassignedSubAdmins(intValue(snapshot.getLong("unassignedSubAdmins")));
+        job.setError(snapshot.getString("error"));
+        job.setOwner(snapshot.getString("owner"));
+        job.setAttempts(intValue(snapshot.getLong("attempts")));
+        Long nextAttemptAt = snapshot.getLong("nextAttemptAt");
+        job.setNextAttemptAt(nextAttemptAt == null ? null : Instant.ofEpochMilli(nextAttemptAt));
+        Long createdAt = snapshot.getLong("createdAt");
+        job.setCreatedAt(createdAt == null ? null : Instant.ofEpochMilli(createdAt));
+        Long updatedAt = snapshot.getLong("updatedAt");
+        job.setUpdatedAt(updatedAt == null ? null : Instant.ofEpochMilli(updatedAt));
+        return job;
+    }
+
+    private List<StoreDeletionJob> query(ApiFuture<QuerySnapshot> future) {
+        try {
+            List<StoreDeletionJob> jobs = new ArrayList<>();
+            for (DocumentSnapshot document : future.get().getDocuments()) {
+                jobs.add(fromSnapshot(document));
+            }
+            return jobs;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Deletion job list interrupted.", ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Failed to load deletion jobs.", ex.getCause());
+        }
+    }
+
+    private int intValue(Long value) {
+        return value == null ? 0 : value.intValue();
+    }
+}
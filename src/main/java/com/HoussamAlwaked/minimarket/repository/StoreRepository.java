@@ -3,23 +3,41 @@ package com.HoussamAlwaked.minimarket.repository;
 import com.google.cloud.firestore.CollectionReference;
 import com.google.cloud.firestore.DocumentReference;
 import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldValue;
 import com.google.cloud.firestore.Firestore;
 import com.google.cloud.firestore.QuerySnapshot;
+import com.google.cloud.firestore.SetOptions;
+import com.HoussamAlwaked.minimarket.cache.TtlCache;
 import com.HoussamAlwaked.minimarket.entity.Store;
 import com.HoussamAlwaked.minimarket.exception.BadRequestException;
+import com.HoussamAlwaked.minimarket.repository.firestore.FirestoreFutures;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import org.springframework.stereotype.Repository;
 
 @Repository
 public class StoreRepository {
 
+    public static final String DELETING_FIELD = "deleting";
+    // How long a store's deleting flag may be cached; deletion jobs wait this long before they start.
+    public static final Duration DELETING_CACHE_TTL = Duration.ofSeconds(10);
+    private static final String ACTIVE_OFFER_FIELD = "hasActiveOffer";
+    static final String CATALOG_VERSION_FIELD = "catalogVersion";
+    private static final int EXISTENCE_CACHE_SIZE = 10_000;
+    private static final Duration EXISTENCE_CACHE_TTL = Duration.ofSeconds(60);
+
     private final CollectionReference collection;
+    // Store ids seen recently, including ids that did not exist.
+    private final TtlCache<String, Boolean> existenceCache =
+            new TtlCache<>(EXISTENCE_CACHE_SIZE, EXISTENCE_CACHE_TTL);
+    private final TtlCache<String, Boolean> deletingCache = new TtlCache<>(EXISTENCE_CACHE_SIZE, DELETING_CACHE_TTL);
 
     public StoreRepository(Firestore firestore) {
         this.collection = firestore.collection("stores");
@@ -34,7 +52,9 @@ public class StoreRepository {
         }
         Map<String, Object> data = toMap(store);
         try {
-            collection.document(store.getId()).set(data).get();
+            // Merge so fields maintained elsewhere, such as the active-offer flag, survive a save.
+            collection.document(store.getId()).set(data, SetOptions.merge()).get();
+            existenceCache.put(store.getId(), Boolean.TRUE);
         } catch (InterruptedException ex) {
             Thread.currentThread().interrupt();
             throw new RuntimeException("Store save interrupted.", ex);
@@ -50,6 +70,7 @@ public class StoreRepository {
         }
         try {
             DocumentSnapshot snapshot = collection.document(id).get().get();
+            existenceCache.put(id, snapshot.exists());
             if (!snapshot.exists()) {
                 return Optional.empty();
             }
@@ -82,8 +103,13 @@ public class StoreRepository {
         if (id == null || id.isBlank()) {
             return false;
         }
+        Boolean cached = existenceCache.get(id);
+        if (cached != null) {
+            return cached;
+        }
         try {
             DocumentSnapshot snapshot = collection.document(id).get().get();
+            existenceCache.put(id, snapshot.exists());
             return snapshot.exists();
         } catch (InterruptedException ex) {
             Thread.currentThread().interrupt();
@@ -93,6 +119,50 @@ public class StoreRepository {
         }
     }
 
+    public CompletableFuture<Boolean> existsByIdAsync(String id) {
+        if (id == null || id.isBlank()) {
+            return CompletableFuture.completedFuture(false);
+        }
+        Boolean cached = existenceCache.get(id);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return FirestoreFutures.toCompletable(collection.document(id).get(), "Failed to load store.")
+                .thenApply(snapshot -> {
+                    existenceCache.put(id, snapshot.exists());
+                    return snapshot.exists();
+                });
+    }
+
+    /**
+     * Whether a deletion job has been started for the store. Writes to the
+     * store are rejected while it is set.
+     */
+    public boolean isDeleting(String id) {
+        if (id == null || id.isBlank()) {
+            return false;
+        }
+        Boolean cached = deletingCache.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        try {
+            DocumentSnapshot snapshot = collection.document(id).get().get();
+            boolean deleting = Boolean.TRUE.equals(snapshot.getBoolean(DELETING_FIELD));
+            deletingCache.put(id, deleting);
+            return deleting;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Store lookup interrupted.", ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Failed to load store.", ex.getCause());
+        }
+    }
+
+    public void invalidateDeleting(String id) {
+        deletingCache.invalidate(id);
+    }
+
     public void deleteById(String id) {
         if (id == null || id.isBlank()) {
             return;
@@ -104,7 +174,51 @@ public class StoreRepository {
             throw new RuntimeException("Store delete interrupted.", ex);
         } catch (ExecutionException ex) {
             throw new RuntimeException("Failed to delete store.", ex.getCause());
+        } finally {
+            existenceCache.invalidate(id);
+        }
+    }
+
+    public void updateHasActiveOffer(String id, boolean hasActiveOffer) {
+        try {
+            collection.document(id).update(ACTIVE_OFFER_FIELD, hasActiveOffer).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Store update interrupted.", ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Failed to update store.", ex.getCause());
+        }
+    }
+
+    public void incrementCatalogVersion(String id) {
+        try {
+            // update, not a merge, so a store deleted in the meantime is not recreated.
+            collection.document(id).update(CATALOG_VERSION_FIELD, FieldValue.increment(1)).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Store update interrupted.", ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Failed to update store.", ex.getCause());
+        }
+    }
+
+    /**
+     * Reads the store's current catalog version, bypassing the existence
+     * cache. Empty if the store does not exist.
+     */
+    public CompletableFuture<Optional<Long>> findCatalogVersionAsync(String id) {
+        if (id == null || id.isBlank()) {
+            return CompletableFuture.completedFuture(Optional.empty());
         }
+        return FirestoreFutures.toCompletable(collection.document(id).get(), "Failed to load store.")
+                .thenApply(snapshot -> {
+                    existenceCache.put(id, snapshot.exists());
+                    if (!snapshot.exists()) {
+                        return Optional.empty();
+                    }
+                    Long version = snapshot.getLong(CATALOG_VERSION_FIELD);
+                    return Optional.of(version == null ? 0L : version);
+                });
     }
 
     public DocumentReference getDocument(String id) {
@@ -117,6 +231,7 @@ public class StoreRepository {
         data.put("name", store.getName());
         data.put("address", store.getAddress());
         data.put("categoryId", store.getCategoryId());
+        data.put("timeZone", store.getTimeZone());
         data.put("subAdminIds", store.getSubAdminIds());
         return data;
     }
@@ -127,12 +242,17 @@ public class StoreRepository {
         store.setName(snapshot.getString("name"));
         store.setAddress(snapshot.getString("address"));
         store.setCategoryId(snapshot.getString("categoryId"));
+        store.setTimeZone(snapshot.getString("timeZone"));
         Object raw = snapshot.get("subAdminIds");
         if (raw instanceof List) {
             @SuppressWarnings("unchecked")
             List<String> subAdmins = (List<String>) raw;
             store.setSubAdminIds(subAdmins);
         }
+        store.setHasActiveOffer(Boolean.TRUE.equals(snapshot.getBoolean(ACTIVE_OFFER_FIELD)));
+        Long catalogVersion = snapshot.getLong(CATALOG_VERSION_FIELD);
+        store.setCatalogVersion(catalogVersion == null ? 0 : catalogVersion);
+        store.setDeleting(Boolean.TRUE.equals(snapshot.getBoolean(DELETING_FIELD)));
         return store;
     }
 }
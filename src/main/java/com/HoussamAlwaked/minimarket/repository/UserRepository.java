@@ -3,11 +3,16 @@ package com.HoussamAlwaked.minimarket.repository;
 import com.google.cloud.firestore.CollectionReference;
 import com.google.cloud.firestore.DocumentReference;
 import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
 import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
 import com.google.cloud.firestore.QuerySnapshot;
+import com.HoussamAlwaked.minimarket.dto.Page;
 import com.HoussamAlwaked.minimarket.entity.User;
 import com.HoussamAlwaked.minimarket.entity.UserRole;
 import com.HoussamAlwaked.minimarket.exception.BadRequestException;
+import com.HoussamAlwaked.minimarket.repository.firestore.FirestoreStreams;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -15,14 +20,21 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
 import org.springframework.stereotype.Repository;
 
 @Repository
 public class UserRepository {
 
+    private static final String EMAIL_INDEX_FIELD = "emailLower";
+
+    private final Firestore firestore;
     private final CollectionReference collection;
+    // Set once every existing user carries the normalized email field.
+    private volatile boolean emailIndexReady;
 
     public UserRepository(Firestore firestore) {
+        this.firestore = firestore;
         this.collection = firestore.collection("users");
     }
 
@@ -85,27 +97,55 @@ public class UserRepository {
         if (email == null || email.isBlank()) {
             return Optional.empty();
         }
-        String target = email.trim().toLowerCase();
-        for (User user : findAll()) {
-            if (user.getEmail() != null && user.getEmail().toLowerCase().equals(target)) {
-                return Optional.of(user);
+        String target = normalizeEmail(email);
+        if (!emailIndexReady) {
+            for (User user : findAll()) {
+                if (user.getEmail() != null && user.getEmail().toLowerCase().equals(target)) {
+                    return Optional.of(user);
+                }
+            }
+            return Optional.empty();
+        }
+        try {
+            QuerySnapshot snapshot = collection.whereEqualTo(EMAIL_INDEX_FIELD, target).limit(1).get().get();
+            if (snapshot.isEmpty()) {
+                return Optional.empty();
             }
+            return Optional.of(fromSnapshot(snapshot.getDocuments().get(0)));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("User lookup interrupted.", ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Failed to load user.", ex.getCause());
         }
-        return Optional.empty();
     }
 
     public List<User> findAllByEmailIgnoreCase(String email) {
         if (email == null || email.isBlank()) {
             return List.of();
         }
-        String target = email.trim().toLowerCase();
+        String target = normalizeEmail(email);
         List<User> users = new ArrayList<>();
-        for (User user : findAll()) {
-            if (user.getEmail() != null && user.getEmail().toLowerCase().equals(target)) {
-                users.add(user);
+        if (!emailIndexReady) {
+            for (User user : findAll()) {
+                if (user.getEmail() != null && user.getEmail().toLowerCase().equals(target)) {
+                    users.add(user);
+                }
             }
+            return users;
+        }
+        try {
+            QuerySnapshot snapshot = collection.whereEqualTo(EMAIL_INDEX_FIELD, target).get().get();
+            for (DocumentSnapshot document : snapshot.getDocuments()) {
+                users.add(fromSnapshot(document));
+            }
+            return users;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("User lookup interrupted.", ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Failed to load users.", ex.getCause());
         }
-        return users;
     }
 
     public List<User> findAll() {
@@ -124,6 +164,31 @@ public class UserRepository {
         }
     }
 
+    public Page<User> findPage(String cursor, int limit) {
+        Query query = collection.orderBy(FieldPath.documentId()).limit(limit + 1);
+        if (cursor != null && !cursor.isBlank()) {
+            query = query.startAfter(PageCursor.decode(cursor, 1)[0]);
+        }
+        try {
+            QuerySnapshot snapshot = query.get().get();
+            List<User> users = new ArrayList<>();
+            for (DocumentSnapshot document : snapshot.getDocuments()) {
+                users.add(fromSnapshot(document));
+            }
+            return PageCursor.toPage(users, limit, user -> PageCursor.encode(user.getId()));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("User list interrupted.", ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Failed to load users.", ex.getCause());
+        }
+    }
+
+    public void forEach(Consumer<User> action) {
+        FirestoreStreams.forEach(collection.orderBy(FieldPath.documentId()),
+                document -> action.accept(fromSnapshot(document)), "Failed to load users.");
+    }
+
     public List<User> findByRole(UserRole role) {
         if (role == null) {
             return List.of();
@@ -147,11 +212,55 @@ public class UserRepository {
         return collection.document(id);
     }
 
+    public void setEmailIndexReady(boolean emailIndexReady) {
+        this.emailIndexReady = emailIndexReady;
+    }
+
+    /**
+     * Writes the normalized email field on one page of users ordered by
+     * document id, starting after the given id. Returns the id of the last
+     * user in the page, or null once there are no users left.
+     */
+    public String backfillEmailIndex(String startAfterId, int pageSize) {
+        Query query = collection.orderBy(FieldPath.documentId()).limit(pageSize);
+        if (startAfterId != null) {
+            query = query.startAfter(startAfterId);
+        }
+        Query page = query;
+        try {
+            // A transaction, so an email changed after the page was read is never overwritten.
+            return firestore.runTransaction(transaction -> {
+                QuerySnapshot snapshot = transaction.get(page).get();
+                if (snapshot.isEmpty()) {
+                    return null;
+                }
+                for (DocumentSnapshot document : snapshot.getDocuments()) {
+                    String email = document.getString("email");
+                    if (email == null) {
+                        continue;
+                    }
+                    String normalized = normalizeEmail(email);
+                    if (!normalized.equals(document.getString(EMAIL_INDEX_FIELD))) {
+                        transaction.update(document.getReference(), EMAIL_INDEX_FIELD, normalized);
+                    }
+                }
+                List<QueryDocumentSnapshot> documents = snapshot.getDocuments();
+                return documents.get(documents.size() - 1).getId();
+            }).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("User email backfill interrupted.", ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Failed to backfill user emails.", ex.getCause());
+        }
+    }
+
     public Map<String, Object> toMap(User user) {
         Map<String, Object> data = new HashMap<>();
         data.put("id", user.getId());
         data.put("name", user.getName());
         data.put("email", user.getEmail());
+        data.put(EMAIL_INDEX_FIELD, user.getEmail() == null ? null : normalizeEmail(user.getEmail()));
         data.put("role", user.getRole() == null ? null : user.getRole().name());
         data.put("assignedStoreId", user.getAssignedStoreId());
         return data;
@@ -169,4 +278,8 @@ public class UserRepository {
         }
         return user;
     }
+
+    private String normalizeEmail(String email) {
+        return email.trim().toLowerCase();
+    }
 }
@@ -0,0 +1,33 @@
+package com.HoussamAlwaked.minimarket.repository.firestore;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Bridges Firestore's ApiFuture to CompletableFuture without parking the
+ * calling thread. Failures are wrapped the same way the blocking repository
+ * methods wrap an ExecutionException.
+ */
+public final class FirestoreFutures {
+
+    private FirestoreFutures() {
+    }
+
+    public static <T> CompletableFuture<T> toCompletable(ApiFuture<T> future, String failureMessage) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        ApiFutures.addCallback(future, new ApiFutureCallback<T>() {
+            @Override
+            public void onFailure(Throwable t) {
+                result.completeExceptionally(new RuntimeException(failureMessage, t));
+            }
+
+            @Override
+            public void onSuccess(T value) {
+                result.complete(value);
+            }
+        }, Runnable::run);
+        return result;
+    }
+}
@@ -0,0 +1,88 @@
+package com.HoussamAlwaked.minimarket.repository.firestore;
+
+import com.google.api.gax.rpc.ApiStreamObserver;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Query;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Runs a query through Firestore's streaming API and hands each document to
+ * the calling thread as it arrives. The query is streamed in chunks of
+ * WINDOW documents, the next one starting after the last document of the
+ * previous, and a chunk is only requested once the consumer has taken the
+ * one before it. At most one chunk is held in memory, and the gRPC callback
+ * thread never waits for the consumer.
+ *
+ * When the consumer throws, for example because the client disconnected, no
+ * further chunk is requested and the rest of the current one is discarded.
+ */
+public final class FirestoreStreams {
+
+    private static final int WINDOW = 200;
+    private static final Object END = new Object();
+
+    private FirestoreStreams() {
+    }
+
+    public static void forEach(Query query, Consumer<DocumentSnapshot> action, String failureMessage) {
+        Bridge bridge = new Bridge();
+        try {
+            DocumentSnapshot last = null;
+            while (true) {
+                (last == null ? query : query.startAfter(last)).limit(WINDOW).stream(bridge);
+                int received = 0;
+                while (true) {
+                    Object next = bridge.queue.take();
+                    if (next == END) {
+                        break;
+                    }
+                    if (next instanceof Throwable) {
+                        throw new RuntimeException(failureMessage, (Throwable) next);
+                    }
+                    last = (DocumentSnapshot) next;
+                    received++;
+                    action.accept(last);
+                }
+                if (received < WINDOW) {
+                    return;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Query stream interrupted.", ex);
+        } finally {
+            bridge.cancelled = true;
+            bridge.queue.clear();
+        }
+    }
+
+    // A chunk holds at most WINDOW documents and one terminal signal, so the queue never grows past that.
+    private static class Bridge implements ApiStreamObserver<DocumentSnapshot> {
+
+        private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>(WINDOW + 1);
+        private volatile boolean cancelled;
+
+        @Override
+        public void onNext(DocumentSnapshot value) {
+            offer(value);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            offer(t);
+        }
+
+        @Override
+        public void onCompleted() {
+            offer(END);
+        }
+
+        private void offer(Object value) {
+            if (!cancelled) {
+                queue.offer(value);
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.HoussamAlwaked.minimarket.service;
 
+import com.HoussamAlwaked.minimarket.cache.TtlCache;
 import com.HoussamAlwaked.minimarket.entity.User;
 import com.HoussamAlwaked.minimarket.entity.UserRole;
 import com.HoussamAlwaked.minimarket.exception.BadRequestException;
@@ -7,6 +8,7 @@ import com.HoussamAlwaked.minimarket.exception.ForbiddenException;
 import com.HoussamAlwaked.minimarket.exception.NotFoundException;
 import com.HoussamAlwaked.minimarket.repository.UserRepository;
 import jakarta.servlet.http.HttpServletRequest;
+import java.time.Duration;
 import java.util.Locale;
 import java.util.Optional;
 import java.util.UUID;
@@ -18,8 +20,12 @@ public class AccessControlService {
     private static final String USER_ID_HEADER = "X-USER-ID";
     private static final String USER_EMAIL_HEADER = "X-USER-EMAIL";
     private static final String SUPER_ADMIN_EMAIL_ENV = "SUPER_ADMIN_EMAIL";
+    private static final int PRINCIPAL_CACHE_SIZE = 10_000;
+    private static final Duration PRINCIPAL_CACHE_TTL = Duration.ofSeconds(30);
 
     private final UserRepository userRepository;
+    // Users resolved from the X-USER-ID / X-USER-EMAIL header pair.
+    private final TtlCache<String, User> principals = new TtlCache<>(PRINCIPAL_CACHE_SIZE, PRINCIPAL_CACHE_TTL);
 
     public AccessControlService(UserRepository userRepository) {
         this.userRepository = userRepository;
@@ -28,7 +34,29 @@ public class AccessControlService {
     public User requireUser(HttpServletRequest request) {
         String userId = readHeader(request, USER_ID_HEADER);
         String email = readHeader(request, USER_EMAIL_HEADER);
+        if (userId == null && email == null) {
+            throw new BadRequestException("X-USER-ID or X-USER-EMAIL header is required.");
+        }
+
+        String key = userId + "|" + email;
+        User cached = principals.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        User user = resolveUser(userId, email);
+        principals.put(key, user);
+        return user;
+    }
 
+    public void invalidate(User user) {
+        if (user == null) {
+            return;
+        }
+        principals.invalidateIf((key, cached) -> (user.getId() != null && user.getId().equals(cached.getId()))
+                || (user.getEmail() != null && user.getEmail().equalsIgnoreCase(cached.getEmail())));
+    }
+
+    private User resolveUser(String userId, String email) {
         String superAdminEmail = System.getenv(SUPER_ADMIN_EMAIL_ENV);
         if (email != null && superAdminEmail != null
                 && email.toLowerCase(Locale.ROOT).equals(superAdminEmail.toLowerCase(Locale.ROOT))) {
@@ -68,10 +96,6 @@ public class AccessControlService {
         if (user.isEmpty() && email != null) {
             user = userRepository.findByEmailIgnoreCase(email);
         }
-        if (userId == null && email == null) {
-            throw new BadRequestException("X-USER-ID or X-USER-EMAIL header is required.");
-        }
-
         return user.orElseThrow(() -> new NotFoundException("User not found."));
     }
 
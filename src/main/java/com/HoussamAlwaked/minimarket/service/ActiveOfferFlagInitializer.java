@@ -0,0 +1,37 @@
+package com.HoussamAlwaked.minimarket.service;
+
+import com.HoussamAlwaked.minimarket.entity.Store;
+import com.HoussamAlwaked.minimarket.repository.StoreRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Component;
+
+/**
+ * Brings every store's active-offer flag up to date on startup and arms the
+ * boundary scheduler, which keeps the flags current from then on.
+ */
+@Component
+public class ActiveOfferFlagInitializer implements CommandLineRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(ActiveOfferFlagInitializer.class);
+
+    private final StoreRepository storeRepository;
+    private final OfferService offerService;
+
+    public ActiveOfferFlagInitializer(StoreRepository storeRepository, OfferService offerService) {
+        this.storeRepository = storeRepository;
+        this.offerService = offerService;
+    }
+
+    @Override
+    public void run(String... args) {
+        try {
+            for (Store store : storeRepository.findAll()) {
+                offerService.scheduleActiveOfferRefresh(store.getId());
+            }
+        } catch (RuntimeException ex) {
+            log.error("Could not schedule active-offer refresh; store flags stay as stored.", ex);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.HoussamAlwaked.minimarket.service;
+
+import com.HoussamAlwaked.minimarket.cache.ResponseBodyCache;
+import com.HoussamAlwaked.minimarket.repository.StoreRepository;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Service;
+
+/**
+ * Keeps a per-store catalog version on the store document, used to build
+ * ETags for the store's product and category listings. The version is
+ * bumped after every product, category or offer change has been written,
+ * never before, so a listing tagged with a version can only be newer than
+ * that version and a client never keeps stale data past the next bump.
+ *
+ * Stock and order writes can reach many per second for one store, more than
+ * a single document sustains, so they use bumpSoon: all of a store's bumps
+ * within COALESCE_DELAY collapse into one write.
+ */
+@Service
+public class CatalogVersionService implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(CatalogVersionService.class);
+    private static final Duration COALESCE_DELAY = Duration.ofSeconds(1);
+
+    private final StoreRepository storeRepository;
+    private final ResponseBodyCache responseBodyCache;
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "catalog-version");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public CatalogVersionService(StoreRepository storeRepository, ResponseBodyCache responseBodyCache) {
+        this.storeRepository = storeRepository;
+        this.responseBodyCache = responseBodyCache;
+    }
+
+    public void bump(String storeId) {
+        if (storeId == null || storeId.isBlank()) {
+            return;
+        }
+        try {
+            storeRepository.incrementCatalogVersion(storeId);
+            responseBodyCache.invalidateStore(storeId);
+        } catch (RuntimeException ex) {
+            // A store deleted in the meantime has nothing left to version.
+            if (storeRepository.existsById(storeId)) {
+                log.warn("Could not bump catalog version of store {}; retrying.", storeId, ex);
+                bumpSoon(storeId);
+            }
+        }
+    }
+
+    public void bumpSoon(String storeId) {
+        if (storeId == null || storeId.isBlank() || !pending.add(storeId)) {
+            return;
+        }
+        executor.schedule(() -> {
+            // Removed before the write, so a change made while it runs schedules another bump.
+            pending.remove(storeId);
+            try {
+                bump(storeId);
+            } catch (RuntimeException ex) {
+                log.warn("Could not bump catalog version of store {}.", storeId, ex);
+            }
+        }, COALESCE_DELAY.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
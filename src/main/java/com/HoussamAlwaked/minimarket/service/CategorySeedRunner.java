@@ -12,10 +12,14 @@ public class CategorySeedRunner implements CommandLineRunner {
 
     private final CategoryRepository categoryRepository;
     private final StoreRepository storeRepository;
+    private final CatalogVersionService catalogVersionService;
 
-    public CategorySeedRunner(CategoryRepository categoryRepository, StoreRepository storeRepository) {
+    public CategorySeedRunner(CategoryRepository categoryRepository,
+                              StoreRepository storeRepository,
+                              CatalogVersionService catalogVersionService) {
         this.categoryRepository = categoryRepository;
         this.storeRepository = storeRepository;
+        this.catalogVersionService = catalogVersionService;
     }
 
     @Override
@@ -40,6 +44,7 @@ public class CategorySeedRunner implements CommandLineRunner {
         seedCategory(defaultStoreId, "beverages", "Beverages");
         seedCategory(defaultStoreId, "snacks", "Snacks");
         seedCategory(defaultStoreId, "household", "Household");
+        catalogVersionService.bump(defaultStoreId);
     }
 
     private void seedCategory(String storeId, String slug, String name) {
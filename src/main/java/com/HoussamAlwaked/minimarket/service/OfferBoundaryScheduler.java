@@ -0,0 +1,75 @@
+package com.HoussamAlwaked.minimarket.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs at most one pending task per store at the next instant the store's
+ * offers change state. Scheduling a store again replaces its pending task.
+ */
+@Component
+public class OfferBoundaryScheduler implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(OfferBoundaryScheduler.class);
+    // Boundaries are inclusive, so run just after them.
+    private static final Duration SLACK = Duration.ofSeconds(1);
+    // Far-off boundaries are re-checked periodically to absorb clock adjustments.
+    private static final Duration MAX_DELAY = Duration.ofHours(6);
+    private static final Duration RETRY_DELAY = Duration.ofMinutes(1);
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "offer-boundaries");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, ScheduledFuture<?>> pending = new ConcurrentHashMap<>();
+
+    public void schedule(String storeId, Instant at, Runnable task) {
+        if (at == null) {
+            cancel(storeId);
+            return;
+        }
+        long delay = Math.min(Duration.between(Instant.now(), at).plus(SLACK).toMillis(), MAX_DELAY.toMillis());
+        scheduleAfter(storeId, Math.max(delay, 0), task);
+    }
+
+    public void cancel(String storeId) {
+        ScheduledFuture<?> previous = pending.remove(storeId);
+        if (previous != null) {
+            previous.cancel(false);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    private void scheduleAfter(String storeId, long delayMillis, Runnable task) {
+        pending.compute(storeId, (id, previous) -> {
+            if (previous != null) {
+                previous.cancel(false);
+            }
+            return executor.schedule(() -> run(storeId, task), delayMillis, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    private void run(String storeId, Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException ex) {
+            log.warn("Offer refresh failed for store {}; retrying in {}.", storeId, RETRY_DELAY, ex);
+            scheduleAfter(storeId, RETRY_DELAY.toMillis(), task);
+        }
+    }
+}
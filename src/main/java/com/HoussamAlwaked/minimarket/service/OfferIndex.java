@@ -0,0 +1,149 @@
+package com.HoussamAlwaked.minimarket.service;
+
+import com.HoussamAlwaked.minimarket.entity.Money;
+import com.HoussamAlwaked.minimarket.entity.Offer;
+import com.HoussamAlwaked.minimarket.entity.OfferScope;
+import com.HoussamAlwaked.minimarket.entity.OrderItem;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Active offers of a single store, pre-bucketed by scope so an order can be
+ * matched against them without scanning every offer.
+ */
+public class OfferIndex {
+
+    private static final OfferIndex EMPTY = new OfferIndex(List.of());
+
+    private final List<Offer> offers;
+    private final int[] ranks;
+    // Minimum order totals in minor units, ascending; offers without one come first.
+    private final long[] thresholds;
+    private final List<Integer> allProductOffers = new ArrayList<>();
+    private final Map<String, List<Integer>> categoryOffers = new HashMap<>();
+    private final Map<String, List<Integer>> productOffers = new HashMap<>();
+
+    public OfferIndex(List<Offer> activeOffers) {
+        this.offers = List.copyOf(activeOffers);
+        int size = offers.size();
+
+        // Offers ordered by minimum order total; an order qualifies for a prefix of this order.
+        Integer[] byThreshold = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            byThreshold[i] = i;
+        }
+        Arrays.sort(byThreshold, (a, b) -> Long.compare(threshold(offers.get(a)), threshold(offers.get(b))));
+        this.ranks = new int[size];
+        this.thresholds = new long[size];
+        for (int rank = 0; rank < size; rank++) {
+            ranks[byThreshold[rank]] = rank;
+            thresholds[rank] = threshold(offers.get(byThreshold[rank]));
+        }
+
+        for (int i = 0; i < size; i++) {
+            Offer offer = offers.get(i);
+            if (offer.getScope() == OfferScope.ALL_PRODUCTS) {
+                allProductOffers.add(i);
+            } else if (offer.getScope() == OfferScope.CATEGORY) {
+                if (offer.getCategoryId() != null && !offer.getCategoryId().isBlank()) {
+                    categoryOffers.computeIfAbsent(offer.getCategoryId(), key -> new ArrayList<>()).add(i);
+                }
+            } else if (offer.getScope() == OfferScope.PRODUCT || offer.getScope() == OfferScope.PRODUCTS) {
+                if (offer.getProductIds() != null) {
+                    for (String productId : new LinkedHashSet<>(offer.getProductIds())) {
+                        if (productId != null) {
+                            productOffers.computeIfAbsent(productId, key -> new ArrayList<>()).add(i);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    public static OfferIndex empty() {
+        return EMPTY;
+    }
+
+    public List<Offer> getOffers() {
+        return offers;
+    }
+
+    public boolean isEmpty() {
+        return offers.isEmpty();
+    }
+
+    /**
+     * Returns the part of the order each qualifying offer applies to, keyed by
+     * offer in the order the offers were loaded. Offers whose minimum order
+     * total is not met or that match no item are left out.
+     */
+    public Map<Offer, Money> applicableSubtotals(List<OrderItem> orderItems, Money subtotal) {
+        Map<Offer, Money> result = new LinkedHashMap<>();
+        int eligible = eligibleCount(subtotal.getMinorUnits());
+        if (eligible == 0 || orderItems == null) {
+            return result;
+        }
+
+        long[] bases = new long[offers.size()];
+        BitSet touched = new BitSet(offers.size());
+        long itemsTotal = 0;
+        for (OrderItem item : orderItems) {
+            if (item.getPrice() == null) {
+                continue;
+            }
+            long lineTotal = Math.multiplyExact(item.getPrice().getMinorUnits(), (long) item.getQuantity());
+            itemsTotal = Math.addExact(itemsTotal, lineTotal);
+            if (item.getCategoryId() != null) {
+                accumulate(categoryOffers.get(item.getCategoryId()), lineTotal, bases, touched);
+            }
+            if (item.getProductId() != null) {
+                accumulate(productOffers.get(item.getProductId()), lineTotal, bases, touched);
+            }
+        }
+        for (int offerIndex : allProductOffers) {
+            bases[offerIndex] = itemsTotal;
+            touched.set(offerIndex);
+        }
+
+        for (int i = touched.nextSetBit(0); i >= 0; i = touched.nextSetBit(i + 1)) {
+            if (ranks[i] < eligible && bases[i] > 0) {
+                result.put(offers.get(i), Money.ofMinor(bases[i]));
+            }
+        }
+        return result;
+    }
+
+    private static long threshold(Offer offer) {
+        return offer.getMinOrderTotal() == null ? Long.MIN_VALUE : offer.getMinOrderTotal().getMinorUnits();
+    }
+
+    private int eligibleCount(long subtotal) {
+        int low = 0;
+        int high = thresholds.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (subtotal >= thresholds[mid]) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void accumulate(List<Integer> offerIndexes, long amount, long[] bases, BitSet touched) {
+        if (offerIndexes == null) {
+            return;
+        }
+        for (int offerIndex : offerIndexes) {
+            bases[offerIndex] = Math.addExact(bases[offerIndex], amount);
+            touched.set(offerIndex);
+        }
+    }
+}
@@ -1,23 +1,24 @@
 package com.HoussamAlwaked.minimarket.service;
 
+import com.HoussamAlwaked.minimarket.cache.TtlCache;
 import com.HoussamAlwaked.minimarket.dto.OfferRequest;
+import com.HoussamAlwaked.minimarket.entity.Money;
 import com.HoussamAlwaked.minimarket.entity.Offer;
 import com.HoussamAlwaked.minimarket.entity.OfferScope;
 import com.HoussamAlwaked.minimarket.entity.OfferType;
 import com.HoussamAlwaked.minimarket.entity.OrderItem;
-import com.HoussamAlwaked.minimarket.entity.Product;
+import com.HoussamAlwaked.minimarket.entity.Store;
 import com.HoussamAlwaked.minimarket.exception.BadRequestException;
 import com.HoussamAlwaked.minimarket.exception.NotFoundException;
 import com.HoussamAlwaked.minimarket.repository.OfferRepository;
 import com.HoussamAlwaked.minimarket.repository.StoreRepository;
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.time.Instant;
-import java.time.LocalTime;
 import java.time.ZoneId;
-import java.time.ZonedDateTime;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import org.springframework.stereotype.Service;
 
 @Service
@@ -25,7 +26,7 @@ public class OfferService {
 
     public static class OfferApplication {
         private Offer offer;
-        private BigDecimal discount = BigDecimal.ZERO;
+        private Money discount = Money.ZERO;
         private boolean freeDelivery;
 
         public Offer getOffer() {
@@ -36,11 +37,11 @@ public class OfferService {
             this.offer = offer;
         }
 
-        public BigDecimal getDiscount() {
+        public Money getDiscount() {
             return discount;
         }
 
-        public void setDiscount(BigDecimal discount) {
+        public void setDiscount(Money discount) {
             this.discount = discount;
         }
 
@@ -53,12 +54,24 @@ public class OfferService {
         }
     }
 
+    private static final int TIMELINE_CACHE_SIZE = 10_000;
+    private static final Duration TIMELINE_TTL = Duration.ofSeconds(60);
+
     private final OfferRepository offerRepository;
     private final StoreRepository storeRepository;
+    private final OfferBoundaryScheduler boundaryScheduler;
+    private final CatalogVersionService catalogVersionService;
+    // Compiled per store; reloaded after the TTL so edits made on other instances are picked up.
+    private final TtlCache<String, OfferTimeline> timelines = new TtlCache<>(TIMELINE_CACHE_SIZE, TIMELINE_TTL);
 
-    public OfferService(OfferRepository offerRepository, StoreRepository storeRepository) {
+    public OfferService(OfferRepository offerRepository,
+                        StoreRepository storeRepository,
+                        OfferBoundaryScheduler boundaryScheduler,
+                        CatalogVersionService catalogVersionService) {
         this.offerRepository = offerRepository;
         this.storeRepository = storeRepository;
+        this.boundaryScheduler = boundaryScheduler;
+        this.catalogVersionService = catalogVersionService;
     }
 
     public Offer create(String storeId, OfferRequest request) {
@@ -67,7 +80,10 @@ public class OfferService {
         apply(offer, storeId, request);
         offer.setCreatedAt(Instant.now());
         offer.setUpdatedAt(Instant.now());
-        return offerRepository.save(offer);
+        Offer saved = offerRepository.save(offer);
+        catalogVersionService.bump(storeId);
+        scheduleActiveOfferRefresh(storeId);
+        return saved;
     }
 
     public Offer update(String storeId, String id, OfferRequest request) {
@@ -79,7 +95,10 @@ public class OfferService {
         }
         apply(existing, storeId, request);
         existing.setUpdatedAt(Instant.now());
-        return offerRepository.save(existing);
+        Offer saved = offerRepository.save(existing);
+        catalogVersionService.bump(storeId);
+        scheduleActiveOfferRefresh(storeId);
+        return saved;
     }
 
     public void delete(String storeId, String id) {
@@ -89,6 +108,8 @@ public class OfferService {
             throw new BadRequestException("Offer does not belong to store: " + storeId);
         }
         offerRepository.deleteById(id);
+        catalogVersionService.bump(storeId);
+        scheduleActiveOfferRefresh(storeId);
     }
 
     public List<Offer> listByStore(String storeId) {
@@ -98,50 +119,71 @@ public class OfferService {
         return offerRepository.findByStoreId(storeId);
     }
 
-    public boolean hasActiveOffer(String storeId) {
-        return !getActiveOffers(storeId, Instant.now()).isEmpty();
+    /**
+     * Recompiles the store's offer timeline, updates its active-offer flag
+     * and schedules the next refresh at the timeline's next transition.
+     */
+    public void refreshActiveOfferFlag(String storeId) {
+        Store store = storeRepository.findById(storeId).orElse(null);
+        if (store == null) {
+            timelines.invalidate(storeId);
+            boundaryScheduler.cancel(storeId);
+            return;
+        }
+        Instant now = Instant.now();
+        OfferTimeline timeline = new OfferTimeline(zoneOf(store), offerRepository.findByStoreId(storeId), now);
+        timelines.put(storeId, timeline);
+        boolean active = !timeline.activeAt(now).isEmpty();
+        if (active != store.isHasActiveOffer()) {
+            storeRepository.updateHasActiveOffer(storeId, active);
+        }
+        boundaryScheduler.schedule(storeId, timeline.getNextTransition(), () -> refreshActiveOfferFlag(storeId));
+    }
+
+    public void scheduleActiveOfferRefresh(String storeId) {
+        timelines.invalidate(storeId);
+        boundaryScheduler.schedule(storeId, Instant.now(), () -> refreshActiveOfferFlag(storeId));
     }
 
     public List<Offer> getActiveOffers(String storeId, Instant now) {
-        List<Offer> offers = offerRepository.findByStoreId(storeId);
-        List<Offer> active = new ArrayList<>();
-        for (Offer offer : offers) {
-            if (isActive(offer, now)) {
-                active.add(offer);
+        return loadOfferIndex(storeId, now).getOffers();
+    }
+
+    public OfferIndex loadOfferIndex(String storeId, Instant now) {
+        if (storeId == null || storeId.isBlank()) {
+            return OfferIndex.empty();
+        }
+        OfferTimeline timeline = timelines.get(storeId);
+        if (timeline == null) {
+            Store store = storeRepository.findById(storeId).orElse(null);
+            if (store == null) {
+                return OfferIndex.empty();
             }
+            timeline = new OfferTimeline(zoneOf(store), offerRepository.findByStoreId(storeId), now);
+            timelines.put(storeId, timeline);
         }
-        return active;
+        return timeline.activeAt(now);
     }
 
-    public OfferApplication applyOffers(String storeId,
-                                        List<OrderItem> orderItems,
-                                        BigDecimal subtotal,
-                                        Instant now) {
+    public OfferApplication applyOffers(OfferIndex index, List<OrderItem> orderItems, Money subtotal) {
         OfferApplication result = new OfferApplication();
-        if (subtotal == null || subtotal.compareTo(BigDecimal.ZERO) <= 0) {
+        if (index == null || subtotal == null || subtotal.signum() <= 0) {
             return result;
         }
-        List<Offer> offers = getActiveOffers(storeId, now);
-        BigDecimal maxDiscount = BigDecimal.ZERO;
+        Money maxDiscount = Money.ZERO;
         Offer bestOffer = null;
         boolean freeDelivery = false;
 
-        for (Offer offer : offers) {
-            if (!meetsMinTotal(offer, subtotal)) {
-                continue;
-            }
-            BigDecimal base = applicableSubtotal(offer, orderItems);
-            if (base.compareTo(BigDecimal.ZERO) <= 0) {
-                continue;
-            }
-            BigDecimal discount = computeDiscount(offer, base);
+        for (Map.Entry<Offer, Money> entry : index.applicableSubtotals(orderItems, subtotal).entrySet()) {
+            Offer offer = entry.getKey();
+            Money discount = computeDiscount(offer, entry.getValue());
             if (discount.compareTo(maxDiscount) > 0) {
                 maxDiscount = discount;
                 bestOffer = offer;
             }
             if (offer.isFreeDelivery()) {
                 freeDelivery = true;
-                if (bestOffer == null && maxDiscount.compareTo(BigDecimal.ZERO) == 0) {
+                if (bestOffer == null && maxDiscount.signum() == 0) {
                     bestOffer = offer;
                 }
             }
@@ -160,6 +202,9 @@ public class OfferService {
         if (!storeRepository.existsById(storeId)) {
             throw new NotFoundException("Store not found: " + storeId);
         }
+        if (storeRepository.isDeleting(storeId)) {
+            throw new BadRequestException("Store is being deleted: " + storeId);
+        }
         if (request == null) {
             throw new BadRequestException("Offer payload is required.");
         }
@@ -177,6 +222,10 @@ public class OfferService {
                 || request.getDiscountValue().compareTo(BigDecimal.ZERO) <= 0)) {
             throw new BadRequestException("Offer discount value is required.");
         }
+        if (request.getDiscountType() == OfferType.AMOUNT
+                && request.getDiscountValue().stripTrailingZeros().scale() > Money.SCALE) {
+            throw new BadRequestException("Offer discount amount may have at most " + Money.SCALE + " decimal places.");
+        }
         if (request.getScope() == OfferScope.CATEGORY
                 && (request.getCategoryId() == null || request.getCategoryId().isBlank())) {
             throw new BadRequestException("Category id is required for category offer.");
@@ -205,127 +254,21 @@ public class OfferService {
         offer.setDaysOfWeek(request.getDaysOfWeek());
     }
 
-    private boolean isActive(Offer offer, Instant now) {
-        if (offer == null || !offer.isEnabled()) {
-            return false;
-        }
-        if (offer.getValidFrom() != null && now.isBefore(offer.getValidFrom())) {
-            return false;
-        }
-        if (offer.getValidTo() != null && now.isAfter(offer.getValidTo())) {
-            return false;
-        }
-        if (offer.getDaysOfWeek() != null && !offer.getDaysOfWeek().isEmpty()) {
-            ZonedDateTime zoned = ZonedDateTime.ofInstant(now, ZoneId.systemDefault());
-            int day = zoned.getDayOfWeek().getValue();
-            if (!offer.getDaysOfWeek().contains(day)) {
-                return false;
-            }
-        }
-        if (offer.getStartTime() != null && offer.getEndTime() != null) {
-            LocalTime start = parseTime(offer.getStartTime());
-            LocalTime end = parseTime(offer.getEndTime());
-            if (start != null && end != null) {
-                LocalTime nowTime = LocalTime.now(ZoneId.systemDefault());
-                if (end.isBefore(start)) {
-                    // Overnight window
-                    if (nowTime.isBefore(start) && nowTime.isAfter(end)) {
-                        return false;
-                    }
-                } else if (nowTime.isBefore(start) || nowTime.isAfter(end)) {
-                    return false;
-                }
-            }
-        }
-        return true;
-    }
-
-    private LocalTime parseTime(String value) {
-        if (value == null || value.isBlank()) {
-            return null;
-        }
-        try {
-            return LocalTime.parse(value.trim());
-        } catch (Exception ex) {
-            return null;
+    private ZoneId zoneOf(Store store) {
+        if (store.getTimeZone() == null || store.getTimeZone().isBlank()) {
+            return ZoneId.systemDefault();
         }
+        return ZoneId.of(store.getTimeZone());
     }
 
-    private boolean meetsMinTotal(Offer offer, BigDecimal subtotal) {
-        if (offer.getMinOrderTotal() == null) {
-            return true;
-        }
-        return subtotal.compareTo(offer.getMinOrderTotal()) >= 0;
-    }
-
-    private BigDecimal applicableSubtotal(Offer offer, List<OrderItem> orderItems) {
-        if (offer.getScope() == OfferScope.ALL_PRODUCTS) {
-            return sumItems(orderItems);
-        }
-        if (offer.getScope() == OfferScope.CATEGORY) {
-            return sumItemsByCategory(orderItems, offer.getCategoryId());
-        }
-        if (offer.getScope() == OfferScope.PRODUCT || offer.getScope() == OfferScope.PRODUCTS) {
-            return sumItemsByProducts(orderItems, offer.getProductIds());
-        }
-        return BigDecimal.ZERO;
-    }
-
-    private BigDecimal computeDiscount(Offer offer, BigDecimal base) {
+    // Percent discounts are rounded half up to the minor unit.
+    private Money computeDiscount(Offer offer, Money base) {
         if (offer.getDiscountType() == null || offer.getDiscountValue() == null) {
-            return BigDecimal.ZERO;
+            return Money.ZERO;
         }
         if (offer.getDiscountType() == OfferType.PERCENT) {
-            return base.multiply(offer.getDiscountValue()).divide(BigDecimal.valueOf(100));
-        }
-        return offer.getDiscountValue().min(base);
-    }
-
-    private BigDecimal sumItems(List<OrderItem> items) {
-        BigDecimal sum = BigDecimal.ZERO;
-        if (items == null) {
-            return sum;
-        }
-        for (OrderItem item : items) {
-            if (item.getPrice() == null) {
-                continue;
-            }
-            sum = sum.add(item.getPrice().multiply(BigDecimal.valueOf(item.getQuantity())));
-        }
-        return sum;
-    }
-
-    private BigDecimal sumItemsByCategory(List<OrderItem> items, String categoryId) {
-        if (categoryId == null || categoryId.isBlank()) {
-            return BigDecimal.ZERO;
-        }
-        BigDecimal sum = BigDecimal.ZERO;
-        for (OrderItem item : items) {
-            Product product = item.getProduct();
-            if (product == null || product.getCategoryId() == null) {
-                continue;
-            }
-            if (categoryId.equals(product.getCategoryId()) && item.getPrice() != null) {
-                sum = sum.add(item.getPrice().multiply(BigDecimal.valueOf(item.getQuantity())));
-            }
-        }
-        return sum;
-    }
-
-    private BigDecimal sumItemsByProducts(List<OrderItem> items, List<String> productIds) {
-        if (productIds == null || productIds.isEmpty()) {
-            return BigDecimal.ZERO;
-        }
-        BigDecimal sum = BigDecimal.ZERO;
-        for (OrderItem item : items) {
-            Product product = item.getProduct();
-            if (product == null || product.getId() == null) {
-                continue;
-            }
-            if (productIds.contains(product.getId()) && item.getPrice() != null) {
-                sum = sum.add(item.getPrice().multiply(BigDecimal.valueOf(item.getQuantity())));
-            }
+            return base.percent(offer.getDiscountValue());
         }
-        return sum;
+        return Money.rounded(offer.getDiscountValue()).min(base);
     }
 }
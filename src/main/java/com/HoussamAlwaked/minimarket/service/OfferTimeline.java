@@ -0,0 +1,111 @@
+package com.HoussamAlwaked.minimarket.service;
+
+import com.HoussamAlwaked.minimarket.entity.Offer;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The offers of one store compiled into windows, with a queue of the
+ * instants at which each window next changes state. The active set is
+ * rebuilt only when a transition is due; between transitions a lookup
+ * returns the current index without evaluating any offer.
+ */
+final class OfferTimeline {
+
+    private static final class Transition {
+        private final Instant at;
+        private final int window;
+
+        private Transition(Instant at, int window) {
+            this.at = at;
+            this.window = window;
+        }
+    }
+
+    private final ZoneId zone;
+    private final List<OfferWindow> windows = new ArrayList<>();
+    private final boolean[] active;
+    private final PriorityQueue<Transition> transitions =
+            new PriorityQueue<>(Comparator.comparing((Transition transition) -> transition.at));
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile OfferIndex current;
+    private volatile Instant nextTransition;
+
+    OfferTimeline(ZoneId zone, List<Offer> offers, Instant now) {
+        this.zone = zone;
+        for (Offer offer : offers) {
+            OfferWindow window = OfferWindow.compile(offer);
+            if (window != null) {
+                windows.add(window);
+            }
+        }
+        this.active = new boolean[windows.size()];
+        ZonedDateTime local = now.atZone(zone);
+        for (int i = 0; i < windows.size(); i++) {
+            active[i] = windows.get(i).isActive(now, local);
+            enqueue(i, windows.get(i).nextTransition(now, local));
+        }
+        publish();
+    }
+
+    OfferIndex activeAt(Instant now) {
+        Instant next = nextTransition;
+        if (next == null || now.isBefore(next)) {
+            return current;
+        }
+        lock.lock();
+        try {
+            advance(now);
+            return current;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    Instant getNextTransition() {
+        return nextTransition;
+    }
+
+    private void advance(Instant now) {
+        ZonedDateTime local = now.atZone(zone);
+        boolean changed = false;
+        while (!transitions.isEmpty() && !transitions.peek().at.isAfter(now)) {
+            int i = transitions.poll().window;
+            OfferWindow window = windows.get(i);
+            boolean nowActive = window.isActive(now, local);
+            if (nowActive != active[i]) {
+                active[i] = nowActive;
+                changed = true;
+            }
+            enqueue(i, window.nextTransition(now, local));
+        }
+        if (changed) {
+            publish();
+        } else {
+            nextTransition = transitions.isEmpty() ? null : transitions.peek().at;
+        }
+    }
+
+    private void enqueue(int window, Instant at) {
+        if (at != null) {
+            transitions.add(new Transition(at, window));
+        }
+    }
+
+    private void publish() {
+        List<Offer> activeOffers = new ArrayList<>();
+        for (int i = 0; i < windows.size(); i++) {
+            if (active[i]) {
+                activeOffers.add(windows.get(i).getOffer());
+            }
+        }
+        current = new OfferIndex(activeOffers);
+        nextTransition = transitions.isEmpty() ? null : transitions.peek().at;
+    }
+}
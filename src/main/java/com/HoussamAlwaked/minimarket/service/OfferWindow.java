@@ -0,0 +1,139 @@
+package com.HoussamAlwaked.minimarket.service;
+
+import com.HoussamAlwaked.minimarket.entity.Offer;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.time.zone.ZoneOffsetTransition;
+
+/**
+ * An offer's activation rules, parsed once: validity period, days of week as
+ * a bitmask indexed by ISO day number, and an optional daily time window.
+ * Ends are inclusive, so an offer stops being active just after validTo and
+ * just after endTime.
+ */
+final class OfferWindow {
+
+    private static final int ALL_DAYS = 0b1111_1110;
+
+    private final Offer offer;
+    private final Instant validFrom;
+    private final Instant validTo;
+    private final int daysMask;
+    private final LocalTime start;
+    private final LocalTime end;
+
+    private OfferWindow(Offer offer) {
+        this.offer = offer;
+        this.validFrom = offer.getValidFrom();
+        this.validTo = offer.getValidTo();
+        this.daysMask = daysMask(offer);
+        LocalTime parsedStart = parseTime(offer.getStartTime());
+        LocalTime parsedEnd = parseTime(offer.getEndTime());
+        boolean timed = parsedStart != null && parsedEnd != null;
+        this.start = timed ? parsedStart : null;
+        this.end = timed ? parsedEnd : null;
+    }
+
+    /**
+     * Returns null for offers that can never become active.
+     */
+    static OfferWindow compile(Offer offer) {
+        if (offer == null || !offer.isEnabled()) {
+            return null;
+        }
+        return new OfferWindow(offer);
+    }
+
+    Offer getOffer() {
+        return offer;
+    }
+
+    boolean isActive(Instant now, ZonedDateTime local) {
+        if (validFrom != null && now.isBefore(validFrom)) {
+            return false;
+        }
+        if (validTo != null && now.isAfter(validTo)) {
+            return false;
+        }
+        if ((daysMask & (1 << local.getDayOfWeek().getValue())) == 0) {
+            return false;
+        }
+        if (start != null) {
+            LocalTime time = local.toLocalTime();
+            if (end.isBefore(start)) {
+                // Overnight window
+                return !(time.isBefore(start) && time.isAfter(end));
+            }
+            return !time.isBefore(start) && !time.isAfter(end);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the first instant after now at which the offer may change
+     * state, or null if it never will.
+     */
+    Instant nextTransition(Instant now, ZonedDateTime local) {
+        if (validTo != null && now.isAfter(validTo)) {
+            return null;
+        }
+        Instant next = null;
+        if (validFrom != null && now.isBefore(validFrom)) {
+            next = validFrom;
+        }
+        if (validTo != null) {
+            next = earliest(next, validTo.plusNanos(1));
+        }
+        if (daysMask != ALL_DAYS) {
+            next = earliest(next, local.toLocalDate().plusDays(1).atStartOfDay(local.getZone()).toInstant());
+        }
+        if (start != null) {
+            next = earliest(next, nextOccurrence(local, start));
+            next = earliest(next, nextOccurrence(local, end.plusNanos(1)));
+            // A DST change moves the wall clock past start or end, or back into the window.
+            ZoneOffsetTransition offsetChange = local.getZone().getRules().nextTransition(now);
+            if (offsetChange != null) {
+                next = earliest(next, offsetChange.getInstant());
+            }
+        }
+        return next;
+    }
+
+    private static int daysMask(Offer offer) {
+        if (offer.getDaysOfWeek() == null || offer.getDaysOfWeek().isEmpty()) {
+            return ALL_DAYS;
+        }
+        int mask = 0;
+        for (Integer day : offer.getDaysOfWeek()) {
+            if (day != null && day >= 1 && day <= 7) {
+                mask |= 1 << day;
+            }
+        }
+        return mask;
+    }
+
+    private static Instant nextOccurrence(ZonedDateTime local, LocalTime time) {
+        ZonedDateTime candidate = local.with(time);
+        if (!candidate.isAfter(local)) {
+            candidate = candidate.plusDays(1).with(time);
+        }
+        return candidate.toInstant();
+    }
+
+    private static Instant earliest(Instant current, Instant candidate) {
+        return current == null || candidate.isBefore(current) ? candidate : current;
+    }
+
+    private static LocalTime parseTime(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            return LocalTime.parse(value.trim());
+        } catch (DateTimeParseException ex) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,397 @@
+package com.HoussamAlwaked.minimarket.service;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Precondition;
+import com.google.cloud.firestore.WriteBatch;
+import com.google.cloud.firestore.WriteResult;
+import com.HoussamAlwaked.minimarket.cache.TtlCache;
+import com.HoussamAlwaked.minimarket.dto.OrderRequest;
+import com.HoussamAlwaked.minimarket.entity.Order;
+import com.HoussamAlwaked.minimarket.entity.Product;
+import com.HoussamAlwaked.minimarket.exception.BadRequestException;
+import com.HoussamAlwaked.minimarket.exception.NotFoundException;
+import com.HoussamAlwaked.minimarket.repository.IdempotencyKeyRepository;
+import com.HoussamAlwaked.minimarket.repository.OrderRepository;
+import com.HoussamAlwaked.minimarket.repository.ProductRepository;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+/**
+ * Optional single writer per store for order creation, enabled with
+ * ORDER_SEQUENCER_ENABLED=true. Orders for a store are queued and handled
+ * one batch at a time against an in-memory view of product stock; all
+ * accepted orders of a batch and their stock decrements are committed in
+ * one write batch.
+ *
+ * Every stock write carries the update time of the product as the view saw
+ * it, so a change made by anything else (another instance, the stock
+ * endpoints, a product edit) fails the batch instead of being overwritten.
+ * The orders of a failed batch, and orders with sharded stock, go through
+ * the regular transactional path on a separate thread, so the store's queue
+ * keeps moving while they run.
+ *
+ * Idempotency keys are created in the same batch as their order. A key that
+ * already exists fails the batch, and the transactional path then returns
+ * the order the key belongs to.
+ *
+ * A lane and its views are dropped once the store has had no orders for
+ * IDLE_TIMEOUT, and each lane keeps at most MAX_VIEWS products.
+ */
+@Component
+public class OrderSequencer implements DisposableBean {
+
+    private static final String ENABLED_ENV = "ORDER_SEQUENCER_ENABLED";
+    // Firestore accepts at most 500 writes per batch.
+    private static final int MAX_BATCH_WRITES = 500;
+    private static final int MAX_VIEWS = 1_000;
+    private static final Duration IDLE_TIMEOUT = Duration.ofMinutes(10);
+    private static final Duration SWEEP_INTERVAL = Duration.ofMinutes(1);
+
+    private static final class PendingOrder {
+        private final String customerId;
+        private final OrderRequest request;
+        private final Map<String, Integer> quantities;
+        private final String idempotencyKey;
+        private final DocumentReference keyRef;
+        private final String requestHash;
+        private final CompletableFuture<Order> result = new CompletableFuture<>();
+
+        private PendingOrder(String customerId, OrderRequest request, Map<String, Integer> quantities,
+                             String idempotencyKey, DocumentReference keyRef, String requestHash) {
+            this.customerId = customerId;
+            this.request = request;
+            this.quantities = quantities;
+            this.idempotencyKey = idempotencyKey;
+            this.keyRef = keyRef;
+            this.requestHash = requestHash;
+        }
+
+        private int writes() {
+            return quantities.size() + (keyRef == null ? 1 : 2);
+        }
+    }
+
+    private static final class StockView {
+        private final Product product;
+        private Timestamp updateTime;
+
+        private StockView(Product product, Timestamp updateTime) {
+            this.product = product;
+            this.updateTime = updateTime;
+        }
+    }
+
+    private final OrderService orderService;
+    private final OfferService offerService;
+    private final OrderRepository orderRepository;
+    private final ProductRepository productRepository;
+    private final IdempotencyKeyRepository idempotencyKeyRepository;
+    private final CatalogVersionService catalogVersionService;
+    private final Firestore firestore;
+    private final boolean enabled = Boolean.parseBoolean(System.getenv(ENABLED_ENV));
+    private final Map<String, StoreLane> lanes = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "order-sequencer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "order-sequencer-sweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public OrderSequencer(OrderService orderService,
+                          OfferService offerService,
+                          OrderRepository orderRepository,
+                          ProductRepository productRepository,
+                          IdempotencyKeyRepository idempotencyKeyRepository,
+                          CatalogVersionService catalogVersionService,
+                          Firestore firestore) {
+        this.orderService = orderService;
+        this.offerService = offerService;
+        this.orderRepository = orderRepository;
+        this.productRepository = productRepository;
+        this.idempotencyKeyRepository = idempotencyKeyRepository;
+        this.catalogVersionService = catalogVersionService;
+        this.firestore = firestore;
+        sweeper.scheduleAtFixedRate(this::dropIdleLanes, SWEEP_INTERVAL.toMillis(), SWEEP_INTERVAL.toMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Order createOrder(String customerId, OrderRequest request, String idempotencyKey) {
+        DocumentReference keyRef = orderService.getIdempotencyKeyDocument(customerId, idempotencyKey);
+        String requestHash = OrderService.requestHash(request);
+        Order replay = orderService.findReplay(keyRef, requestHash);
+        if (replay != null) {
+            return replay;
+        }
+        Map<String, Integer> quantities = orderService.validateOrderRequest(customerId, request);
+        PendingOrder pending = new PendingOrder(customerId, request, quantities, idempotencyKey, keyRef,
+                requestHash);
+        // Queued inside compute so the sweeper never drops a lane between lookup and enqueue.
+        StoreLane lane = lanes.compute(request.getStoreId(), (storeId, existing) -> {
+            StoreLane target = existing != null ? existing : new StoreLane(storeId);
+            target.enqueue(pending);
+            return target;
+        });
+        lane.schedule();
+        try {
+            return pending.result.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Order creation interrupted.", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException("Failed to create order.", cause);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        sweeper.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    private void dropIdleLanes() {
+        long cutoff = System.nanoTime() - IDLE_TIMEOUT.toNanos();
+        for (String storeId : lanes.keySet()) {
+            lanes.computeIfPresent(storeId, (id, lane) -> lane.isIdleSince(cutoff) ? null : lane);
+        }
+    }
+
+    private final class StoreLane {
+
+        private final String storeId;
+        private final Queue<PendingOrder> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean running = new AtomicBoolean();
+        private final TtlCache<String, StockView> views = new TtlCache<>(MAX_VIEWS, IDLE_TIMEOUT);
+        private volatile long lastUsed = System.nanoTime();
+
+        private StoreLane(String storeId) {
+            this.storeId = storeId;
+        }
+
+        private void enqueue(PendingOrder pending) {
+            queue.add(pending);
+            lastUsed = System.nanoTime();
+        }
+
+        private boolean isIdleSince(long cutoff) {
+            return queue.isEmpty() && !running.get() && lastUsed - cutoff < 0;
+        }
+
+        private void schedule() {
+            if (running.compareAndSet(false, true)) {
+                executor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            try {
+                List<PendingOrder> batch = new ArrayList<>();
+                int writes = 0;
+                PendingOrder next;
+                while ((next = queue.peek()) != null) {
+                    int orderWrites = next.writes();
+                    if (!batch.isEmpty() && writes + orderWrites > MAX_BATCH_WRITES) {
+                        break;
+                    }
+                    batch.add(queue.poll());
+                    writes += orderWrites;
+                }
+                if (!batch.isEmpty()) {
+                    try {
+                        process(batch);
+                    } catch (RuntimeException ex) {
+                        // Callers must never be left waiting; completed results are unaffected.
+                        batch.forEach(pending -> pending.result.completeExceptionally(ex));
+                    }
+                }
+            } finally {
+                running.set(false);
+                if (!queue.isEmpty()) {
+                    schedule();
+                }
+            }
+        }
+
+        private void process(List<PendingOrder> batch) {
+            List<PendingOrder> viaTransaction = new ArrayList<>();
+            Map<String, StockView> batchViews = loadViews(batch);
+            OfferIndex offers = offerService.loadOfferIndex(storeId, Instant.now());
+
+            Map<String, Integer> stock = new LinkedHashMap<>();
+            List<PendingOrder> accepted = new ArrayList<>();
+            List<Order> orders = new ArrayList<>();
+            for (PendingOrder pending : batch) {
+                try {
+                    List<Product> products = new ArrayList<>();
+                    boolean sharded = false;
+                    for (String productId : pending.quantities.keySet()) {
+                        StockView view = batchViews.get(productId);
+                        if (view == null) {
+                            throw new NotFoundException("Product not found: " + productId);
+                        }
+                        orderService.checkOrderProduct(view.product, storeId);
+                        sharded |= view.product.getStockShards() > 0;
+                        products.add(view.product);
+                    }
+                    if (sharded) {
+                        viaTransaction.add(pending);
+                        continue;
+                    }
+                    for (Map.Entry<String, Integer> entry : pending.quantities.entrySet()) {
+                        int available = stock.getOrDefault(entry.getKey(),
+                                batchViews.get(entry.getKey()).product.getStock());
+                        if (available < entry.getValue()) {
+                            throw new BadRequestException("Insufficient stock for product id: " + entry.getKey());
+                        }
+                    }
+                    for (Map.Entry<String, Integer> entry : pending.quantities.entrySet()) {
+                        int available = stock.getOrDefault(entry.getKey(),
+                                batchViews.get(entry.getKey()).product.getStock());
+                        stock.put(entry.getKey(), available - entry.getValue());
+                    }
+                    orders.add(orderService.buildOrder(pending.customerId, pending.request, products,
+                            pending.quantities, offers));
+                    accepted.add(pending);
+                } catch (RuntimeException ex) {
+                    pending.result.completeExceptionally(ex);
+                }
+            }
+
+            if (!accepted.isEmpty() && !commit(batchViews, stock, accepted, orders)) {
+                viaTransaction.addAll(0, accepted);
+                accepted.clear();
+            }
+            for (int i = 0; i < accepted.size(); i++) {
+                orderService.rememberReplay(accepted.get(i).keyRef, accepted.get(i).requestHash, orders.get(i));
+                accepted.get(i).result.complete(orders.get(i));
+            }
+            for (PendingOrder pending : viaTransaction) {
+                // The transaction writes these products behind the view's back.
+                pending.quantities.keySet().forEach(views::invalidate);
+                executor.execute(() -> {
+                    try {
+                        pending.result.complete(orderService.createOrder(pending.customerId, pending.request,
+                                pending.idempotencyKey));
+                    } catch (RuntimeException ex) {
+                        pending.result.completeExceptionally(ex);
+                    }
+                });
+            }
+        }
+
+        // The views this batch works on, so none can expire while it runs.
+        private Map<String, StockView> loadViews(List<PendingOrder> batch) {
+            Map<String, StockView> loaded = new HashMap<>();
+            Set<String> missing = new LinkedHashSet<>();
+            for (PendingOrder pending : batch) {
+                for (String productId : pending.quantities.keySet()) {
+                    StockView view = views.get(productId);
+                    if (view != null) {
+                        loaded.put(productId, view);
+                    } else {
+                        missing.add(productId);
+                    }
+                }
+            }
+            if (missing.isEmpty()) {
+                return loaded;
+            }
+            try {
+                for (DocumentSnapshot snapshot : firestore.getAll(missing.stream()
+                        .map(productRepository::getDocument).toArray(DocumentReference[]::new)).get()) {
+                    if (snapshot.exists()) {
+                        StockView view = new StockView(productRepository.fromSnapshot(snapshot),
+                                snapshot.getUpdateTime());
+                        views.put(snapshot.getId(), view);
+                        loaded.put(snapshot.getId(), view);
+                    }
+                }
+                return loaded;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Product lookup interrupted.", ex);
+            } catch (ExecutionException ex) {
+                throw new RuntimeException("Failed to load products.", ex.getCause());
+            }
+        }
+
+        private boolean commit(Map<String, StockView> batchViews, Map<String, Integer> stock,
+                               List<PendingOrder> accepted, List<Order> orders) {
+            WriteBatch writeBatch = firestore.batch();
+            List<String> productIds = new ArrayList<>(stock.keySet());
+            for (String productId : productIds) {
+                int remaining = stock.get(productId);
+                writeBatch.update(productRepository.getDocument(productId),
+                        Map.of("stock", remaining, ProductRepository.IN_STOCK_FIELD, remaining > 0),
+                        Precondition.updatedAt(batchViews.get(productId).updateTime));
+            }
+            for (int i = 0; i < orders.size(); i++) {
+                Order order = orders.get(i);
+                writeBatch.set(orderRepository.getDocument(order.getId()), orderRepository.toMap(order));
+                PendingOrder pending = accepted.get(i);
+                if (pending.keyRef != null) {
+                    // create() fails the batch if the key was already used.
+                    writeBatch.create(pending.keyRef, idempotencyKeyRepository.toMap(
+                            OrderService.idempotencyScope(pending.customerId), pending.requestHash, order.getId(),
+                            null));
+                }
+            }
+            try {
+                List<WriteResult> results = writeBatch.commit().get();
+                for (int i = 0; i < productIds.size(); i++) {
+                    StockView view = batchViews.get(productIds.get(i));
+                    view.product.setStock(stock.get(productIds.get(i)));
+                    view.updateTime = results.get(i).getUpdateTime();
+                }
+                catalogVersionService.bumpSoon(storeId);
+                return true;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                productIds.forEach(views::invalidate);
+                throw new RuntimeException("Order batch interrupted.", ex);
+            } catch (ExecutionException ex) {
+                // Usually a product changed since it was loaded; reload it on the next batch.
+                productIds.forEach(views::invalidate);
+                // A failed call can still have been applied, for example when the response timed out.
+                boolean applied = orderRepository.existsById(orders.get(0).getId());
+                if (applied) {
+                    catalogVersionService.bumpSoon(storeId);
+                }
+                return applied;
+            }
+        }
+    }
+}
@@ -4,8 +4,12 @@ import com.google.api.core.ApiFuture;
 import com.google.cloud.firestore.DocumentReference;
 import com.google.cloud.firestore.DocumentSnapshot;
 import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Transaction;
+import com.HoussamAlwaked.minimarket.cache.TtlCache;
 import com.HoussamAlwaked.minimarket.dto.OrderItemRequest;
 import com.HoussamAlwaked.minimarket.dto.OrderRequest;
+import com.HoussamAlwaked.minimarket.dto.Page;
+import com.HoussamAlwaked.minimarket.entity.Money;
 import com.HoussamAlwaked.minimarket.entity.Order;
 import com.HoussamAlwaked.minimarket.entity.OrderItem;
 import com.HoussamAlwaked.minimarket.entity.Product;
@@ -14,15 +18,24 @@ import com.HoussamAlwaked.minimarket.entity.UserRole;
 import com.HoussamAlwaked.minimarket.exception.ForbiddenException;
 import com.HoussamAlwaked.minimarket.exception.BadRequestException;
 import com.HoussamAlwaked.minimarket.exception.NotFoundException;
+import com.HoussamAlwaked.minimarket.repository.IdempotencyKeyRepository;
 import com.HoussamAlwaked.minimarket.repository.OrderRepository;
 import com.HoussamAlwaked.minimarket.repository.ProductRepository;
 import com.HoussamAlwaked.minimarket.repository.StoreRepository;
-import java.math.BigDecimal;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
 import org.springframework.stereotype.Service;
 
 @Service
@@ -32,116 +45,125 @@ public class OrderService {
     private final ProductRepository productRepository;
     private final StoreRepository storeRepository;
     private final OfferService offerService;
+    private final ProductService productService;
+    private final IdempotencyKeyRepository idempotencyKeyRepository;
+    private final CatalogVersionService catalogVersionService;
     private final Firestore firestore;
+    // Orders created on this instance by idempotency key, so a retry skips the transaction.
+    private final TtlCache<String, Order> replays = new TtlCache<>(10_000, Duration.ofMinutes(10));
 
     public OrderService(OrderRepository orderRepository,
                         ProductRepository productRepository,
                         StoreRepository storeRepository,
                         OfferService offerService,
+                        ProductService productService,
+                        IdempotencyKeyRepository idempotencyKeyRepository,
+                        CatalogVersionService catalogVersionService,
                         Firestore firestore) {
         this.orderRepository = orderRepository;
         this.productRepository = productRepository;
         this.storeRepository = storeRepository;
         this.offerService = offerService;
+        this.productService = productService;
+        this.idempotencyKeyRepository = idempotencyKeyRepository;
+        this.catalogVersionService = catalogVersionService;
         this.firestore = firestore;
     }
 
-    public Order createOrder(String customerId, OrderRequest request) {
-        if (request == null || request.getItems() == null || request.getItems().isEmpty()) {
-            throw new BadRequestException("Order items are required.");
-        }
-        if (customerId == null || customerId.isBlank()) {
-            throw new BadRequestException("Customer id is required.");
-        }
-        if (request.getStoreId() == null || request.getStoreId().isBlank()) {
-            throw new BadRequestException("Store id is required.");
-        }
-        if (!storeRepository.existsById(request.getStoreId())) {
-            throw new NotFoundException("Store not found: " + request.getStoreId());
+    /**
+     * With an idempotency key, the key is recorded in the order's transaction
+     * and a repeated request returns the order it created instead of placing
+     * another one.
+     */
+    public Order createOrder(String customerId, OrderRequest request, String idempotencyKey) {
+        DocumentReference keyRef = getIdempotencyKeyDocument(customerId, idempotencyKey);
+        String requestHash = requestHash(request);
+        Order replay = findReplay(keyRef, requestHash);
+        if (replay != null) {
+            return replay;
         }
+        Map<String, Integer> quantities = validateOrderRequest(customerId, request);
+        // Loaded once per order so transaction retries do not query offers again.
+        OfferIndex offers = offerService.loadOfferIndex(request.getStoreId(), Instant.now());
+        // Sharded products with a shard emptied by the last transaction attempt.
+        Set<String> emptied = ConcurrentHashMap.newKeySet();
 
         try {
             ApiFuture<Order> future = firestore.runTransaction(transaction -> {
-                Order order = new Order();
-                order.setId(UUID.randomUUID().toString());
-                order.setCustomerId(customerId);
-                order.setStoreId(request.getStoreId());
-                order.setCreatedAt(Instant.now());
-                order.setStatus("PENDING");
-
-                List<OrderItem> orderItems = new ArrayList<>();
-                BigDecimal total = BigDecimal.ZERO;
-
-                for (OrderItemRequest itemRequest : request.getItems()) {
-                    if (itemRequest == null) {
-                        throw new BadRequestException("Order item is required.");
-                    }
-                    String productId = itemRequest.getProductId();
-                    if (productId == null || productId.isBlank()) {
-                        throw new BadRequestException("Product id is required.");
-                    }
-                    int quantity = itemRequest.getQuantity();
-                    if (quantity <= 0) {
-                        throw new BadRequestException("Quantity must be greater than zero.");
+                emptied.clear();
+                if (keyRef != null) {
+                    Order existing = readReplay(transaction, keyRef, requestHash);
+                    if (existing != null) {
+                        return existing;
                     }
+                }
+
+                // Resolve every product of the cart in a single batched read.
+                DocumentReference[] productRefs = new DocumentReference[quantities.size()];
+                int index = 0;
+                for (String productId : quantities.keySet()) {
+                    productRefs[index++] = productRepository.getDocument(productId);
+                }
+                Map<String, DocumentSnapshot> snapshots = new HashMap<>();
+                for (DocumentSnapshot snapshot : getSnapshots(transaction.getAll(productRefs))) {
+                    snapshots.put(snapshot.getId(), snapshot);
+                }
+
+                // Firestore transactions need every read before the first write.
+                List<Product> products = new ArrayList<>();
+                Map<String, Map<DocumentReference, Integer>> shardCounts = new HashMap<>();
 
-                    DocumentReference productRef = productRepository.getDocument(productId);
-                    DocumentSnapshot snapshot = getSnapshot(transaction.get(productRef));
-                    if (!snapshot.exists()) {
+                for (DocumentReference productRef : productRefs) {
+                    String productId = productRef.getId();
+                    int quantity = quantities.get(productId);
+                    DocumentSnapshot snapshot = snapshots.get(productId);
+                    if (snapshot == null || !snapshot.exists()) {
                         throw new NotFoundException("Product not found: " + productId);
                     }
 
                     Product product = productRepository.fromSnapshot(snapshot);
-                    if (!request.getStoreId().equals(product.getStoreId())) {
-                        throw new BadRequestException("Product does not belong to store: " + request.getStoreId());
-                    }
-                    if (product.getPrice() == null) {
-                        throw new BadRequestException("Product price is missing for id: " + productId);
-                    }
-                    if (product.getStock() < quantity) {
+                    checkOrderProduct(product, request.getStoreId());
+                    if (product.getStockShards() > 0) {
+                        Map<DocumentReference, Integer> counts =
+                                productService.planShardDecrement(transaction, product, quantity);
+                        if (counts == null) {
+                            throw new BadRequestException("Insufficient stock for product id: " + productId);
+                        }
+                        shardCounts.put(productId, counts);
+                        if (counts.containsValue(0)) {
+                            emptied.add(productId);
+                        }
+                    } else if (product.getStock() < quantity) {
                         throw new BadRequestException("Insufficient stock for product id: " + productId);
                     }
-
-                    product.setStock(product.getStock() - quantity);
-                    transaction.set(productRef, productRepository.toMap(product));
-
-                    OrderItem orderItem = new OrderItem();
-                    orderItem.setId(UUID.randomUUID().toString());
-                    orderItem.setProduct(product);
-                    orderItem.setQuantity(quantity);
-                    orderItem.setPrice(product.getPrice());
-                    orderItems.add(orderItem);
-
-                    BigDecimal lineTotal = product.getPrice().multiply(BigDecimal.valueOf(quantity));
-                    total = total.add(lineTotal);
+                    products.add(product);
                 }
 
-                order.setOrderItems(orderItems);
-                order.setSubtotal(total);
-
-                OfferService.OfferApplication application =
-                        offerService.applyOffers(request.getStoreId(), orderItems, total, Instant.now());
-                BigDecimal discount = application.getDiscount() == null ? BigDecimal.ZERO : application.getDiscount();
-                BigDecimal deliveryFee = request.getDeliveryFee() == null ? BigDecimal.ZERO : request.getDeliveryFee();
-                if (application.isFreeDelivery()) {
-                    deliveryFee = BigDecimal.ZERO;
-                }
-                BigDecimal finalTotal = total.subtract(discount).add(deliveryFee);
-
-                order.setDiscount(discount);
-                order.setDeliveryFee(deliveryFee);
-                order.setTotal(finalTotal);
-                if (application.getOffer() != null) {
-                    order.setAppliedOfferId(application.getOffer().getId());
+                for (Product product : products) {
+                    String productId = product.getId();
+                    if (product.getStockShards() > 0) {
+                        productService.writeShards(transaction, shardCounts.get(productId));
+                    } else {
+                        product.setStock(product.getStock() - quantities.get(productId));
+                        transaction.set(productRepository.getDocument(productId), productRepository.toMap(product));
+                    }
                 }
-                order.setFreeDelivery(application.isFreeDelivery());
 
+                Order order = buildOrder(customerId, request, products, quantities, offers);
                 DocumentReference orderRef = orderRepository.getDocument(order.getId());
                 transaction.set(orderRef, orderRepository.toMap(order));
+                if (keyRef != null) {
+                    transaction.set(keyRef, idempotencyKeyRepository.toMap(idempotencyScope(customerId), requestHash,
+                            order.getId(), null));
+                }
                 return order;
             });
 
-            return future.get();
+            Order order = future.get();
+            emptied.forEach(productService::refreshShardedStock);
+            catalogVersionService.bumpSoon(request.getStoreId());
+            rememberReplay(keyRef, requestHash, order);
+            return order;
         } catch (InterruptedException ex) {
             Thread.currentThread().interrupt();
             throw new RuntimeException("Order creation interrupted.", ex);
@@ -154,27 +176,225 @@ public class OrderService {
         }
     }
 
-    public List<Order> getOrders(User user, String storeId) {
+    DocumentReference getIdempotencyKeyDocument(String customerId, String idempotencyKey) {
+        return idempotencyKeyRepository.getDocument(idempotencyScope(customerId), idempotencyKey);
+    }
+
+    static String idempotencyScope(String customerId) {
+        return "orders:" + customerId;
+    }
+
+    // Identifies the order body, so a key reused with a different body is rejected.
+    static String requestHash(OrderRequest request) {
+        if (request == null) {
+            return IdempotencyKeyRepository.requestHash();
+        }
+        List<Object> fields = new ArrayList<>();
+        fields.add(request.getStoreId());
+        fields.add(request.getDeliveryFee());
+        if (request.getItems() != null) {
+            for (OrderItemRequest item : request.getItems()) {
+                fields.add(item == null ? null : item.getProductId() + ' ' + item.getQuantity());
+            }
+        }
+        return IdempotencyKeyRepository.requestHash(fields.toArray());
+    }
+
+    Order findReplay(DocumentReference keyRef, String requestHash) {
+        return keyRef == null ? null : replays.get(IdempotencyKeyRepository.replayKey(keyRef, requestHash));
+    }
+
+    void rememberReplay(DocumentReference keyRef, String requestHash, Order order) {
+        if (keyRef != null) {
+            replays.put(IdempotencyKeyRepository.replayKey(keyRef, requestHash), order);
+        }
+    }
+
+    /**
+     * Checks the request and returns the ordered quantity per product id.
+     */
+    Map<String, Integer> validateOrderRequest(String customerId, OrderRequest request) {
+        if (request == null || request.getItems() == null || request.getItems().isEmpty()) {
+            throw new BadRequestException("Order items are required.");
+        }
+        if (customerId == null || customerId.isBlank()) {
+            throw new BadRequestException("Customer id is required.");
+        }
+        if (request.getStoreId() == null || request.getStoreId().isBlank()) {
+            throw new BadRequestException("Store id is required.");
+        }
+        if (!storeRepository.existsById(request.getStoreId())) {
+            throw new NotFoundException("Store not found: " + request.getStoreId());
+        }
+        if (storeRepository.isDeleting(request.getStoreId())) {
+            throw new BadRequestException("Store is being deleted: " + request.getStoreId());
+        }
+        return mergeItems(request.getItems());
+    }
+
+    void checkOrderProduct(Product product, String storeId) {
+        if (!storeId.equals(product.getStoreId())) {
+            throw new BadRequestException("Product does not belong to store: " + storeId);
+        }
+        if (product.getPrice() == null) {
+            throw new BadRequestException("Product price is missing for id: " + product.getId());
+        }
+    }
+
+    /**
+     * Prices an order for products that have already been checked and whose
+     * stock covers the quantities. Does not touch stock.
+     */
+    Order buildOrder(String customerId, OrderRequest request, List<Product> products,
+                     Map<String, Integer> quantities, OfferIndex offers) {
+        Order order = new Order();
+        order.setId(UUID.randomUUID().toString());
+        order.setCustomerId(customerId);
+        order.setStoreId(request.getStoreId());
+        order.setCreatedAt(Instant.now());
+        order.setStatus("PENDING");
+
+        List<OrderItem> orderItems = new ArrayList<>();
+        Money total = Money.ZERO;
+        for (Product product : products) {
+            int quantity = quantities.get(product.getId());
+            OrderItem orderItem = new OrderItem();
+            orderItem.setId(OrderRepository.lineId(order.getId(), orderItems.size()));
+            orderItem.setProductId(product.getId());
+            orderItem.setName(product.getName());
+            orderItem.setCategoryId(product.getCategoryId());
+            orderItem.setQuantity(quantity);
+            orderItem.setPrice(product.getPrice());
+            orderItem.setProduct(product);
+            orderItems.add(orderItem);
+
+            total = total.plus(product.getPrice().times(quantity));
+        }
+
+        order.setOrderItems(orderItems);
+        order.setSubtotal(total);
+
+        OfferService.OfferApplication application = offerService.applyOffers(offers, orderItems, total);
+        Money discount = application.getDiscount() == null ? Money.ZERO : application.getDiscount();
+        Money deliveryFee = request.getDeliveryFee() == null ? Money.ZERO : request.getDeliveryFee();
+        if (application.isFreeDelivery()) {
+            deliveryFee = Money.ZERO;
+        }
+        Money finalTotal = total.minus(discount).plus(deliveryFee);
+
+        order.setDiscount(discount);
+        order.setDeliveryFee(deliveryFee);
+        order.setTotal(finalTotal);
+        if (application.getOffer() != null) {
+            order.setAppliedOfferId(application.getOffer().getId());
+        }
+        order.setFreeDelivery(application.isFreeDelivery());
+        return order;
+    }
+
+    public CompletableFuture<Page<Order>> getOrders(User user, String storeId, String cursor, int limit,
+                                                    boolean expandProducts) {
         if (user == null) {
-            return List.of();
+            return CompletableFuture.completedFuture(Page.empty());
+        }
+        ensureCanListOrders(user);
+        CompletableFuture<Page<Order>> page;
+        if (user.getRole() == UserRole.SUB_ADMIN) {
+            page = orderRepository.findByStoreIdAsync(user.getAssignedStoreId(), cursor, limit);
+        } else {
+            page = orderRepository.findByCustomerIdAsync(user.getId(), cursor, limit);
         }
-        if (user.getRole() == UserRole.SUPER_ADMIN) {
+        return expandProducts ? page.thenCompose(this::expandProducts) : page;
+    }
+
+    public void ensureCanListOrders(User user) {
+        if (user != null && user.getRole() == UserRole.SUPER_ADMIN) {
             throw new ForbiddenException("Super admin cannot access orders.");
         }
+    }
+
+    /**
+     * Visits every order the user may see, newest first, without loading
+     * them all at once.
+     */
+    public void forEachOrder(User user, Consumer<Order> action) {
+        if (user == null) {
+            return;
+        }
+        ensureCanListOrders(user);
         if (user.getRole() == UserRole.SUB_ADMIN) {
-            return orderRepository.findByStoreId(user.getAssignedStoreId());
+            orderRepository.forEachByStoreId(user.getAssignedStoreId(), action);
+        } else {
+            orderRepository.forEachByCustomerId(user.getId(), action);
+        }
+    }
+
+    // Attaches the current product to every line item, reading each distinct product once.
+    private CompletableFuture<Page<Order>> expandProducts(Page<Order> page) {
+        Set<String> productIds = new LinkedHashSet<>();
+        for (Order order : page.getItems()) {
+            for (OrderItem item : order.getOrderItems()) {
+                if (item.getProductId() != null && !item.getProductId().isBlank()) {
+                    productIds.add(item.getProductId());
+                }
+            }
+        }
+        return productRepository.findAllByIdsAsync(productIds).thenApply(products -> {
+            for (Order order : page.getItems()) {
+                for (OrderItem item : order.getOrderItems()) {
+                    Product current = products.get(item.getProductId());
+                    if (current != null) {
+                        item.setProduct(current);
+                    }
+                }
+            }
+            return page;
+        });
+    }
+
+    private Map<String, Integer> mergeItems(List<OrderItemRequest> items) {
+        Map<String, Integer> quantities = new LinkedHashMap<>();
+        for (OrderItemRequest itemRequest : items) {
+            if (itemRequest == null) {
+                throw new BadRequestException("Order item is required.");
+            }
+            String productId = itemRequest.getProductId();
+            if (productId == null || productId.isBlank()) {
+                throw new BadRequestException("Product id is required.");
+            }
+            int quantity = itemRequest.getQuantity();
+            if (quantity <= 0) {
+                throw new BadRequestException("Quantity must be greater than zero.");
+            }
+            try {
+                quantities.merge(productId, quantity, Math::addExact);
+            } catch (ArithmeticException ex) {
+                throw new BadRequestException("Quantity is too large.");
+            }
+        }
+        return quantities;
+    }
+
+    // Returns the order an earlier request with the key created, or null if the key is unused.
+    private Order readReplay(Transaction transaction, DocumentReference keyRef, String requestHash) {
+        DocumentSnapshot keySnapshot = getSnapshots(transaction.getAll(keyRef)).get(0);
+        if (!IdempotencyKeyRepository.isLive(keySnapshot, Instant.now())) {
+            return null;
         }
-        return orderRepository.findByCustomerId(user.getId());
+        IdempotencyKeyRepository.checkRequest(keySnapshot, requestHash);
+        DocumentReference orderRef = orderRepository.getDocument(IdempotencyKeyRepository.resultId(keySnapshot));
+        DocumentSnapshot orderSnapshot = getSnapshots(transaction.getAll(orderRef)).get(0);
+        return orderSnapshot.exists() ? orderRepository.fromSnapshot(orderSnapshot) : null;
     }
 
-    private DocumentSnapshot getSnapshot(ApiFuture<DocumentSnapshot> future) {
+    private List<DocumentSnapshot> getSnapshots(ApiFuture<List<DocumentSnapshot>> future) {
         try {
             return future.get();
         } catch (InterruptedException ex) {
             Thread.currentThread().interrupt();
             throw new RuntimeException("Document lookup interrupted.", ex);
         } catch (ExecutionException ex) {
-            throw new RuntimeException("Failed to load document.", ex.getCause());
+            throw new RuntimeException("Failed to load documents.", ex.getCause());
         }
     }
 }
@@ -0,0 +1,153 @@
+package com.HoussamAlwaked.minimarket.service;
+
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.firestore.BulkWriter;
+import com.google.cloud.firestore.WriteResult;
+import com.HoussamAlwaked.minimarket.dto.ProductImportReport;
+import com.HoussamAlwaked.minimarket.dto.ProductImportRow;
+import com.HoussamAlwaked.minimarket.entity.Product;
+import com.HoussamAlwaked.minimarket.exception.BadRequestException;
+import com.HoussamAlwaked.minimarket.repository.ProductRepository;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * One running bulk import into a store. Rows are validated as they arrive
+ * and valid ones are handed to a BulkWriter right away; at most
+ * MAX_IN_FLIGHT writes are outstanding, so a large body is never held in
+ * memory as products. Not thread-safe: one reader feeds it.
+ */
+public final class ProductImport implements AutoCloseable {
+
+    public static final int MAX_ROWS = 50_000;
+    private static final int MAX_IN_FLIGHT = 1_000;
+
+    private final String storeId;
+    private final Set<String> categoryIds;
+    private final ProductService productService;
+    private final ProductRepository productRepository;
+    private final CatalogVersionService catalogVersionService;
+    private final BulkWriter bulkWriter;
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+    private final List<ProductImportRow> rows = new ArrayList<>();
+    private boolean written;
+    private boolean closed;
+
+    ProductImport(String storeId,
+                  Set<String> categoryIds,
+                  ProductService productService,
+                  ProductRepository productRepository,
+                  CatalogVersionService catalogVersionService,
+                  BulkWriter bulkWriter) {
+        this.storeId = storeId;
+        this.categoryIds = categoryIds;
+        this.productService = productService;
+        this.productRepository = productRepository;
+        this.catalogVersionService = catalogVersionService;
+        this.bulkWriter = bulkWriter;
+    }
+
+    public void add(int row, Product product) {
+        checkRowLimit(row);
+        try {
+            productService.validateProductFields(product);
+            if (!categoryIds.contains(product.getCategoryId())) {
+                throw new BadRequestException("Invalid category id: " + product.getCategoryId());
+            }
+        } catch (BadRequestException ex) {
+            reject(row, ex.getMessage());
+            return;
+        }
+
+        product.setId(UUID.randomUUID().toString());
+        product.setStoreId(storeId);
+        product.setStockShards(0);
+        ProductImportRow result = new ProductImportRow();
+        result.setRow(row);
+        result.setId(product.getId());
+        rows.add(result);
+
+        inFlight.acquireUninterruptibly();
+        written = true;
+        ApiFutures.addCallback(
+                bulkWriter.create(productRepository.getDocument(product.getId()), productRepository.toMap(product)),
+                new ApiFutureCallback<WriteResult>() {
+                    @Override
+                    public void onFailure(Throwable t) {
+                        result.setStatus(ProductImportRow.FAILED);
+                        result.setError("Failed to save product.");
+                        inFlight.release();
+                    }
+
+                    @Override
+                    public void onSuccess(WriteResult value) {
+                        result.setStatus(ProductImportRow.CREATED);
+                        inFlight.release();
+                    }
+                }, Runnable::run);
+    }
+
+    public void reject(int row, String error) {
+        checkRowLimit(row);
+        ProductImportRow result = new ProductImportRow();
+        result.setRow(row);
+        result.setStatus(ProductImportRow.FAILED);
+        result.setError(error);
+        rows.add(result);
+    }
+
+    // Stops the reader at the first row past the limit; rows already queued are still written.
+    private void checkRowLimit(int row) {
+        if (rows.size() >= MAX_ROWS) {
+            throw new BadRequestException("Import is limited to " + MAX_ROWS + " rows. Reading stopped at row "
+                    + row + "; the rows before it were imported.");
+        }
+    }
+
+    /**
+     * Waits for every queued write and reports each row in input order.
+     */
+    public ProductImportReport finish() {
+        close();
+        ProductImportReport report = new ProductImportReport();
+        int created = 0;
+        for (ProductImportRow row : rows) {
+            if (ProductImportRow.CREATED.equals(row.getStatus())) {
+                created++;
+            }
+        }
+        report.setTotal(rows.size());
+        report.setCreated(created);
+        report.setFailed(rows.size() - created);
+        report.setRows(rows);
+        return report;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            bulkWriter.close();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Product import interrupted.", ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Failed to import products.", ex.getCause());
+        } finally {
+            // Every callback has run once all permits are back.
+            inFlight.acquireUninterruptibly(MAX_IN_FLIGHT);
+            if (written) {
+                // Once for the whole import, after its last write.
+                catalogVersionService.bump(storeId);
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.HoussamAlwaked.minimarket.service;
+
+import com.google.cloud.firestore.BulkWriterOptions;
+import com.google.cloud.firestore.Firestore;
+import com.HoussamAlwaked.minimarket.entity.Category;
+import com.HoussamAlwaked.minimarket.repository.CategoryRepository;
+import com.HoussamAlwaked.minimarket.repository.ProductRepository;
+import java.util.HashSet;
+import java.util.Set;
+import org.springframework.stereotype.Service;
+
+@Service
+public class ProductImportService {
+
+    // Product ids are random, so writes spread over the keyspace and can start above the default 500/s ramp.
+    private static final int INITIAL_OPS_PER_SECOND = 2_000;
+    private static final int MAX_OPS_PER_SECOND = 10_000;
+
+    private final CategoryRepository categoryRepository;
+    private final ProductRepository productRepository;
+    private final ProductService productService;
+    private final CatalogVersionService catalogVersionService;
+    private final Firestore firestore;
+
+    public ProductImportService(CategoryRepository categoryRepository,
+                                ProductRepository productRepository,
+                                ProductService productService,
+                                CatalogVersionService catalogVersionService,
+                                Firestore firestore) {
+        this.categoryRepository = categoryRepository;
+        this.productRepository = productRepository;
+        this.productService = productService;
+        this.catalogVersionService = catalogVersionService;
+        this.firestore = firestore;
+    }
+
+    /**
+     * Starts an import into the store. The store's categories are read once
+     * here and every row is checked against them.
+     */
+    public ProductImport begin(String storeId) {
+        Set<String> categoryIds = new HashSet<>();
+        for (Category category : categoryRepository.findByStoreId(storeId)) {
+            categoryIds.add(category.getId());
+        }
+        BulkWriterOptions options = BulkWriterOptions.builder()
+                .setInitialOpsPerSecond(INITIAL_OPS_PER_SECOND)
+                .setMaxOpsPerSecond(MAX_OPS_PER_SECOND)
+                .build();
+        return new ProductImport(storeId, categoryIds, productService, productRepository,
+                catalogVersionService, firestore.bulkWriter(options));
+    }
+}
@@ -0,0 +1,60 @@
+package com.HoussamAlwaked.minimarket.service;
+
+import com.HoussamAlwaked.minimarket.entity.MigrationState;
+import com.HoussamAlwaked.minimarket.repository.MigrationRepository;
+import com.HoussamAlwaked.minimarket.repository.ProductRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Component;
+
+/**
+ * Backfills the numeric price and in-stock fields that product filters and
+ * price ordering query on. Progress is checkpointed after every page, so a
+ * restarted node resumes where the previous run stopped. Until the backfill
+ * has completed, filtered or price-ordered product listings answer 503.
+ */
+@Component
+public class ProductQueryFieldsMigration implements CommandLineRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductQueryFieldsMigration.class);
+    private static final String MIGRATION_ID = "products-query-fields";
+    private static final int PAGE_SIZE = 300;
+
+    private final ProductRepository productRepository;
+    private final MigrationRepository migrationRepository;
+
+    public ProductQueryFieldsMigration(ProductRepository productRepository, MigrationRepository migrationRepository) {
+        this.productRepository = productRepository;
+        this.migrationRepository = migrationRepository;
+    }
+
+    @Override
+    public void run(String... args) {
+        Thread worker = new Thread(this::migrate, "product-query-fields-migration");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    private void migrate() {
+        try {
+            MigrationState state = migrationRepository.findById(MIGRATION_ID).orElseGet(() -> {
+                MigrationState created = new MigrationState();
+                created.setId(MIGRATION_ID);
+                return created;
+            });
+            while (!state.isCompleted()) {
+                String lastId = productRepository.backfillQueryFields(state.getLastDocumentId(), PAGE_SIZE);
+                if (lastId == null) {
+                    state.setCompleted(true);
+                } else {
+                    state.setLastDocumentId(lastId);
+                }
+                migrationRepository.save(state);
+            }
+            productRepository.setQueryFieldsReady(true);
+        } catch (RuntimeException ex) {
+            log.error("Product query fields migration failed; filtered product listings stay unavailable.", ex);
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package com.HoussamAlwaked.minimarket.service;
+
+import com.HoussamAlwaked.minimarket.entity.Product;
+import com.HoussamAlwaked.minimarket.repository.ProductRepository;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory name search over the products of one store. Names are
+ * lower-cased, stripped of accents and split into tokens. Every token is
+ * listed in a token table and, under each of its first MAX_PREFIX prefixes,
+ * in a prefix table, so a query only visits the shortest matching posting
+ * list and checks each candidate's tokens.
+ *
+ * Every query token but the last must equal a name token; the last may be a
+ * prefix of one, unless the query ends with a separator. Results are ranked
+ * by match quality, then by stock.
+ */
+public class ProductSearchIndex {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int MAX_PREFIX = 12;
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> slotsById = new HashMap<>();
+    private final Map<String, Posting> tokens = new HashMap<>();
+    private final Map<String, Posting> prefixes = new HashMap<>();
+    private Product[] products = new Product[INITIAL_CAPACITY];
+    private String[][] nameTokens = new String[INITIAL_CAPACITY][];
+    // The posting lists each slot is in, and its position in each, so unindexing never searches a list.
+    private Posting[][] postings = new Posting[INITIAL_CAPACITY][];
+    private int[][] positions = new int[INITIAL_CAPACITY][];
+    private int[] freeSlots = new int[INITIAL_CAPACITY];
+    private int freeCount;
+    private int slotCount;
+
+    public void upsert(Product product) {
+        lock.writeLock().lock();
+        try {
+            Integer existing = slotsById.get(product.getId());
+            String[] name = tokenize(product.getName());
+            int slot;
+            if (existing != null) {
+                slot = existing;
+                // Stock and price changes leave the posting lists as they are.
+                if (Arrays.equals(nameTokens[slot], name)) {
+                    products[slot] = product;
+                    return;
+                }
+                unindex(slot);
+            } else {
+                slot = freeCount > 0 ? freeSlots[--freeCount] : nextSlot();
+                slotsById.put(product.getId(), slot);
+            }
+            products[slot] = product;
+            nameTokens[slot] = name;
+            index(slot);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String id) {
+        lock.writeLock().lock();
+        try {
+            Integer slot = slotsById.remove(id);
+            if (slot == null) {
+                return;
+            }
+            unindex(slot);
+            products[slot] = null;
+            nameTokens[slot] = null;
+            if (freeCount == freeSlots.length) {
+                freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+            }
+            freeSlots[freeCount++] = slot;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Up to limit best matches, as copies the caller may modify.
+     */
+    public List<Product> search(String query, int limit) {
+        String normalized = normalize(query);
+        String[] queryTokens = split(normalized);
+        if (queryTokens.length == 0 || limit <= 0) {
+            return new ArrayList<>();
+        }
+        boolean lastIsPrefix = Character.isLetterOrDigit(normalized.charAt(normalized.length() - 1));
+        int last = queryTokens.length - 1;
+
+        lock.readLock().lock();
+        try {
+            Posting candidates = null;
+            for (int i = 0; i < queryTokens.length; i++) {
+                Posting posting = i == last && lastIsPrefix
+                        ? prefixes.get(gram(queryTokens[i]))
+                        : tokens.get(queryTokens[i]);
+                if (posting == null) {
+                    return new ArrayList<>();
+                }
+                if (candidates == null || posting.size < candidates.size) {
+                    candidates = posting;
+                }
+            }
+
+            Comparator<Hit> ranking = Comparator.comparingInt((Hit hit) -> hit.quality)
+                    .thenComparing(hit -> ProductRepository.isInStock(products[hit.slot]))
+                    .thenComparingInt(hit -> products[hit.slot].getStock())
+                    .thenComparing(hit -> products[hit.slot].getId(), Comparator.reverseOrder());
+            // Worst hit on top, so it is the one dropped once more than limit are kept.
+            PriorityQueue<Hit> best = new PriorityQueue<>(limit + 1, ranking);
+            for (int i = 0; i < candidates.size; i++) {
+                int slot = candidates.slots[i];
+                int quality = quality(nameTokens[slot], queryTokens, lastIsPrefix);
+                if (quality < 0) {
+                    continue;
+                }
+                best.add(new Hit(slot, quality));
+                if (best.size() > limit) {
+                    best.poll();
+                }
+            }
+
+            Product[] ranked = new Product[best.size()];
+            for (int i = ranked.length - 1; i >= 0; i--) {
+                ranked[i] = copy(products[best.poll().slot]);
+            }
+            return new ArrayList<>(Arrays.asList(ranked));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static String[] tokenize(String text) {
+        return text == null ? new String[0] : split(normalize(text));
+    }
+
+    private static String normalize(String text) {
+        return MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("")
+                .toLowerCase(Locale.ROOT);
+    }
+
+    private static String[] split(String normalized) {
+        List<String> result = new ArrayList<>();
+        for (String token : SEPARATORS.split(normalized)) {
+            if (!token.isEmpty()) {
+                result.add(token);
+            }
+        }
+        return result.toArray(new String[0]);
+    }
+
+    /**
+     * -1 when a query token is not matched; otherwise 2 if the name starts
+     * with the query, plus 1 if its last token is a whole word of the name.
+     */
+    private static int quality(String[] name, String[] query, boolean lastIsPrefix) {
+        int last = query.length - 1;
+        for (int i = 0; i < last; i++) {
+            if (!contains(name, query[i])) {
+                return -1;
+            }
+        }
+        boolean lastWhole = contains(name, query[last]);
+        if (!lastWhole && (!lastIsPrefix || !containsPrefix(name, query[last]))) {
+            return -1;
+        }
+        boolean leading = name.length >= query.length;
+        for (int i = 0; leading && i < query.length; i++) {
+            leading = i == last && lastIsPrefix ? name[i].startsWith(query[i]) : name[i].equals(query[i]);
+        }
+        return (leading ? 2 : 0) + (lastWhole ? 1 : 0);
+    }
+
+    private static boolean contains(String[] name, String token) {
+        for (String candidate : name) {
+            if (candidate.equals(token)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsPrefix(String[] name, String prefix) {
+        for (String candidate : name) {
+            if (candidate.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String gram(String token) {
+        return token.length() > MAX_PREFIX ? token.substring(0, MAX_PREFIX) : token;
+    }
+
+    private static Product copy(Product product) {
+        Product copy = new Product();
+        copy.setId(product.getId());
+        copy.setName(product.getName());
+        copy.setCategoryId(product.getCategoryId());
+        copy.setStoreId(product.getStoreId());
+        copy.setImage(product.getImage());
+        copy.setPrice(product.getPrice());
+        copy.setStock(product.getStock());
+        copy.setStockShards(product.getStockShards());
+        return copy;
+    }
+
+    private void index(int slot) {
+        Set<String> tokenKeys = keys(nameTokens[slot], false);
+        Set<String> prefixKeys = keys(nameTokens[slot], true);
+        Posting[] lists = new Posting[tokenKeys.size() + prefixKeys.size()];
+        int[] at = new int[lists.length];
+        int ref = 0;
+        for (String key : tokenKeys) {
+            lists[ref] = tokens.computeIfAbsent(key, ignored -> new Posting(key, false));
+            at[ref] = lists[ref].add(slot, ref);
+            ref++;
+        }
+        for (String key : prefixKeys) {
+            lists[ref] = prefixes.computeIfAbsent(key, ignored -> new Posting(key, true));
+            at[ref] = lists[ref].add(slot, ref);
+            ref++;
+        }
+        postings[slot] = lists;
+        positions[slot] = at;
+    }
+
+    // Swaps the last entry of each list into the slot's place and records where it moved.
+    private void unindex(int slot) {
+        Posting[] lists = postings[slot];
+        int[] at = positions[slot];
+        for (int ref = 0; ref < lists.length; ref++) {
+            Posting posting = lists[ref];
+            int last = --posting.size;
+            if (at[ref] != last) {
+                int moved = posting.slots[last];
+                int movedRef = posting.refs[last];
+                posting.slots[at[ref]] = moved;
+                posting.refs[at[ref]] = movedRef;
+                positions[moved][movedRef] = at[ref];
+            }
+            if (posting.size == 0) {
+                (posting.prefix ? prefixes : tokens).remove(posting.key);
+            }
+        }
+        postings[slot] = null;
+        positions[slot] = null;
+    }
+
+    // Distinct keys, so a slot is listed once per key even if several tokens share it.
+    private static Set<String> keys(String[] name, boolean prefixes) {
+        Set<String> keys = new HashSet<>();
+        for (String token : name) {
+            if (!prefixes) {
+                keys.add(token);
+                continue;
+            }
+            for (int length = 1; length <= Math.min(token.length(), MAX_PREFIX); length++) {
+                keys.add(token.substring(0, length));
+            }
+        }
+        return keys;
+    }
+
+    private int nextSlot() {
+        if (slotCount == products.length) {
+            products = Arrays.copyOf(products, slotCount * 2);
+            nameTokens = Arrays.copyOf(nameTokens, slotCount * 2);
+            postings = Arrays.copyOf(postings, slotCount * 2);
+            positions = Arrays.copyOf(positions, slotCount * 2);
+        }
+        return slotCount++;
+    }
+
+    private static final class Hit {
+        private final int slot;
+        private final int quality;
+
+        private Hit(int slot, int quality) {
+            this.slot = slot;
+            this.quality = quality;
+        }
+    }
+
+    // The slots listed under one key, unordered. refs[i] is the index of this list in postings[slots[i]].
+    private static final class Posting {
+        private final String key;
+        private final boolean prefix;
+        private int[] slots = new int[4];
+        private int[] refs = new int[4];
+        private int size;
+
+        private Posting(String key, boolean prefix) {
+            this.key = key;
+            this.prefix = prefix;
+        }
+
+        private int add(int slot, int ref) {
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+                refs = Arrays.copyOf(refs, size * 2);
+            }
+            slots[size] = slot;
+            refs[size] = ref;
+            return size++;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.HoussamAlwaked.minimarket.service;
+
+import com.google.cloud.firestore.DocumentChange;
+import com.google.cloud.firestore.FirestoreException;
+import com.google.cloud.firestore.ListenerRegistration;
+import com.google.cloud.firestore.QuerySnapshot;
+import com.HoussamAlwaked.minimarket.entity.Product;
+import com.HoussamAlwaked.minimarket.exception.BadRequestException;
+import com.HoussamAlwaked.minimarket.exception.NotFoundException;
+import com.HoussamAlwaked.minimarket.repository.ProductRepository;
+import com.HoussamAlwaked.minimarket.repository.StockShardRepository;
+import com.HoussamAlwaked.minimarket.repository.StoreRepository;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Product name search, answered from a ProductSearchIndex per store. The
+ * first search of a store starts a snapshot listener on its products: the
+ * initial snapshot builds the index and every later product save or delete,
+ * from any instance or write path, is applied to it as it arrives.
+ *
+ * Indexes of stores nobody searched for IDLE_TIMEOUT are dropped, and at
+ * most MAX_STORES loaded ones are kept, the least recently searched going
+ * first. A listener error drops the store's index; the next search builds a
+ * new one, and a search that was waiting on it retries once.
+ */
+@Service
+public class ProductSearchService implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductSearchService.class);
+    private static final int MAX_STORES = 100;
+    private static final int MAX_QUERY_LENGTH = 100;
+    private static final Duration IDLE_TIMEOUT = Duration.ofMinutes(30);
+    private static final Duration SWEEP_INTERVAL = Duration.ofMinutes(1);
+
+    private final ProductRepository productRepository;
+    private final StoreRepository storeRepository;
+    private final StockShardRepository stockShardRepository;
+    private final Map<String, StoreSearch> stores = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "product-search-sweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ProductSearchService(ProductRepository productRepository,
+                                StoreRepository storeRepository,
+                                StockShardRepository stockShardRepository) {
+        this.productRepository = productRepository;
+        this.storeRepository = storeRepository;
+        this.stockShardRepository = stockShardRepository;
+        sweeper.scheduleAtFixedRate(this::dropIdle, SWEEP_INTERVAL.toMillis(), SWEEP_INTERVAL.toMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    public CompletableFuture<List<Product>> search(String storeId, String query, int limit) {
+        if (storeId == null || storeId.isBlank()) {
+            throw new BadRequestException("Store id is required.");
+        }
+        if (query == null || query.isBlank()) {
+            throw new BadRequestException("Search query is required.");
+        }
+        if (query.length() > MAX_QUERY_LENGTH) {
+            throw new BadRequestException("Search query must be at most " + MAX_QUERY_LENGTH + " characters.");
+        }
+        StoreSearch existing = stores.get(storeId);
+        CompletableFuture<StoreSearch> ready = existing != null
+                ? existing.ready
+                : storeRepository.findCatalogVersionAsync(storeId).thenCompose(version -> {
+                    if (version.isEmpty()) {
+                        throw new NotFoundException("Store not found: " + storeId);
+                    }
+                    return indexFor(storeId).ready;
+                });
+        return ready.exceptionallyCompose(error -> retry(storeId, error)).thenCompose(search -> {
+            search.lastUsed = System.nanoTime();
+            return stockShardRepository.fillStockAsync(search.index.search(query, limit));
+        });
+    }
+
+    @Override
+    public void destroy() {
+        sweeper.shutdownNow();
+        for (StoreSearch search : stores.values()) {
+            search.close();
+        }
+        stores.clear();
+    }
+
+    private StoreSearch indexFor(String storeId) {
+        StoreSearch existing = stores.get(storeId);
+        if (existing != null) {
+            return existing;
+        }
+        // Indexes still loading have searches waiting on them, so only loaded ones are evicted;
+        // with none, the map briefly holds more than MAX_STORES.
+        while (stores.size() >= MAX_STORES) {
+            StoreSearch oldest = null;
+            for (StoreSearch search : stores.values()) {
+                if (!search.ready.isDone() || search.ready.isCompletedExceptionally()) {
+                    continue;
+                }
+                if (oldest == null || search.lastUsed - oldest.lastUsed < 0) {
+                    oldest = search;
+                }
+            }
+            if (oldest == null) {
+                break;
+            }
+            drop(oldest, null);
+        }
+        return stores.computeIfAbsent(storeId, this::start);
+    }
+
+    // An index can be dropped or fail while a search waits for it to load. The search is tried once
+    // more on a new index, and answered with 503 if that fails too.
+    private CompletableFuture<StoreSearch> retry(String storeId, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof NotFoundException) {
+            return CompletableFuture.failedFuture(cause);
+        }
+        return indexFor(storeId).ready.exceptionally(retryError -> {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                    "Product search is temporarily unavailable.", retryError);
+        });
+    }
+
+    private StoreSearch start(String storeId) {
+        StoreSearch search = new StoreSearch(storeId);
+        search.register(productRepository.addStoreListener(storeId, (snapshot, error) -> {
+            if (error != null) {
+                drop(search, error);
+                return;
+            }
+            search.apply(snapshot, productRepository);
+        }));
+        return search;
+    }
+
+    private void dropIdle() {
+        long cutoff = System.nanoTime() - IDLE_TIMEOUT.toNanos();
+        for (StoreSearch search : stores.values()) {
+            if (search.lastUsed - cutoff < 0) {
+                drop(search, null);
+            }
+        }
+    }
+
+    private void drop(StoreSearch search, FirestoreException error) {
+        if (error != null) {
+            log.warn("Search index of store {} stopped; it is rebuilt on the next search.", search.storeId, error);
+        }
+        // Removed first, so a search retrying on the failure below gets a new index.
+        stores.remove(search.storeId, search);
+        // Searches still waiting for the initial snapshot would otherwise never complete.
+        search.ready.completeExceptionally(error != null ? error
+                : new IllegalStateException("Search index of store " + search.storeId + " was dropped."));
+        search.close();
+    }
+
+    private static final class StoreSearch {
+        private final String storeId;
+        private final ProductSearchIndex index = new ProductSearchIndex();
+        private final CompletableFuture<StoreSearch> ready = new CompletableFuture<>();
+        private final ReentrantLock lock = new ReentrantLock();
+        private ListenerRegistration registration;
+        private boolean closed;
+        private volatile long lastUsed = System.nanoTime();
+
+        private StoreSearch(String storeId) {
+            this.storeId = storeId;
+        }
+
+        private void apply(QuerySnapshot snapshot, ProductRepository productRepository) {
+            for (DocumentChange change : snapshot.getDocumentChanges()) {
+                if (change.getType() == DocumentChange.Type.REMOVED) {
+                    index.remove(change.getDocument().getId());
+                } else {
+                    index.upsert(productRepository.fromSnapshot(change.getDocument()));
+                }
+            }
+            ready.complete(this);
+        }
+
+        // The listener can fail before it is registered, so a late registration is removed at once.
+        private void register(ListenerRegistration registration) {
+            lock.lock();
+            try {
+                if (closed) {
+                    registration.remove();
+                } else {
+                    this.registration = registration;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void close() {
+            lock.lock();
+            try {
+                closed = true;
+                if (registration != null) {
+                    registration.remove();
+                    registration = null;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
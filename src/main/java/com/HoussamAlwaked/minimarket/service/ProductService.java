@@ -4,27 +4,100 @@ import com.google.api.core.ApiFuture;
 import com.google.cloud.firestore.DocumentReference;
 import com.google.cloud.firestore.DocumentSnapshot;
 import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Transaction;
+import com.HoussamAlwaked.minimarket.cache.TtlCache;
+import com.HoussamAlwaked.minimarket.dto.BulkStockItem;
+import com.HoussamAlwaked.minimarket.dto.BulkStockReport;
+import com.HoussamAlwaked.minimarket.dto.BulkStockRequest;
+import com.HoussamAlwaked.minimarket.dto.BulkStockResult;
 import com.HoussamAlwaked.minimarket.dto.StockDecrementRequest;
+import com.HoussamAlwaked.minimarket.dto.StockShardsRequest;
 import com.HoussamAlwaked.minimarket.dto.StockUpdateRequest;
 import com.HoussamAlwaked.minimarket.entity.Product;
 import com.HoussamAlwaked.minimarket.exception.BadRequestException;
 import com.HoussamAlwaked.minimarket.exception.NotFoundException;
+import com.HoussamAlwaked.minimarket.repository.IdempotencyKeyRepository;
 import com.HoussamAlwaked.minimarket.repository.ProductRepository;
+import com.HoussamAlwaked.minimarket.repository.StockShardRepository;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
 @Service
 public class ProductService {
 
+    private static final Logger log = LoggerFactory.getLogger(ProductService.class);
+
+    public static final int MAX_STOCK_SHARDS = 100;
+    public static final int MAX_BULK_STOCK_ITEMS = 5_000;
+    // Products read and written per bulk stock transaction.
+    private static final int BULK_STOCK_CHUNK = 100;
+    private static final int SHARD_CANDIDATES = 4;
+
     private final ProductRepository productRepository;
+    private final StockShardRepository stockShardRepository;
+    private final IdempotencyKeyRepository idempotencyKeyRepository;
+    private final CatalogVersionService catalogVersionService;
     private final Firestore firestore;
+    // Stock results by idempotency key, so a retry on this instance skips the transaction.
+    private final TtlCache<String, Product> replays = new TtlCache<>(10_000, Duration.ofMinutes(10));
 
-    public ProductService(ProductRepository productRepository, Firestore firestore) {
+    public ProductService(ProductRepository productRepository,
+                          StockShardRepository stockShardRepository,
+                          IdempotencyKeyRepository idempotencyKeyRepository,
+                          CatalogVersionService catalogVersionService,
+                          Firestore firestore) {
         this.productRepository = productRepository;
+        this.stockShardRepository = stockShardRepository;
+        this.idempotencyKeyRepository = idempotencyKeyRepository;
+        this.catalogVersionService = catalogVersionService;
         this.firestore = firestore;
     }
 
-    public Product setStock(String storeId, String productId, StockUpdateRequest request) {
+    /**
+     * Field rules for creating or replacing a product. The category is only
+     * checked for presence; callers check that it belongs to the store.
+     */
+    public void validateProductFields(Product product) {
+        if (product == null) {
+            throw new BadRequestException("Product payload is required.");
+        }
+        if (product.getName() == null || product.getName().isBlank()) {
+            throw new BadRequestException("Product name is required.");
+        }
+        if (product.getCategoryId() == null || product.getCategoryId().isBlank()) {
+            throw new BadRequestException("Product category is required.");
+        }
+        if (product.getImage() != null && product.getImage().isBlank()) {
+            throw new BadRequestException("Product image must not be blank.");
+        }
+        if (product.getPrice() == null) {
+            throw new BadRequestException("Product price is required.");
+        }
+        if (product.getPrice().signum() < 0) {
+            throw new BadRequestException("Product price must be zero or greater.");
+        }
+        if (product.getStock() < 0) {
+            throw new BadRequestException("Product stock must be zero or greater.");
+        }
+    }
+
+    /**
+     * With an idempotency key, a repeated request returns the product as the
+     * first one left it and does not write again. Pass null for no key.
+     */
+    public Product setStock(String storeId, String productId, StockUpdateRequest request, String idempotencyKey) {
         if (productId == null || productId.isBlank()) {
             throw new BadRequestException("Product id is required.");
         }
@@ -34,6 +107,14 @@ public class ProductService {
         if (request.getStock() < 0) {
             throw new BadRequestException("Stock must be zero or greater.");
         }
+        String scope = "stock:" + productId;
+        DocumentReference keyRef = idempotencyKeyRepository.getDocument(scope, idempotencyKey);
+        String requestHash = IdempotencyKeyRepository.requestHash(scope, request.getStock());
+        Product replay = keyRef == null ? null
+                : replays.get(IdempotencyKeyRepository.replayKey(keyRef, requestHash));
+        if (replay != null && (storeId == null || storeId.equals(replay.getStoreId()))) {
+            return replay;
+        }
 
         try {
             ApiFuture<Product> future = firestore.runTransaction(transaction -> {
@@ -47,11 +128,28 @@ public class ProductService {
                 if (storeId != null && !storeId.equals(product.getStoreId())) {
                     throw new BadRequestException("Product does not belong to store: " + storeId);
                 }
+                if (readStockReplay(transaction, keyRef, requestHash, product)) {
+                    return product;
+                }
                 product.setStock(request.getStock());
-                transaction.set(productRef, productRepository.toMap(product));
+                if (product.getStockShards() > 0) {
+                    writeEvenShards(transaction, productId, product.getStockShards(), request.getStock());
+                    transaction.update(productRef, shardedStockFields(request.getStock()));
+                } else {
+                    transaction.set(productRef, productRepository.toMap(product));
+                }
+                if (keyRef != null) {
+                    transaction.set(keyRef,
+                            idempotencyKeyRepository.toMap(scope, requestHash, productId, product.getStock()));
+                }
                 return product;
             });
-            return future.get();
+            Product product = future.get();
+            catalogVersionService.bumpSoon(storeId);
+            if (keyRef != null) {
+                replays.put(IdempotencyKeyRepository.replayKey(keyRef, requestHash), product);
+            }
+            return product;
         } catch (InterruptedException ex) {
             Thread.currentThread().interrupt();
             throw new RuntimeException("Stock update interrupted.", ex);
@@ -64,7 +162,12 @@ public class ProductService {
         }
     }
 
-    public Product decrementStock(String storeId, String productId, StockDecrementRequest request) {
+    /**
+     * Idempotency keys work as for setStock. A replay of a sharded product
+     * reports the current sum of its shards.
+     */
+    public Product decrementStock(String storeId, String productId, StockDecrementRequest request,
+                                  String idempotencyKey) {
         if (productId == null || productId.isBlank()) {
             throw new BadRequestException("Product id is required.");
         }
@@ -74,6 +177,14 @@ public class ProductService {
         if (request.getQuantity() <= 0) {
             throw new BadRequestException("Quantity must be greater than zero.");
         }
+        String scope = "stock-decrement:" + productId;
+        DocumentReference keyRef = idempotencyKeyRepository.getDocument(scope, idempotencyKey);
+        String requestHash = IdempotencyKeyRepository.requestHash(scope, request.getQuantity());
+        Product replay = keyRef == null ? null
+                : replays.get(IdempotencyKeyRepository.replayKey(keyRef, requestHash));
+        if (replay != null && (storeId == null || storeId.equals(replay.getStoreId()))) {
+            return replay;
+        }
 
         try {
             ApiFuture<Product> future = firestore.runTransaction(transaction -> {
@@ -87,15 +198,45 @@ public class ProductService {
                 if (storeId != null && !storeId.equals(product.getStoreId())) {
                     throw new BadRequestException("Product does not belong to store: " + storeId);
                 }
+                if (readStockReplay(transaction, keyRef, requestHash, product)) {
+                    return product;
+                }
+                if (product.getStockShards() > 0) {
+                    Map<DocumentReference, Integer> shardCounts =
+                            planShardDecrement(transaction, product, request.getQuantity());
+                    if (shardCounts == null) {
+                        throw new BadRequestException("Insufficient stock for product id: " + productId);
+                    }
+                    writeShards(transaction, shardCounts);
+                    if (keyRef != null) {
+                        transaction.set(keyRef, idempotencyKeyRepository.toMap(scope, requestHash, productId, null));
+                    }
+                    return product;
+                }
                 if (product.getStock() < request.getQuantity()) {
                     throw new BadRequestException("Insufficient stock for product id: " + productId);
                 }
 
                 product.setStock(product.getStock() - request.getQuantity());
                 transaction.set(productRef, productRepository.toMap(product));
+                if (keyRef != null) {
+                    transaction.set(keyRef,
+                            idempotencyKeyRepository.toMap(scope, requestHash, productId, product.getStock()));
+                }
                 return product;
             });
-            return future.get();
+            Product product = future.get();
+            catalogVersionService.bumpSoon(storeId);
+            if (product.getStockShards() > 0) {
+                // Summed outside the transaction so the decrement only locks the shards it used.
+                product.setStock(stockShardRepository.sum(productId, product.getStockShards()));
+                if (product.getStock() == 0) {
+                    refreshShardedStock(productId);
+                }
+            } else if (keyRef != null) {
+                replays.put(IdempotencyKeyRepository.replayKey(keyRef, requestHash), product);
+            }
+            return product;
         } catch (InterruptedException ex) {
             Thread.currentThread().interrupt();
             throw new RuntimeException("Stock decrement interrupted.", ex);
@@ -108,6 +249,429 @@ public class ProductService {
         }
     }
 
+    /**
+     * Switches a product to sharded stock with the given number of shards,
+     * changes its shard count, or with zero shards moves the stock back onto
+     * the product document. The current stock is spread evenly over the new
+     * shards either way, so calling it with the current count rebalances.
+     */
+    public Product rebalanceStockShards(String storeId, String productId, StockShardsRequest request) {
+        if (productId == null || productId.isBlank()) {
+            throw new BadRequestException("Product id is required.");
+        }
+        if (request == null) {
+            throw new BadRequestException("Stock shards payload is required.");
+        }
+        if (request.getShards() < 0 || request.getShards() > MAX_STOCK_SHARDS) {
+            throw new BadRequestException("Shards must be between 0 and " + MAX_STOCK_SHARDS + ".");
+        }
+
+        try {
+            ApiFuture<Product> future = firestore.runTransaction(transaction -> {
+                DocumentReference productRef = productRepository.getDocument(productId);
+                DocumentSnapshot snapshot = getSnapshot(transaction.get(productRef));
+                if (!snapshot.exists()) {
+                    throw new NotFoundException("Product not found: " + productId);
+                }
+
+                Product product = productRepository.fromSnapshot(snapshot);
+                if (storeId != null && !storeId.equals(product.getStoreId())) {
+                    throw new BadRequestException("Product does not belong to store: " + storeId);
+                }
+                int previousShards = product.getStockShards();
+                int stock = product.getStock();
+                if (previousShards > 0) {
+                    stock = StockShardRepository.sum(getSnapshots(
+                            transaction.getAll(stockShardRepository.getDocuments(productId, previousShards))));
+                }
+
+                writeEvenShards(transaction, productId, request.getShards(), stock);
+                for (int i = request.getShards(); i < previousShards; i++) {
+                    transaction.delete(stockShardRepository.getDocument(productId, i));
+                }
+                product.setStock(stock);
+                product.setStockShards(request.getShards());
+                transaction.set(productRef, productRepository.toMap(product));
+                return product;
+            });
+            Product product = future.get();
+            catalogVersionService.bumpSoon(storeId);
+            return product;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Stock rebalance interrupted.", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException("Failed to rebalance stock.", cause);
+        }
+    }
+
+    /**
+     * Applies absolute stock values or deltas to many products of a store.
+     * Items run in transactions of up to BULK_STOCK_CHUNK products, and each
+     * chunk commits as a whole. An item that cannot be applied (unknown
+     * product, other store, stock below zero) is reported as failed and does
+     * not stop the rest of its chunk. Sharded products are applied one at a
+     * time after their chunk.
+     */
+    public BulkStockReport bulkUpdateStock(String storeId, BulkStockRequest request) {
+        if (request == null || request.getItems() == null || request.getItems().isEmpty()) {
+            throw new BadRequestException("Stock items are required.");
+        }
+        if (request.getItems().size() > MAX_BULK_STOCK_ITEMS) {
+            throw new BadRequestException("At most " + MAX_BULK_STOCK_ITEMS + " stock items per request.");
+        }
+
+        List<BulkStockResult> results = new ArrayList<>();
+        List<BulkStockItem> valid = new ArrayList<>();
+        List<BulkStockResult> validResults = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (BulkStockItem item : request.getItems()) {
+            BulkStockResult result = new BulkStockResult();
+            result.setProductId(item == null ? null : item.getProductId());
+            results.add(result);
+            String error = checkBulkStockItem(item, seen);
+            if (error != null) {
+                fail(result, error);
+            } else {
+                valid.add(item);
+                validResults.add(result);
+            }
+        }
+
+        for (int start = 0; start < valid.size(); start += BULK_STOCK_CHUNK) {
+            int end = Math.min(start + BULK_STOCK_CHUNK, valid.size());
+            List<BulkStockItem> chunk = valid.subList(start, end);
+            List<BulkStockResult> outcome = applyStockChunk(storeId, chunk);
+            for (int i = 0; i < chunk.size(); i++) {
+                BulkStockResult result = validResults.get(start + i);
+                if (outcome.get(i).getStatus() == null) {
+                    applyShardedStockItem(storeId, chunk.get(i), result);
+                } else {
+                    result.setStatus(outcome.get(i).getStatus());
+                    result.setStock(outcome.get(i).getStock());
+                    result.setError(outcome.get(i).getError());
+                }
+            }
+        }
+
+        BulkStockReport report = new BulkStockReport();
+        int updated = 0;
+        for (BulkStockResult result : results) {
+            if (BulkStockResult.UPDATED.equals(result.getStatus())) {
+                updated++;
+            }
+        }
+        if (updated > 0) {
+            catalogVersionService.bumpSoon(storeId);
+        }
+        report.setTotal(results.size());
+        report.setUpdated(updated);
+        report.setFailed(results.size() - updated);
+        report.setItems(results);
+        return report;
+    }
+
+    /**
+     * Reads shards of a sharded product inside the transaction, starting at a
+     * random one, and takes the quantity from them in order, skipping empty
+     * ones. The first SHARD_CANDIDATES shards are read in one call and the
+     * rest in a second call only if those do not hold the quantity, so a
+     * decrement usually locks just a few shards. Returns the new count of
+     * each shard to change, or null if the shards together hold less. Only
+     * reads, so it can run before any transaction write; apply the result
+     * with writeShards.
+     */
+    public Map<DocumentReference, Integer> planShardDecrement(Transaction transaction, Product product, int quantity) {
+        int shards = product.getStockShards();
+        int start = ThreadLocalRandom.current().nextInt(shards);
+        int remaining = quantity;
+        Map<DocumentReference, Integer> counts = new LinkedHashMap<>();
+        int from = 0;
+        while (from < shards && remaining > 0) {
+            int to = from == 0 ? Math.min(SHARD_CANDIDATES, shards) : shards;
+            DocumentReference[] refs = new DocumentReference[to - from];
+            for (int i = from; i < to; i++) {
+                refs[i - from] = stockShardRepository.getDocument(product.getId(), (start + i) % shards);
+            }
+            List<DocumentSnapshot> snapshots = getSnapshots(transaction.getAll(refs));
+            for (int i = 0; i < refs.length && remaining > 0; i++) {
+                int count = StockShardRepository.count(snapshots.get(i));
+                int taken = Math.min(count, remaining);
+                if (taken > 0) {
+                    counts.put(refs[i], count - taken);
+                    remaining -= taken;
+                }
+            }
+            from = to;
+        }
+        return remaining == 0 ? counts : null;
+    }
+
+    /**
+     * Puts the current shard total and inStock flag on a sharded product's
+     * document if the flag is out of date. Decrements only read the shards
+     * they take from, so they call this once the product may have run out.
+     * A failure is logged rather than thrown, since the decrement itself has
+     * already been committed.
+     */
+    public void refreshShardedStock(String productId) {
+        try {
+            firestore.runTransaction(transaction -> {
+                DocumentReference productRef = productRepository.getDocument(productId);
+                DocumentSnapshot snapshot = getSnapshot(transaction.get(productRef));
+                if (!snapshot.exists()) {
+                    return null;
+                }
+                int shards = productRepository.fromSnapshot(snapshot).getStockShards();
+                if (shards == 0) {
+                    return null;
+                }
+                int stock = StockShardRepository.sum(
+                        getSnapshots(transaction.getAll(stockShardRepository.getDocuments(productId, shards))));
+                if (!Boolean.valueOf(stock > 0).equals(snapshot.getBoolean(ProductRepository.IN_STOCK_FIELD))) {
+                    transaction.update(productRef, shardedStockFields(stock));
+                }
+                return null;
+            }).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            log.warn("Stock refresh of product {} interrupted.", productId, ex);
+        } catch (ExecutionException ex) {
+            log.warn("Failed to refresh stock of product {}.", productId, ex.getCause());
+        }
+    }
+
+    public void writeShards(Transaction transaction, Map<DocumentReference, Integer> counts) {
+        for (Map.Entry<DocumentReference, Integer> entry : counts.entrySet()) {
+            transaction.set(entry.getKey(), Map.of(StockShardRepository.COUNT_FIELD, entry.getValue()));
+        }
+    }
+
+    /**
+     * Reads the idempotency key inside the transaction. If an earlier request
+     * used it for the same request, sets the stock that request returned on
+     * the product and returns true; the caller then returns the product
+     * without writing. A key used for a different request is rejected.
+     */
+    private boolean readStockReplay(Transaction transaction, DocumentReference keyRef, String requestHash,
+                                    Product product) {
+        if (keyRef == null) {
+            return false;
+        }
+        DocumentSnapshot keySnapshot = getSnapshot(transaction.get(keyRef));
+        if (!IdempotencyKeyRepository.isLive(keySnapshot, Instant.now())) {
+            return false;
+        }
+        IdempotencyKeyRepository.checkRequest(keySnapshot, requestHash);
+        Integer stock = IdempotencyKeyRepository.resultStock(keySnapshot);
+        if (stock != null) {
+            product.setStock(stock);
+        }
+        return true;
+    }
+
+    private String checkBulkStockItem(BulkStockItem item, Set<String> seen) {
+        if (item == null) {
+            return "Stock item is required.";
+        }
+        if (item.getProductId() == null || item.getProductId().isBlank()) {
+            return "Product id is required.";
+        }
+        if ((item.getStock() == null) == (item.getDelta() == null)) {
+            return "Exactly one of stock or delta is required.";
+        }
+        if (item.getStock() != null && item.getStock() < 0) {
+            return "Stock must be zero or greater.";
+        }
+        if (!seen.add(item.getProductId())) {
+            return "Duplicate product id: " + item.getProductId();
+        }
+        return null;
+    }
+
+    /**
+     * Returns one result per item, in order. Results of sharded products are
+     * left without a status; the caller applies those separately.
+     */
+    private List<BulkStockResult> applyStockChunk(String storeId, List<BulkStockItem> items) {
+        try {
+            ApiFuture<List<BulkStockResult>> future = firestore.runTransaction(transaction -> {
+                DocumentReference[] refs = new DocumentReference[items.size()];
+                for (int i = 0; i < items.size(); i++) {
+                    refs[i] = productRepository.getDocument(items.get(i).getProductId());
+                }
+                Map<String, DocumentSnapshot> snapshots = new HashMap<>();
+                for (DocumentSnapshot snapshot : getSnapshots(transaction.getAll(refs))) {
+                    snapshots.put(snapshot.getId(), snapshot);
+                }
+
+                // Built fresh on every attempt, since the transaction may be retried.
+                List<BulkStockResult> results = new ArrayList<>();
+                List<Product> changed = new ArrayList<>();
+                for (BulkStockItem item : items) {
+                    String productId = item.getProductId();
+                    BulkStockResult result = new BulkStockResult();
+                    result.setProductId(productId);
+                    results.add(result);
+
+                    DocumentSnapshot snapshot = snapshots.get(productId);
+                    if (snapshot == null || !snapshot.exists()) {
+                        fail(result, "Product not found: " + productId);
+                        continue;
+                    }
+                    Product product = productRepository.fromSnapshot(snapshot);
+                    if (storeId != null && !storeId.equals(product.getStoreId())) {
+                        fail(result, "Product does not belong to store: " + storeId);
+                        continue;
+                    }
+                    if (product.getStockShards() > 0) {
+                        continue;
+                    }
+                    long stock = item.getStock() != null
+                            ? item.getStock()
+                            : (long) product.getStock() + item.getDelta();
+                    if (stock < 0) {
+                        fail(result, "Insufficient stock for product id: " + productId);
+                        continue;
+                    }
+                    if (stock > Integer.MAX_VALUE) {
+                        fail(result, "Stock is too large for product id: " + productId);
+                        continue;
+                    }
+                    product.setStock((int) stock);
+                    changed.add(product);
+                    result.setStatus(BulkStockResult.UPDATED);
+                    result.setStock((int) stock);
+                }
+
+                for (Product product : changed) {
+                    transaction.set(productRepository.getDocument(product.getId()), productRepository.toMap(product));
+                }
+                return results;
+            });
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Bulk stock update interrupted.", ex);
+        } catch (ExecutionException ex) {
+            // The chunk was not applied; report it and carry on with the next one.
+            List<BulkStockResult> results = new ArrayList<>();
+            for (BulkStockItem item : items) {
+                BulkStockResult result = new BulkStockResult();
+                result.setProductId(item.getProductId());
+                fail(result, "Failed to update stock.");
+                results.add(result);
+            }
+            return results;
+        }
+    }
+
+    private void applyShardedStockItem(String storeId, BulkStockItem item, BulkStockResult result) {
+        try {
+            Product product;
+            if (item.getStock() != null) {
+                StockUpdateRequest update = new StockUpdateRequest();
+                update.setStock(item.getStock());
+                product = setStock(storeId, item.getProductId(), update, null);
+            } else if (item.getDelta() < 0) {
+                StockDecrementRequest decrement = new StockDecrementRequest();
+                decrement.setQuantity(-item.getDelta());
+                product = decrementStock(storeId, item.getProductId(), decrement, null);
+            } else {
+                product = incrementStock(storeId, item.getProductId(), item.getDelta());
+            }
+            result.setStatus(BulkStockResult.UPDATED);
+            result.setStock(product.getStock());
+        } catch (RuntimeException ex) {
+            fail(result, ex.getMessage());
+        }
+    }
+
+    // Adds to one random shard of a sharded product, or to the document if it is no longer sharded.
+    private Product incrementStock(String storeId, String productId, int quantity) {
+        try {
+            ApiFuture<Product> future = firestore.runTransaction(transaction -> {
+                DocumentReference productRef = productRepository.getDocument(productId);
+                DocumentSnapshot snapshot = getSnapshot(transaction.get(productRef));
+                if (!snapshot.exists()) {
+                    throw new NotFoundException("Product not found: " + productId);
+                }
+
+                Product product = productRepository.fromSnapshot(snapshot);
+                if (storeId != null && !storeId.equals(product.getStoreId())) {
+                    throw new BadRequestException("Product does not belong to store: " + storeId);
+                }
+                if (product.getStockShards() == 0) {
+                    product.setStock(Math.addExact(product.getStock(), quantity));
+                    transaction.set(productRef, productRepository.toMap(product));
+                    return product;
+                }
+                int shard = ThreadLocalRandom.current().nextInt(product.getStockShards());
+                DocumentReference shardRef = stockShardRepository.getDocument(productId, shard);
+                if (Boolean.TRUE.equals(snapshot.getBoolean(ProductRepository.IN_STOCK_FIELD))) {
+                    int count = StockShardRepository.count(getSnapshot(transaction.get(shardRef)));
+                    transaction.set(shardRef, Map.of(StockShardRepository.COUNT_FIELD, Math.addExact(count, quantity)));
+                    return product;
+                }
+                // Out of stock until now, so every shard is read to put the new total on the product.
+                List<DocumentSnapshot> shards = getSnapshots(
+                        transaction.getAll(stockShardRepository.getDocuments(productId, product.getStockShards())));
+                int count = StockShardRepository.count(shards.get(shard));
+                transaction.set(shardRef, Map.of(StockShardRepository.COUNT_FIELD, Math.addExact(count, quantity)));
+                transaction.update(productRef,
+                        shardedStockFields(Math.addExact(StockShardRepository.sum(shards), quantity)));
+                return product;
+            });
+            Product product = future.get();
+            if (product.getStockShards() > 0) {
+                product.setStock(stockShardRepository.sum(productId, product.getStockShards()));
+            }
+            return product;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Stock update interrupted.", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException("Failed to update stock.", cause);
+        }
+    }
+
+    private static void fail(BulkStockResult result, String error) {
+        result.setStatus(BulkStockResult.FAILED);
+        result.setError(error);
+    }
+
+    // The total is kept on a sharded product's document only for the inStock filter and the replicas.
+    private static Map<String, Object> shardedStockFields(int stock) {
+        return Map.of("stock", stock, ProductRepository.IN_STOCK_FIELD, stock > 0);
+    }
+
+    private void writeEvenShards(Transaction transaction, String productId, int shards, int stock) {
+        for (int i = 0; i < shards; i++) {
+            int count = stock / shards + (i < stock % shards ? 1 : 0);
+            transaction.set(stockShardRepository.getDocument(productId, i),
+                    Map.of(StockShardRepository.COUNT_FIELD, count));
+        }
+    }
+
+    private List<DocumentSnapshot> getSnapshots(ApiFuture<List<DocumentSnapshot>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Document lookup interrupted.", ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Failed to load documents.", ex.getCause());
+        }
+    }
+
     private DocumentSnapshot getSnapshot(ApiFuture<DocumentSnapshot> future) {
         try {
             return future.get();
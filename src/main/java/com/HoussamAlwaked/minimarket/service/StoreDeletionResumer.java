@@ -0,0 +1,22 @@
+package com.HoussamAlwaked.minimarket.service;
+
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Component;
+
+/**
+ * Picks up store deletion jobs left unfinished by a stopped instance.
+ */
+@Component
+public class StoreDeletionResumer implements CommandLineRunner {
+
+    private final StoreDeletionService storeDeletionService;
+
+    public StoreDeletionResumer(StoreDeletionService storeDeletionService) {
+        this.storeDeletionService = storeDeletionService;
+    }
+
+    @Override
+    public void run(String... args) {
+        storeDeletionService.startSweeping();
+    }
+}
@@ -0,0 +1,363 @@
+package com.HoussamAlwaked.minimarket.service;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.firestore.BulkWriter;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.WriteResult;
+import com.HoussamAlwaked.minimarket.entity.Category;
+import com.HoussamAlwaked.minimarket.entity.Product;
+import com.HoussamAlwaked.minimarket.entity.Store;
+import com.HoussamAlwaked.minimarket.entity.StoreDeletionJob;
+import com.HoussamAlwaked.minimarket.entity.UserRole;
+import com.HoussamAlwaked.minimarket.exception.BadRequestException;
+import com.HoussamAlwaked.minimarket.exception.NotFoundException;
+import com.HoussamAlwaked.minimarket.repository.CategoryRepository;
+import com.HoussamAlwaked.minimarket.repository.ProductRepository;
+import com.HoussamAlwaked.minimarket.repository.StockShardRepository;
+import com.HoussamAlwaked.minimarket.repository.StoreDeletionJobRepository;
+import com.HoussamAlwaked.minimarket.repository.StoreRepository;
+import com.HoussamAlwaked.minimarket.repository.UserRepository;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Service;
+
+/**
+ * Deletes stores in the background. Starting a job marks the store as
+ * deleting, in the same transaction that creates the job under the store's
+ * id, and writes to the store are rejected from then on. The job waits
+ * until cached copies of that mark have expired, then runs through its
+ * phases in order: products (with their stock shards), categories,
+ * sub-admin assignments and finally the store document, so an interrupted
+ * job can always pick up again from the store's remaining data. Products
+ * and categories are deleted a page at a time through a BulkWriter, and
+ * the job is saved after every page, but only while this instance still
+ * owns it.
+ *
+ * A job whose last save is older than STALE_AFTER is taken over by
+ * whichever instance finds it first, on startup or on the periodic sweep.
+ * A failed job is retried with exponential backoff, up to MAX_ATTEMPTS
+ * times; starting the deletion again resets its attempts.
+ */
+@Service
+public class StoreDeletionService implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(StoreDeletionService.class);
+    private static final int PAGE_SIZE = 300;
+    private static final int WORKERS = 2;
+    private static final Duration STALE_AFTER = Duration.ofMinutes(2);
+    private static final Duration SWEEP_INTERVAL = Duration.ofMinutes(1);
+    private static final int MAX_ATTEMPTS = 8;
+    private static final Duration FIRST_RETRY_DELAY = Duration.ofMinutes(1);
+    private static final Duration MAX_RETRY_DELAY = Duration.ofHours(1);
+
+    private final StoreDeletionJobRepository jobRepository;
+    private final StoreRepository storeRepository;
+    private final ProductRepository productRepository;
+    private final StockShardRepository stockShardRepository;
+    private final CategoryRepository categoryRepository;
+    private final UserRepository userRepository;
+    private final AccessControlService accessControlService;
+    private final OfferService offerService;
+    private final CatalogVersionService catalogVersionService;
+    private final Firestore firestore;
+    private final String instanceId = UUID.randomUUID().toString();
+    private final Set<String> running = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(WORKERS, runnable -> {
+        Thread thread = new Thread(runnable, "store-deletion");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public StoreDeletionService(StoreDeletionJobRepository jobRepository,
+                                StoreRepository storeRepository,
+                                ProductRepository productRepository,
+                                StockShardRepository stockShardRepository,
+                                CategoryRepository categoryRepository,
+                                UserRepository userRepository,
+                                AccessControlService accessControlService,
+                                OfferService offerService,
+                                CatalogVersionService catalogVersionService,
+                                Firestore firestore) {
+        this.jobRepository = jobRepository;
+        this.storeRepository = storeRepository;
+        this.productRepository = productRepository;
+        this.stockShardRepository = stockShardRepository;
+        this.categoryRepository = categoryRepository;
+        this.userRepository = userRepository;
+        this.accessControlService = accessControlService;
+        this.offerService = offerService;
+        this.catalogVersionService = catalogVersionService;
+        this.firestore = firestore;
+    }
+
+    /**
+     * Starts deleting the store and returns the job right away. If the store
+     * already has a job, that job is returned instead; one that failed for
+     * good is started over.
+     */
+    public StoreDeletionJob start(String storeId) {
+        if (storeId == null || storeId.isBlank()) {
+            throw new BadRequestException("Store id is required.");
+        }
+        DocumentReference jobRef = jobRepository.getDocument(storeId);
+        DocumentReference storeRef = storeRepository.getDocument(storeId);
+        StoreDeletionJob job;
+        try {
+            // One transaction, so two concurrent calls cannot both create a job.
+            job = firestore.runTransaction(transaction -> {
+                DocumentSnapshot jobSnapshot = transaction.get(jobRef).get();
+                DocumentSnapshot storeSnapshot = transaction.get(storeRef).get();
+                if (jobSnapshot.exists()) {
+                    StoreDeletionJob existing = jobRepository.fromSnapshot(jobSnapshot);
+                    if (StoreDeletionJob.FAILED.equals(existing.getStatus()) && existing.getNextAttemptAt() == null) {
+                        existing.setStatus(StoreDeletionJob.PENDING);
+                        existing.setAttempts(0);
+                        existing.setError(null);
+                        existing.setOwner(instanceId);
+                        existing.setUpdatedAt(Instant.now());
+                        transaction.set(jobRef, jobRepository.toMap(existing));
+                    }
+                    return existing;
+                }
+                if (!storeSnapshot.exists()) {
+                    throw new NotFoundException("Store not found: " + storeId);
+                }
+                StoreDeletionJob created = new StoreDeletionJob();
+                created.setId(storeId);
+                created.setStoreId(storeId);
+                created.setStatus(StoreDeletionJob.PENDING);
+                created.setPhase(StoreDeletionJob.PHASE_PRODUCTS);
+                created.setOwner(instanceId);
+                created.setCreatedAt(Instant.now());
+                created.setUpdatedAt(created.getCreatedAt());
+                transaction.create(jobRef, jobRepository.toMap(created));
+                transaction.update(storeRef, StoreRepository.DELETING_FIELD, true);
+                return created;
+            }).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Store deletion start interrupted.", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException("Failed to start store deletion.", cause);
+        }
+        storeRepository.invalidateDeleting(storeId);
+        if (StoreDeletionJob.PENDING.equals(job.getStatus())) {
+            // Writes checked against a cached, not yet deleting, store land before the first page is deleted.
+            submit(job.getId(), StoreRepository.DELETING_CACHE_TTL);
+        }
+        return job;
+    }
+
+    public StoreDeletionJob getJob(String jobId) {
+        return jobRepository.findById(jobId)
+                .orElseThrow(() -> new NotFoundException("Deletion job not found: " + jobId));
+    }
+
+    /**
+     * Resumes unfinished jobs now and keeps checking for abandoned ones.
+     */
+    public void startSweeping() {
+        executor.scheduleWithFixedDelay(this::sweep, 0, SWEEP_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    private void sweep() {
+        try {
+            Instant now = Instant.now();
+            Instant staleBefore = now.minus(STALE_AFTER);
+            for (StoreDeletionJob job : jobRepository.findUnfinished()) {
+                if (StoreDeletionJob.FAILED.equals(job.getStatus())
+                        ? job.isRetryDue(now)
+                        : job.getUpdatedAt() == null || job.getUpdatedAt().isBefore(staleBefore)) {
+                    submit(job.getId(), Duration.ZERO);
+                }
+            }
+        } catch (RuntimeException ex) {
+            log.warn("Could not look for unfinished store deletion jobs.", ex);
+        }
+    }
+
+    private void submit(String jobId, Duration delay) {
+        if (running.add(jobId)) {
+            executor.schedule(() -> {
+                try {
+                    run(jobId);
+                } finally {
+                    running.remove(jobId);
+                }
+            }, delay.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void run(String jobId) {
+        Optional<StoreDeletionJob> claimed;
+        try {
+            claimed = jobRepository.tryClaim(jobId, instanceId, Instant.now().minus(STALE_AFTER));
+        } catch (RuntimeException ex) {
+            log.warn("Could not claim store deletion job {}; the sweep will retry.", jobId, ex);
+            return;
+        }
+        if (claimed.isEmpty()) {
+            return;
+        }
+        StoreDeletionJob job = claimed.get();
+        try {
+            if (StoreDeletionJob.PHASE_PRODUCTS.equals(job.getPhase())) {
+                deleteProducts(job);
+                advance(job, StoreDeletionJob.PHASE_CATEGORIES);
+            }
+            if (StoreDeletionJob.PHASE_CATEGORIES.equals(job.getPhase())) {
+                deleteCategories(job);
+                advance(job, StoreDeletionJob.PHASE_SUB_ADMINS);
+            }
+            if (StoreDeletionJob.PHASE_SUB_ADMINS.equals(job.getPhase())) {
+                unassignSubAdmins(job);
+                advance(job, StoreDeletionJob.PHASE_STORE);
+            }
+            if (StoreDeletionJob.PHASE_STORE.equals(job.getPhase())) {
+                storeRepository.deleteById(job.getStoreId());
+                offerService.scheduleActiveOfferRefresh(job.getStoreId());
+                job.setStatus(StoreDeletionJob.COMPLETED);
+                job.setNextAttemptAt(null);
+                advance(job, StoreDeletionJob.PHASE_DONE);
+            }
+        } catch (JobTakenOverException ex) {
+            log.info("Store deletion job {} was taken over by another instance.", jobId);
+        } catch (RuntimeException ex) {
+            log.error("Store deletion job {} failed in phase {}.", jobId, job.getPhase(), ex);
+            job.setStatus(StoreDeletionJob.FAILED);
+            job.setError(ex.getMessage());
+            job.setAttempts(job.getAttempts() + 1);
+            job.setNextAttemptAt(job.getAttempts() < MAX_ATTEMPTS ? Instant.now().plus(retryDelay(job)) : null);
+            try {
+                if (!jobRepository.saveIfOwner(job, instanceId)) {
+                    log.info("Store deletion job {} was taken over by another instance.", jobId);
+                }
+            } catch (RuntimeException saveEx) {
+                // Left RUNNING; the sweep resumes it once it goes stale.
+                log.warn("Could not record failure of store deletion job {}.", jobId, saveEx);
+            }
+        }
+    }
+
+    // Doubles with every attempt, from FIRST_RETRY_DELAY up to MAX_RETRY_DELAY.
+    private static Duration retryDelay(StoreDeletionJob job) {
+        Duration delay = FIRST_RETRY_DELAY.multipliedBy(1L << Math.min(job.getAttempts() - 1, 20));
+        return delay.compareTo(MAX_RETRY_DELAY) > 0 ? MAX_RETRY_DELAY : delay;
+    }
+
+    // Each page is deleted before the next query, so the query always starts from the beginning.
+    private void deleteProducts(StoreDeletionJob job) {
+        List<Product> page;
+        while (!(page = productRepository.findByStoreId(job.getStoreId(), PAGE_SIZE)).isEmpty()) {
+            List<DocumentReference> refs = new ArrayList<>();
+            for (Product product : page) {
+                if (product.getStockShards() > 0) {
+                    Collections.addAll(refs, stockShardRepository.getDocuments(product.getId(),
+                            product.getStockShards()));
+                }
+                refs.add(productRepository.getDocument(product.getId()));
+            }
+            deleteAll(refs);
+            catalogVersionService.bump(job.getStoreId());
+            job.setDeletedProducts(job.getDeletedProducts() + page.size());
+            checkpoint(job);
+        }
+    }
+
+    private void deleteCategories(StoreDeletionJob job) {
+        List<Category> page;
+        while (!(page = categoryRepository.findByStoreId(job.getStoreId(), PAGE_SIZE)).isEmpty()) {
+            List<DocumentReference> refs = new ArrayList<>();
+            for (Category category : page) {
+                refs.add(categoryRepository.getDocument(category.getId()));
+            }
+            deleteAll(refs);
+            catalogVersionService.bump(job.getStoreId());
+            job.setDeletedCategories(job.getDeletedCategories() + page.size());
+            checkpoint(job);
+        }
+    }
+
+    private void unassignSubAdmins(StoreDeletionJob job) {
+        String storeId = job.getStoreId();
+        Store store = storeRepository.findById(storeId).orElse(null);
+        if (store == null) {
+            return;
+        }
+        for (String userId : store.getSubAdminIds()) {
+            userRepository.findById(userId).ifPresent(user -> {
+                if (storeId.equals(user.getAssignedStoreId())) {
+                    user.setAssignedStoreId(null);
+                    if (user.getRole() == UserRole.SUB_ADMIN) {
+                        user.setRole(UserRole.CUSTOMER);
+                    }
+                    userRepository.save(user);
+                    accessControlService.invalidate(user);
+                    job.setUnassignedSubAdmins(job.getUnassignedSubAdmins() + 1);
+                }
+            });
+        }
+    }
+
+    private void advance(StoreDeletionJob job, String phase) {
+        job.setPhase(phase);
+        checkpoint(job);
+    }
+
+    // Stops the run once another instance has taken the job over, so two instances never advance it.
+    private void checkpoint(StoreDeletionJob job) {
+        if (!jobRepository.saveIfOwner(job, instanceId)) {
+            throw new JobTakenOverException();
+        }
+    }
+
+    /**
+     * Deletes one page of documents and waits for all of them, so at most
+     * one page per job is in flight.
+     */
+    private void deleteAll(List<DocumentReference> refs) {
+        BulkWriter bulkWriter = firestore.bulkWriter();
+        List<ApiFuture<WriteResult>> writes = new ArrayList<>();
+        try {
+            for (DocumentReference ref : refs) {
+                writes.add(bulkWriter.delete(ref));
+            }
+            bulkWriter.close();
+            ApiFutures.allAsList(writes).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Store deletion interrupted.", ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Failed to delete store documents.", ex.getCause());
+        }
+    }
+
+    private static final class JobTakenOverException extends RuntimeException {
+    }
+}
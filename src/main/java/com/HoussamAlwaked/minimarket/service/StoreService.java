@@ -2,16 +2,18 @@ package com.HoussamAlwaked.minimarket.service;
 
 import com.HoussamAlwaked.minimarket.dto.StoreRequest;
 import com.HoussamAlwaked.minimarket.entity.Store;
+import com.HoussamAlwaked.minimarket.entity.StoreDeletionJob;
 import com.HoussamAlwaked.minimarket.entity.User;
 import com.HoussamAlwaked.minimarket.entity.UserRole;
 import com.HoussamAlwaked.minimarket.exception.BadRequestException;
 import com.HoussamAlwaked.minimarket.exception.NotFoundException;
-import com.HoussamAlwaked.minimarket.repository.CategoryRepository;
-import com.HoussamAlwaked.minimarket.repository.ProductRepository;
 import com.HoussamAlwaked.minimarket.repository.StoreRepository;
 import com.HoussamAlwaked.minimarket.repository.UserRepository;
+import java.time.DateTimeException;
+import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import org.springframework.stereotype.Service;
 
 @Service
@@ -19,17 +21,20 @@ public class StoreService {
 
     private final StoreRepository storeRepository;
     private final UserRepository userRepository;
-    private final ProductRepository productRepository;
-    private final CategoryRepository categoryRepository;
+    private final AccessControlService accessControlService;
+    private final OfferService offerService;
+    private final StoreDeletionService storeDeletionService;
 
     public StoreService(StoreRepository storeRepository,
                         UserRepository userRepository,
-                        ProductRepository productRepository,
-                        CategoryRepository categoryRepository) {
+                        AccessControlService accessControlService,
+                        OfferService offerService,
+                        StoreDeletionService storeDeletionService) {
         this.storeRepository = storeRepository;
         this.userRepository = userRepository;
-        this.productRepository = productRepository;
-        this.categoryRepository = categoryRepository;
+        this.accessControlService = accessControlService;
+        this.offerService = offerService;
+        this.storeDeletionService = storeDeletionService;
     }
 
     public Store create(StoreRequest request) {
@@ -38,6 +43,7 @@ public class StoreService {
         store.setName(request.getName());
         store.setAddress(request.getAddress());
         store.setCategoryId(request.getCategoryId());
+        store.setTimeZone(request.getTimeZone());
         return storeRepository.save(store);
     }
 
@@ -45,10 +51,20 @@ public class StoreService {
         validate(request);
         Store existing = storeRepository.findById(id)
                 .orElseThrow(() -> new NotFoundException("Store not found: " + id));
+        if (existing.isDeleting()) {
+            throw new BadRequestException("Store is being deleted: " + id);
+        }
         existing.setName(request.getName());
         existing.setAddress(request.getAddress());
         existing.setCategoryId(request.getCategoryId());
-        return storeRepository.save(existing);
+        boolean zoneChanged = !Objects.equals(existing.getTimeZone(), request.getTimeZone());
+        existing.setTimeZone(request.getTimeZone());
+        Store saved = storeRepository.save(existing);
+        if (zoneChanged) {
+            // Offer windows are evaluated in the store's local time.
+            offerService.scheduleActiveOfferRefresh(id);
+        }
+        return saved;
     }
 
     public Store assignSubAdmin(String storeId, String userId) {
@@ -60,12 +76,16 @@ public class StoreService {
         }
         Store store = storeRepository.findById(storeId)
                 .orElseThrow(() -> new NotFoundException("Store not found: " + storeId));
+        if (store.isDeleting()) {
+            throw new BadRequestException("Store is being deleted: " + storeId);
+        }
         User user = userRepository.findById(userId)
                 .orElseThrow(() -> new NotFoundException("User not found: " + userId));
 
         user.setRole(UserRole.SUB_ADMIN);
         user.setAssignedStoreId(storeId);
         userRepository.save(user);
+        accessControlService.invalidate(user);
 
         List<String> subAdmins = new ArrayList<>(store.getSubAdminIds());
         if (!subAdmins.contains(userId)) {
@@ -98,6 +118,7 @@ public class StoreService {
             }
             userRepository.save(user);
         }
+        accessControlService.invalidate(user);
 
         if (user.getEmail() != null) {
             userRepository.findAllByEmailIgnoreCase(user.getEmail()).forEach(match -> {
@@ -109,41 +130,23 @@ public class StoreService {
                     match.setRole(UserRole.CUSTOMER);
                 }
                 userRepository.save(match);
+                accessControlService.invalidate(match);
             });
         }
 
         return store;
     }
 
-    public void deleteStore(String storeId) {
-        if (storeId == null || storeId.isBlank()) {
-            throw new BadRequestException("Store id is required.");
-        }
-        Store store = storeRepository.findById(storeId)
-                .orElseThrow(() -> new NotFoundException("Store not found: " + storeId));
-
-        // Delete all products for this store.
-        productRepository.findByStoreId(storeId)
-                .forEach(product -> productRepository.deleteById(product.getId()));
-
-        // Delete all categories for this store.
-        categoryRepository.findByStoreId(storeId)
-                .forEach(category -> categoryRepository.deleteById(category.getId()));
-
-        // Demote and unassign all sub-admins for this store.
-        for (String userId : store.getSubAdminIds()) {
-            userRepository.findById(userId).ifPresent(user -> {
-                if (storeId.equals(user.getAssignedStoreId())) {
-                    user.setAssignedStoreId(null);
-                    if (user.getRole() == UserRole.SUB_ADMIN) {
-                        user.setRole(UserRole.CUSTOMER);
-                    }
-                    userRepository.save(user);
-                }
-            });
-        }
+    /**
+     * Deletes the store with its products and categories and unassigns its
+     * sub-admins in the background; see StoreDeletionService.
+     */
+    public StoreDeletionJob deleteStore(String storeId) {
+        return storeDeletionService.start(storeId);
+    }
 
-        storeRepository.deleteById(storeId);
+    public StoreDeletionJob getDeletionJob(String jobId) {
+        return storeDeletionService.getJob(jobId);
     }
 
     public List<User> getSubAdmins(String storeId) {
@@ -166,5 +169,12 @@ public class StoreService {
         if (request.getAddress() != null && request.getAddress().isBlank()) {
             throw new BadRequestException("Store address must not be blank.");
         }
+        if (request.getTimeZone() != null) {
+            try {
+                ZoneId.of(request.getTimeZone());
+            } catch (DateTimeException ex) {
+                throw new BadRequestException("Invalid store time zone: " + request.getTimeZone());
+            }
+        }
     }
 }
@@ -0,0 +1,60 @@
+package com.HoussamAlwaked.minimarket.service;
+
+import com.HoussamAlwaked.minimarket.entity.MigrationState;
+import com.HoussamAlwaked.minimarket.repository.MigrationRepository;
+import com.HoussamAlwaked.minimarket.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Component;
+
+/**
+ * Backfills the normalized email field on existing users. Progress is
+ * checkpointed after every page, so a restarted node resumes where the
+ * previous run stopped. Case-insensitive email lookups scan the users
+ * collection until the backfill has completed.
+ */
+@Component
+public class UserEmailIndexMigration implements CommandLineRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(UserEmailIndexMigration.class);
+    private static final String MIGRATION_ID = "users-email-index";
+    private static final int PAGE_SIZE = 300;
+
+    private final UserRepository userRepository;
+    private final MigrationRepository migrationRepository;
+
+    public UserEmailIndexMigration(UserRepository userRepository, MigrationRepository migrationRepository) {
+        this.userRepository = userRepository;
+        this.migrationRepository = migrationRepository;
+    }
+
+    @Override
+    public void run(String... args) {
+        Thread worker = new Thread(this::migrate, "user-email-index-migration");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    private void migrate() {
+        try {
+            MigrationState state = migrationRepository.findById(MIGRATION_ID).orElseGet(() -> {
+                MigrationState created = new MigrationState();
+                created.setId(MIGRATION_ID);
+                return created;
+            });
+            while (!state.isCompleted()) {
+                String lastId = userRepository.backfillEmailIndex(state.getLastDocumentId(), PAGE_SIZE);
+                if (lastId == null) {
+                    state.setCompleted(true);
+                } else {
+                    state.setLastDocumentId(lastId);
+                }
+                migrationRepository.save(state);
+            }
+            userRepository.setEmailIndexReady(true);
+        } catch (RuntimeException ex) {
+            log.error("User email index migration failed; email lookups keep scanning users.", ex);
+        }
+    }
+}
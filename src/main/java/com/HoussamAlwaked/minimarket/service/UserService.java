@@ -14,10 +14,14 @@ public class UserService {
 
     private final UserRepository userRepository;
     private final StoreRepository storeRepository;
+    private final AccessControlService accessControlService;
 
-    public UserService(UserRepository userRepository, StoreRepository storeRepository) {
+    public UserService(UserRepository userRepository,
+                       StoreRepository storeRepository,
+                       AccessControlService accessControlService) {
         this.userRepository = userRepository;
         this.storeRepository = storeRepository;
+        this.accessControlService = accessControlService;
     }
 
     public User create(UserRequest request, UserRole defaultRole) {
@@ -43,6 +47,9 @@ public class UserService {
                     if (!storeRepository.existsById(storeId)) {
                         throw new NotFoundException("Store not found: " + storeId);
                     }
+                    if (storeRepository.isDeleting(storeId)) {
+                        throw new BadRequestException("Store is being deleted: " + storeId);
+                    }
                     existing.setAssignedStoreId(storeId);
                 } else if (existing.getAssignedStoreId() == null
                         || existing.getAssignedStoreId().isBlank()) {
@@ -52,7 +59,9 @@ public class UserService {
                 existing.setAssignedStoreId(null);
             }
 
-            return userRepository.save(existing);
+            User saved = userRepository.save(existing);
+            accessControlService.invalidate(saved);
+            return saved;
         }
 
         User user = new User();
@@ -70,16 +79,22 @@ public class UserService {
             if (!storeRepository.existsById(storeId)) {
                 throw new NotFoundException("Store not found: " + storeId);
             }
+            if (storeRepository.isDeleting(storeId)) {
+                throw new BadRequestException("Store is being deleted: " + storeId);
+            }
             user.setAssignedStoreId(storeId);
         }
 
-        return userRepository.save(user);
+        User saved = userRepository.save(user);
+        accessControlService.invalidate(saved);
+        return saved;
     }
 
     public User update(String id, UserRequest request) {
         validate(request);
         User existing = userRepository.findById(id)
                 .orElseThrow(() -> new NotFoundException("User not found: " + id));
+        accessControlService.invalidate(existing);
         existing.setName(request.getName());
         existing.setEmail(request.getEmail().trim().toLowerCase());
 
@@ -95,12 +110,17 @@ public class UserService {
             if (!storeRepository.existsById(storeId)) {
                 throw new NotFoundException("Store not found: " + storeId);
             }
+            if (storeRepository.isDeleting(storeId)) {
+                throw new BadRequestException("Store is being deleted: " + storeId);
+            }
             existing.setAssignedStoreId(storeId);
         } else {
             existing.setAssignedStoreId(null);
         }
 
-        return userRepository.save(existing);
+        User saved = userRepository.save(existing);
+        accessControlService.invalidate(saved);
+        return saved;
     }
 
     private void validate(UserRequest request) {
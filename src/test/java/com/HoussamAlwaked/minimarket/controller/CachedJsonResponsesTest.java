@@ -0,0 +1,43 @@
+package com.HoussamAlwaked.minimarket.controller;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class CachedJsonResponsesTest {
+
+	@Test
+	void acceptsGzipAndWildcard() {
+		assertTrue(CachedJsonResponses.acceptsGzip("gzip"));
+		assertTrue(CachedJsonResponses.acceptsGzip("GZIP"));
+		assertTrue(CachedJsonResponses.acceptsGzip("*"));
+		assertTrue(CachedJsonResponses.acceptsGzip("gzip;q=0.5"));
+	}
+
+	@Test
+	void findsGzipInAList() {
+		assertTrue(CachedJsonResponses.acceptsGzip("deflate, gzip, br"));
+		assertTrue(CachedJsonResponses.acceptsGzip("br;q=1.0, gzip ; q=0.8"));
+		assertFalse(CachedJsonResponses.acceptsGzip("deflate, br"));
+	}
+
+	@Test
+	void refusesGzipGivenQZero() {
+		assertFalse(CachedJsonResponses.acceptsGzip("gzip;q=0"));
+		assertFalse(CachedJsonResponses.acceptsGzip("gzip;q=0.000"));
+		assertFalse(CachedJsonResponses.acceptsGzip("*;q=0"));
+		assertFalse(CachedJsonResponses.acceptsGzip("gzip;q=x"));
+		// Naming gzip overrides the wildcard, in either order.
+		assertFalse(CachedJsonResponses.acceptsGzip("gzip;q=0, *"));
+		assertFalse(CachedJsonResponses.acceptsGzip("*, gzip;q=0"));
+		assertTrue(CachedJsonResponses.acceptsGzip("*;q=0, gzip"));
+	}
+
+	@Test
+	void missingHeaderMeansIdentity() {
+		assertFalse(CachedJsonResponses.acceptsGzip(null));
+		assertFalse(CachedJsonResponses.acceptsGzip(""));
+		assertFalse(CachedJsonResponses.acceptsGzip("identity"));
+	}
+}
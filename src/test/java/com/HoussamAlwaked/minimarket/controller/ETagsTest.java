@@ -0,0 +1,59 @@
+package com.HoussamAlwaked.minimarket.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class ETagsTest {
+
+	private static final String ETAG = ETags.of("products", "store-1", 3);
+
+	@Test
+	void tagIsQuotedAndDependsOnEveryPart() {
+		assertTrue(ETAG.startsWith("\"") && ETAG.endsWith("\""));
+		assertEquals(34, ETAG.length());
+		assertEquals(ETAG, ETags.of("products", "store-1", 3));
+		assertNotEquals(ETAG, ETags.of("products", "store-1", 4));
+		// Parts are separated, so moving text between them changes the tag.
+		assertNotEquals(ETags.of("ab", "c"), ETags.of("a", "bc"));
+	}
+
+	@Test
+	void matchesTheExactTagAndItsWeakForm() {
+		assertTrue(ETags.matches(ETAG, ETAG));
+		assertTrue(ETags.matches("W/" + ETAG, ETAG));
+		assertFalse(ETags.matches(ETags.of("other"), ETAG));
+		assertFalse(ETags.matches(ETAG.substring(1, ETAG.length() - 1), ETAG));
+	}
+
+	@Test
+	void matchesAnyTagOfAListAndTheWildcard() {
+		assertTrue(ETags.matches("\"a\", W/" + ETAG + " ,\"b\"", ETAG));
+		assertTrue(ETags.matches("*", ETAG));
+		assertTrue(ETags.matches("\"a\", *", ETAG));
+		assertFalse(ETags.matches("\"a\", W/\"b\"", ETAG));
+	}
+
+	@Test
+	void missingHeaderNeverMatches() {
+		assertFalse(ETags.matches(null, ETAG));
+		assertFalse(ETags.matches("", ETAG));
+		assertFalse(ETags.matches("  ", ETAG));
+	}
+
+	@Test
+	void gzipVariantHasItsOwnTagAndMatchesToo() {
+		String gzip = ETags.gzip(ETAG);
+		assertEquals(ETAG.substring(0, ETAG.length() - 1) + "-gzip\"", gzip);
+		assertTrue(ETags.matches(gzip, ETAG));
+		assertTrue(ETags.matches("W/" + gzip, ETAG));
+		assertEquals(gzip, ETags.matching("\"a\", W/" + gzip, ETAG));
+		assertEquals(ETAG, ETags.matching(ETAG, ETAG));
+		assertEquals(ETAG, ETags.matching("*", ETAG));
+		assertNull(ETags.matching(ETags.gzip(ETags.of("other")), ETAG));
+	}
+}
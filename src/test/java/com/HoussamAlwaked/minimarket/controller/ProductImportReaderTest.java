@@ -0,0 +1,116 @@
+package com.HoussamAlwaked.minimarket.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.HoussamAlwaked.minimarket.entity.Money;
+import com.HoussamAlwaked.minimarket.entity.Product;
+import com.HoussamAlwaked.minimarket.exception.BadRequestException;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class ProductImportReaderTest {
+
+	@Test
+	void splitsPlainValues() {
+		assertEquals(List.of("a", "b", "c"), ProductImportReader.parseCsvLine("a,b,c"));
+		assertEquals(List.of("a", "", ""), ProductImportReader.parseCsvLine("a,,"));
+		assertEquals(List.of(""), ProductImportReader.parseCsvLine(""));
+		assertEquals(List.of(" a ", " b"), ProductImportReader.parseCsvLine(" a , b"));
+	}
+
+	@Test
+	void quotedValuesKeepCommasAndEscapedQuotes() {
+		assertEquals(List.of("Milk, whole", "2.00"), ProductImportReader.parseCsvLine("\"Milk, whole\",2.00"));
+		assertEquals(List.of("The \"best\" bread"), ProductImportReader.parseCsvLine("\"The \"\"best\"\" bread\""));
+		assertEquals(List.of("\"", ""), ProductImportReader.parseCsvLine("\"\"\"\","));
+		assertEquals(List.of(""), ProductImportReader.parseCsvLine("\"\""));
+	}
+
+	@Test
+	void unterminatedQuoteIsRejected() {
+		assertThrows(IllegalArgumentException.class, () -> ProductImportReader.parseCsvLine("\"open,1"));
+	}
+
+	@Test
+	void readsRowsByHeaderNameInAnyOrder() throws IOException {
+		Rows rows = readCsv("Price,NAME,categoryId,stock,image\n"
+				+ "1.50,Apple,fruit,4,https://example.com/a.png\n"
+				+ "\"2.00\",\"Milk, whole\",dairy,,\n");
+
+		assertEquals(List.of(2, 3), rows.added);
+		Product apple = rows.products.get(0);
+		assertEquals("Apple", apple.getName());
+		assertEquals("fruit", apple.getCategoryId());
+		assertEquals(Money.parse("1.50"), apple.getPrice());
+		assertEquals(4, apple.getStock());
+		assertEquals("https://example.com/a.png", apple.getImage());
+		Product milk = rows.products.get(1);
+		assertEquals("Milk, whole", milk.getName());
+		assertEquals(0, milk.getStock());
+		assertNull(milk.getImage());
+	}
+
+	@Test
+	void byteOrderMarkBeforeTheHeaderIsIgnored() throws IOException {
+		Rows rows = readCsv("\uFEFFname,categoryId,price\nApple,fruit,1.00\n");
+
+		assertEquals(List.of(2), rows.added);
+		assertEquals("Apple", rows.products.get(0).getName());
+	}
+
+	@Test
+	void missingRequiredColumnFailsTheWholeImport() {
+		BadRequestException ex = assertThrows(BadRequestException.class,
+				() -> readCsv("name,price,stock\nApple,1.00,3\n"));
+		assertEquals("CSV header is missing column: categoryid", ex.getMessage());
+	}
+
+	@Test
+	void emptyBodyHasNoRows() throws IOException {
+		Rows rows = readCsv("");
+
+		assertEquals(List.of(), rows.added);
+		assertEquals(List.of(), rows.rejected);
+	}
+
+	@Test
+	void blankLinesAreSkippedButStillNumbered() throws IOException {
+		Rows rows = readCsv("name,categoryId,price\n\nApple,fruit,1.00\n   \nPear,fruit,x\n\"Open,fruit,1.00\n");
+
+		assertEquals(List.of(3), rows.added);
+		assertEquals(List.of(5, 6), rows.rejected);
+		assertEquals(List.of("Invalid price or stock.", "Invalid CSV row: unterminated quote"), rows.errors);
+	}
+
+	private static Rows readCsv(String body) throws IOException {
+		Rows rows = new Rows();
+		ProductImportReader.readCsv(new BufferedReader(new StringReader(body)), rows);
+		return rows;
+	}
+
+	private static class Rows implements ProductImportReader.RowSink {
+
+		private final List<Integer> added = new ArrayList<>();
+		private final List<Product> products = new ArrayList<>();
+		private final List<Integer> rejected = new ArrayList<>();
+		private final List<String> errors = new ArrayList<>();
+
+		@Override
+		public void add(int row, Product product) {
+			added.add(row);
+			products.add(product);
+		}
+
+		@Override
+		public void reject(int row, String error) {
+			rejected.add(row);
+			errors.add(error);
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package com.HoussamAlwaked.minimarket.dto;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.HoussamAlwaked.minimarket.exception.BadRequestException;
+import org.junit.jupiter.api.Test;
+
+class PageTest {
+
+	@Test
+	void resolveLimitDefaultsAndBounds() {
+		assertEquals(Page.DEFAULT_LIMIT, Page.resolveLimit(null));
+		assertEquals(1, Page.resolveLimit(1));
+		assertEquals(Page.MAX_LIMIT, Page.resolveLimit(Page.MAX_LIMIT));
+		assertThrows(BadRequestException.class, () -> Page.resolveLimit(0));
+		assertThrows(BadRequestException.class, () -> Page.resolveLimit(Page.MAX_LIMIT + 1));
+	}
+
+	@Test
+	void unpagedOnlyWithoutLimitAndCursor() {
+		assertTrue(Page.isUnpaged(null, null));
+		assertTrue(Page.isUnpaged(" ", null));
+		assertFalse(Page.isUnpaged("token", null));
+		assertFalse(Page.isUnpaged(null, 10));
+	}
+}
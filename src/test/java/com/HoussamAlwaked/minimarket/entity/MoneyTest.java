@@ -0,0 +1,100 @@
+package com.HoussamAlwaked.minimarket.entity;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import org.junit.jupiter.api.Test;
+
+class MoneyTest {
+
+	@Test
+	void parsesAmountsWithUpToTwoDecimalPlaces() {
+		assertEquals(150, Money.parse("1.5").getMinorUnits());
+		assertEquals(150, Money.parse(" 1.50 ").getMinorUnits());
+		assertEquals(150, Money.parse("1.500").getMinorUnits());
+		assertEquals(-1, Money.parse("-0.01").getMinorUnits());
+		assertSame(Money.ZERO, Money.parse("0.00"));
+	}
+
+	@Test
+	void rejectsExtraPrecisionInsteadOfRounding() {
+		assertThrows(IllegalArgumentException.class, () -> Money.parse("1.005"));
+		assertThrows(IllegalArgumentException.class, () -> Money.of(new BigDecimal("0.001")));
+	}
+
+	@Test
+	void rejectsAmountsBeyondTheLongRange() {
+		assertEquals(Long.MAX_VALUE, Money.parse("92233720368547758.07").getMinorUnits());
+		assertThrows(IllegalArgumentException.class, () -> Money.parse("92233720368547758.08"));
+	}
+
+	@Test
+	void roundedRoundsHalfAwayFromZero() {
+		assertEquals(Money.parse("1.01"), Money.rounded(new BigDecimal("1.005")));
+		assertEquals(Money.parse("1.00"), Money.rounded(new BigDecimal("1.004999")));
+		assertEquals(Money.parse("-1.01"), Money.rounded(new BigDecimal("-1.005")));
+		// The double 0.1 + 0.2 stored before amounts were exact.
+		assertEquals(Money.parse("0.30"), Money.rounded(BigDecimal.valueOf(0.1 + 0.2)));
+	}
+
+	@Test
+	void sumsAreExact() {
+		Money total = Money.ZERO;
+		for (int i = 0; i < 10; i++) {
+			total = total.plus(Money.parse("0.10"));
+		}
+
+		assertEquals(Money.parse("1.00"), total);
+		assertEquals(Money.parse("29.97"), Money.parse("9.99").times(3));
+		assertEquals(Money.parse("-0.50"), Money.parse("1.00").minus(Money.parse("1.50")));
+	}
+
+	@Test
+	void arithmeticOverflowThrows() {
+		Money max = Money.ofMinor(Long.MAX_VALUE);
+
+		assertThrows(ArithmeticException.class, () -> max.plus(Money.ofMinor(1)));
+		assertThrows(ArithmeticException.class, () -> Money.ofMinor(Long.MIN_VALUE).minus(Money.ofMinor(1)));
+		assertThrows(ArithmeticException.class, () -> max.times(2));
+	}
+
+	@Test
+	void percentRoundsHalfUpToTheCent() {
+		assertEquals(Money.parse("1.00"), Money.parse("9.99").percent(new BigDecimal("10")));
+		assertEquals(Money.parse("0.13"), Money.parse("1.00").percent(new BigDecimal("12.5")));
+		assertEquals(Money.parse("0.12"), Money.parse("1.00").percent(new BigDecimal("12.49")));
+		assertEquals(Money.parse("-0.13"), Money.parse("-1.00").percent(new BigDecimal("12.5")));
+		assertEquals(Money.parse("1.00"), Money.parse("1.00").percent(new BigDecimal("100")));
+		assertEquals(Money.ZERO, Money.parse("0.04").percent(new BigDecimal("10")));
+	}
+
+	@Test
+	void percentWithMoreThanTwoDecimalPlacesIsExact() {
+		assertEquals(Money.parse("1.25"), Money.parse("1000.00").percent(new BigDecimal("0.125")));
+		assertEquals(Money.parse("0.01"), Money.parse("1.00").percent(new BigDecimal("0.5000001")));
+		assertEquals(Money.ZERO, Money.parse("1.00").percent(new BigDecimal("0.4999999")));
+	}
+
+	@Test
+	void percentTooLargeForLongArithmeticIsStillExact() {
+		Money half = Money.ofMinor(Long.MAX_VALUE).percent(new BigDecimal("50"));
+
+		assertEquals(Long.MAX_VALUE / 2 + 1, half.getMinorUnits());
+	}
+
+	@Test
+	void valueSemantics() {
+		Money amount = Money.parse("2.50");
+
+		assertEquals(new BigDecimal("2.50"), amount.toBigDecimal());
+		assertEquals("2.50", amount.toString());
+		assertEquals(Money.ofMinor(250), amount);
+		assertEquals(Money.ofMinor(250).hashCode(), amount.hashCode());
+		assertTrue(amount.compareTo(Money.parse("2.49")) > 0);
+		assertEquals(Money.parse("2.49"), amount.min(Money.parse("2.49")));
+		assertEquals(-1, Money.parse("-2.50").signum());
+	}
+}
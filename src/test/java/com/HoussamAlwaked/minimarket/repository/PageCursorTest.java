@@ -0,0 +1,79 @@
+package com.HoussamAlwaked.minimarket.repository;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.HoussamAlwaked.minimarket.dto.Page;
+import com.HoussamAlwaked.minimarket.exception.BadRequestException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class PageCursorTest {
+
+	@Test
+	void roundTripsValues() {
+		String cursor = PageCursor.encode("1700000000000", "order/\u00fc+id");
+
+		assertArrayEquals(new String[] {"1700000000000", "order/\u00fc+id"}, PageCursor.decode(cursor, 2));
+		assertEquals(1700000000000L, PageCursor.decodeLong(PageCursor.decode(cursor, 2)[0]));
+	}
+
+	@Test
+	void roundTripsEmptyValues() {
+		assertArrayEquals(new String[] {"", ""}, PageCursor.decode(PageCursor.encode("", ""), 2));
+	}
+
+	@Test
+	void tokensAreUrlSafe() {
+		String cursor = PageCursor.encode("??>>??>>", "~~~");
+
+		assertEquals(-1, cursor.indexOf('+'));
+		assertEquals(-1, cursor.indexOf('/'));
+		assertEquals(-1, cursor.indexOf('='));
+	}
+
+	@Test
+	void rejectsTokensThatAreNotBase64() {
+		assertThrows(BadRequestException.class, () -> PageCursor.decode("not a cursor!", 1));
+	}
+
+	@Test
+	void rejectsTokensWithTheWrongNumberOfValues() {
+		String cursor = PageCursor.encode("product-id");
+
+		assertThrows(BadRequestException.class, () -> PageCursor.decode(cursor, 2));
+		assertThrows(BadRequestException.class, () -> PageCursor.decode(PageCursor.encode("a", "b", "c"), 2));
+	}
+
+	@Test
+	void rejectsTamperedSortKeys() {
+		String tampered = Base64.getUrlEncoder().withoutPadding()
+				.encodeToString("12abc\norder-id".getBytes(StandardCharsets.UTF_8));
+
+		String[] values = PageCursor.decode(tampered, 2);
+		assertThrows(BadRequestException.class, () -> PageCursor.decodeLong(values[0]));
+	}
+
+	@Test
+	void toPageUsesTheExtraItemOnlyToFindTheNextPage() {
+		Page<String> page = PageCursor.toPage(List.of("a", "b", "c"), 2, PageCursor::encode);
+
+		assertEquals(List.of("a", "b"), page.getItems());
+		assertArrayEquals(new String[] {"b"}, PageCursor.decode(page.getNextCursor(), 1));
+	}
+
+	@Test
+	void toPageHasNoCursorOnTheLastPage() {
+		Page<String> full = PageCursor.toPage(List.of("a", "b"), 2, PageCursor::encode);
+		Page<String> empty = PageCursor.toPage(List.of(), 2, PageCursor::encode);
+
+		assertEquals(List.of("a", "b"), full.getItems());
+		assertNull(full.getNextCursor());
+		assertEquals(List.of(), empty.getItems());
+		assertNull(empty.getNextCursor());
+	}
+}
@@ -0,0 +1,187 @@
+package com.HoussamAlwaked.minimarket.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.HoussamAlwaked.minimarket.entity.Money;
+import com.HoussamAlwaked.minimarket.entity.Product;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class ProductColumnsTest {
+
+	private static final String STORE_ID = "store-1";
+
+	@Test
+	void selectFollowsIdOrderAndCursor() {
+		for (boolean offHeap : new boolean[] {false, true}) {
+			ProductColumns columns = new ProductColumns(offHeap);
+			columns.upsert(product("c", "fruit", "1.00", 5), 1);
+			columns.upsert(product("a", "fruit", "2.00", 0), 2);
+			columns.upsert(product("b", "dairy", "3.00", 1), 3);
+
+			assertEquals(List.of("a", "b", "c"), ids(columns.select(STORE_ID, null, false, null, null, null, 10)));
+			// limit + 1 rows, so the caller can tell a next page follows.
+			assertEquals(List.of("a", "b"), ids(columns.select(STORE_ID, null, false, null, null, null, 1)));
+			assertEquals(List.of("c"), ids(columns.select(STORE_ID, null, false, null, null, "b", 10)));
+			assertEquals(List.of("b", "c"), ids(columns.select(STORE_ID, null, false, null, null, "aa", 10)));
+			assertEquals(List.of(), ids(columns.select(STORE_ID, null, false, null, null, "c", 10)));
+		}
+	}
+
+	@Test
+	void filtersByCategoryStockAndInclusivePriceRange() {
+		ProductColumns columns = new ProductColumns(false);
+		columns.upsert(product("a", "fruit", "1.00", 5), 1);
+		columns.upsert(product("b", "fruit", "2.00", 0), 2);
+		columns.upsert(product("c", "dairy", "3.00", -1), 3);
+		columns.upsert(product("d", null, null, 4), 4);
+
+		assertEquals(List.of("a", "b"), ids(columns.select(STORE_ID, "fruit", false, null, null, null, 10)));
+		assertEquals(List.of(), ids(columns.select(STORE_ID, "unknown", false, null, null, null, 10)));
+		assertEquals(List.of("a", "d"), ids(columns.select(STORE_ID, null, true, null, null, null, 10)));
+		assertEquals(List.of("a", "b"), ids(columns.select(STORE_ID, null, false, 100L, 200L, null, 10)));
+		// Products without a price never match a price filter.
+		assertEquals(List.of("a", "b", "c"), ids(columns.select(STORE_ID, null, false, 0L, null, null, 10)));
+	}
+
+	@Test
+	void rowsRoundTripToProducts() {
+		ProductColumns columns = new ProductColumns(true);
+		Product stored = product("a", null, null, 7);
+		stored.setName("Green apple");
+		stored.setImage("https://example.com/a.png");
+		stored.setStockShards(3);
+		columns.upsert(stored, 1);
+
+		Product row = columns.select(STORE_ID, null, false, null, null, null, 10).get(0);
+
+		assertEquals("a", row.getId());
+		assertEquals(STORE_ID, row.getStoreId());
+		assertEquals("Green apple", row.getName());
+		assertEquals("https://example.com/a.png", row.getImage());
+		assertNull(row.getCategoryId());
+		assertNull(row.getPrice());
+		assertEquals(7, row.getStock());
+		assertEquals(3, row.getStockShards());
+	}
+
+	@Test
+	void selectByPriceBreaksTiesByIdInBothDirections() {
+		ProductColumns columns = new ProductColumns(false);
+		columns.upsert(product("b", "fruit", "1.00", 1), 1);
+		columns.upsert(product("a", "fruit", "1.00", 1), 2);
+		columns.upsert(product("c", "fruit", "0.50", 1), 3);
+		columns.upsert(product("d", "fruit", null, 1), 4);
+
+		assertEquals(List.of("c", "a", "b"),
+				ids(columns.selectByPrice(STORE_ID, null, false, null, null, false, null, null, 10)));
+		assertEquals(List.of("b", "a", "c"),
+				ids(columns.selectByPrice(STORE_ID, null, false, null, null, true, null, null, 10)));
+		assertEquals(List.of("b"),
+				ids(columns.selectByPrice(STORE_ID, null, false, null, null, false, 100L, "a", 10)));
+		assertEquals(List.of("a", "c"),
+				ids(columns.selectByPrice(STORE_ID, null, false, null, null, true, 100L, "b", 10)));
+		assertEquals(List.of("c", "a"),
+				ids(columns.selectByPrice(STORE_ID, null, false, null, null, false, null, null, 1)));
+	}
+
+	@Test
+	void selectByPriceFollowsRepricingAndRemovals() {
+		ProductColumns columns = new ProductColumns(true);
+		columns.upsert(product("a", "fruit", "1.00", 1), 1);
+		columns.upsert(product("b", "fruit", "2.00", 1), 2);
+		columns.upsert(product("c", "fruit", "3.00", 1), 3);
+		assertEquals(List.of("a", "b", "c"),
+				ids(columns.selectByPrice(STORE_ID, null, false, null, null, false, null, null, 10)));
+
+		columns.upsert(product("a", "fruit", "4.00", 1), 4);
+		columns.upsert(product("b", "fruit", null, 1), 5);
+		columns.upsert(product("d", "dairy", "3.50", 0), 6);
+		assertEquals(List.of("c", "d", "a"),
+				ids(columns.selectByPrice(STORE_ID, null, false, null, null, false, null, null, 10)));
+
+		columns.remove("d");
+		// The cursor row may be gone; paging continues from its position.
+		assertEquals(List.of("a"),
+				ids(columns.selectByPrice(STORE_ID, null, false, null, null, false, 350L, "d", 10)));
+		assertEquals(List.of("c"),
+				ids(columns.selectByPrice(STORE_ID, null, false, null, null, true, 350L, "d", 10)));
+		assertEquals(List.of("a"),
+				ids(columns.selectByPrice(STORE_ID, "fruit", false, 301L, null, false, null, null, 10)));
+	}
+
+	@Test
+	void updatesAndRemovalsReuseSlots() {
+		ProductColumns columns = new ProductColumns(false);
+		columns.upsert(product("a", "fruit", "1.00", 1), 1);
+		columns.upsert(product("b", "fruit", "1.00", 1), 2);
+		columns.remove("a");
+		columns.remove("missing");
+		columns.upsert(product("c", "dairy", "2.00", 1), 3);
+		columns.upsert(product("b", "dairy", "4.00", 0), 4);
+
+		List<Product> rows = columns.select(STORE_ID, null, false, null, null, null, 10);
+		assertEquals(List.of("b", "c"), ids(rows));
+		assertEquals("dairy", rows.get(0).getCategoryId());
+		assertEquals(Money.parse("4.00"), rows.get(0).getPrice());
+		assertEquals(0, rows.get(0).getStock());
+	}
+
+	@Test
+	void growsPastTheInitialCapacity() {
+		for (boolean offHeap : new boolean[] {false, true}) {
+			ProductColumns columns = new ProductColumns(offHeap);
+			List<String> expected = new ArrayList<>();
+			for (int i = 0; i < 200; i++) {
+				String id = String.format("p%03d", i);
+				columns.upsert(product(id, "fruit", "1.00", i), i);
+				expected.add(id);
+			}
+
+			List<Product> rows = columns.select(STORE_ID, null, false, null, null, null, 500);
+			assertEquals(expected, ids(rows));
+			assertEquals(199, rows.get(199).getStock());
+		}
+	}
+
+	@Test
+	void digestDependsOnlyOnTheVersionsHeld() {
+		ProductColumns first = new ProductColumns(false);
+		ProductColumns second = new ProductColumns(true);
+		first.upsert(product("a", "fruit", "1.00", 1), 11);
+		first.upsert(product("b", "fruit", "1.00", 1), 22);
+		second.upsert(product("b", "fruit", "1.00", 1), 22);
+		second.upsert(product("a", "fruit", "1.00", 1), 11);
+		assertEquals(first.digest(), second.digest());
+
+		first.upsert(product("a", "fruit", "1.00", 2), 33);
+		assertNotEquals(first.digest(), second.digest());
+
+		first.remove("a");
+		first.remove("b");
+		assertEquals(0, first.digest());
+		assertTrue(second.digest() != 0);
+	}
+
+	private static Product product(String id, String categoryId, String price, int stock) {
+		Product product = new Product();
+		product.setId(id);
+		product.setStoreId(STORE_ID);
+		product.setCategoryId(categoryId);
+		product.setPrice(price == null ? null : Money.parse(price));
+		product.setStock(stock);
+		return product;
+	}
+
+	private static List<String> ids(List<Product> products) {
+		List<String> ids = new ArrayList<>();
+		for (Product product : products) {
+			ids.add(product.getId());
+		}
+		return ids;
+	}
+}
@@ -0,0 +1,107 @@
+package com.HoussamAlwaked.minimarket.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.HoussamAlwaked.minimarket.entity.Money;
+import com.HoussamAlwaked.minimarket.entity.Offer;
+import com.HoussamAlwaked.minimarket.entity.OfferScope;
+import com.HoussamAlwaked.minimarket.entity.OrderItem;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class OfferIndexTest {
+
+	@Test
+	void thresholdEqualToSubtotalQualifies() {
+		Offer offer = offer("o1", OfferScope.ALL_PRODUCTS, "10.00");
+		OfferIndex index = new OfferIndex(List.of(offer));
+
+		Map<Offer, Money> result = index.applicableSubtotals(List.of(item("p1", "c1", "5.00", 2)),
+				Money.parse("10.00"));
+
+		assertEquals(Map.of(offer, Money.parse("10.00")), result);
+	}
+
+	@Test
+	void thresholdOneCentAboveSubtotalDoesNotQualify() {
+		OfferIndex index = new OfferIndex(List.of(offer("o1", OfferScope.ALL_PRODUCTS, "10.01")));
+
+		Map<Offer, Money> result = index.applicableSubtotals(List.of(item("p1", "c1", "5.00", 2)),
+				Money.parse("10.00"));
+
+		assertTrue(result.isEmpty());
+	}
+
+	@Test
+	void onlyOffersUpToTheSubtotalQualify() {
+		Offer none = offer("none", OfferScope.ALL_PRODUCTS, null);
+		Offer low = offer("low", OfferScope.ALL_PRODUCTS, "5.00");
+		Offer high = offer("high", OfferScope.ALL_PRODUCTS, "50.00");
+		OfferIndex index = new OfferIndex(List.of(high, low, none));
+
+		Map<Offer, Money> result = index.applicableSubtotals(List.of(item("p1", "c1", "7.50", 1)),
+				Money.parse("7.50"));
+
+		assertEquals(List.of(low, none), List.copyOf(result.keySet()));
+	}
+
+	@Test
+	void scopesOnlyCountTheItemsTheyCover() {
+		Offer category = offer("cat", OfferScope.CATEGORY, null);
+		category.setCategoryId("fruit");
+		Offer products = offer("prod", OfferScope.PRODUCTS, null);
+		// A repeated id must not count the item twice.
+		products.setProductIds(List.of("milk", "milk", "bread"));
+		Offer unmatched = offer("other", OfferScope.PRODUCT, null);
+		unmatched.setProductIds(List.of("cheese"));
+		OfferIndex index = new OfferIndex(List.of(category, products, unmatched));
+		List<OrderItem> items = List.of(
+				item("apple", "fruit", "1.25", 4),
+				item("milk", "dairy", "2.10", 2),
+				item("bread", "bakery", "3.00", 1));
+
+		Map<Offer, Money> result = index.applicableSubtotals(items, Money.parse("12.20"));
+
+		assertEquals(2, result.size());
+		assertEquals(Money.parse("5.00"), result.get(category));
+		assertEquals(Money.parse("7.20"), result.get(products));
+	}
+
+	@Test
+	void itemsWithoutPriceAreSkipped() {
+		Offer offer = offer("o1", OfferScope.ALL_PRODUCTS, null);
+		OrderItem unpriced = item("p2", "c1", null, 3);
+		OfferIndex index = new OfferIndex(List.of(offer));
+
+		Map<Offer, Money> result = index.applicableSubtotals(List.of(item("p1", "c1", "1.00", 1), unpriced),
+				Money.parse("1.00"));
+
+		assertEquals(Money.parse("1.00"), result.get(offer));
+	}
+
+	@Test
+	void emptyIndexMatchesNothing() {
+		assertTrue(OfferIndex.empty().isEmpty());
+		assertTrue(OfferIndex.empty().applicableSubtotals(List.of(item("p1", "c1", "1.00", 1)), Money.parse("1.00"))
+				.isEmpty());
+	}
+
+	private static Offer offer(String id, OfferScope scope, String minOrderTotal) {
+		Offer offer = new Offer();
+		offer.setId(id);
+		offer.setScope(scope);
+		offer.setMinOrderTotal(minOrderTotal == null ? null : Money.parse(minOrderTotal));
+		return offer;
+	}
+
+	private static OrderItem item(String productId, String categoryId, String price, int quantity) {
+		OrderItem item = new OrderItem();
+		item.setProductId(productId);
+		item.setCategoryId(categoryId);
+		item.setPrice(price == null ? null : Money.parse(price));
+		item.setQuantity(quantity);
+		return item;
+	}
+}
@@ -0,0 +1,156 @@
+package com.HoussamAlwaked.minimarket.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.HoussamAlwaked.minimarket.entity.Offer;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class OfferWindowTest {
+
+	private static final ZoneId BERLIN = ZoneId.of("Europe/Berlin");
+
+	@Test
+	void disabledOffersNeverCompile() {
+		Offer offer = offer("22:00", "02:00");
+		offer.setEnabled(false);
+
+		assertNull(OfferWindow.compile(offer));
+		assertNull(OfferWindow.compile(null));
+	}
+
+	@Test
+	void overnightWindowSpansMidnightWithInclusiveEnds() {
+		OfferWindow window = OfferWindow.compile(offer("22:00", "02:00"));
+
+		assertFalse(active(window, "2026-06-01T21:59:59Z"));
+		assertTrue(active(window, "2026-06-01T22:00:00Z"));
+		assertTrue(active(window, "2026-06-01T23:30:00Z"));
+		assertTrue(active(window, "2026-06-02T00:00:00Z"));
+		assertTrue(active(window, "2026-06-02T02:00:00Z"));
+		assertFalse(active(window, "2026-06-02T02:00:00.000000001Z"));
+		assertFalse(active(window, "2026-06-02T12:00:00Z"));
+	}
+
+	@Test
+	void overnightWindowTransitionsAtStartAndJustAfterEnd() {
+		OfferWindow window = OfferWindow.compile(offer("22:00", "02:00"));
+
+		assertEquals(Instant.parse("2026-06-01T22:00:00Z"), next(window, "2026-06-01T12:00:00Z", ZoneOffset.UTC));
+		assertEquals(Instant.parse("2026-06-02T02:00:00.000000001Z"),
+				next(window, "2026-06-01T23:00:00Z", ZoneOffset.UTC));
+		assertEquals(Instant.parse("2026-06-02T22:00:00Z"),
+				next(window, "2026-06-02T02:00:00.000000001Z", ZoneOffset.UTC));
+	}
+
+	@Test
+	void validityPeriodEndsJustAfterValidTo() {
+		Offer offer = offer(null, null);
+		offer.setValidFrom(Instant.parse("2026-06-01T00:00:00Z"));
+		offer.setValidTo(Instant.parse("2026-06-30T00:00:00Z"));
+		OfferWindow window = OfferWindow.compile(offer);
+
+		assertFalse(active(window, "2026-05-31T23:59:59Z"));
+		assertEquals(Instant.parse("2026-06-01T00:00:00Z"), next(window, "2026-05-31T12:00:00Z", ZoneOffset.UTC));
+		assertTrue(active(window, "2026-06-30T00:00:00Z"));
+		assertEquals(Instant.parse("2026-06-30T00:00:00.000000001Z"),
+				next(window, "2026-06-15T00:00:00Z", ZoneOffset.UTC));
+		assertFalse(active(window, "2026-06-30T00:00:00.000000001Z"));
+		assertNull(next(window, "2026-07-01T00:00:00Z", ZoneOffset.UTC));
+	}
+
+	@Test
+	void daysOfWeekFollowTheLocalDate() {
+		Offer offer = offer(null, null);
+		offer.setDaysOfWeek(List.of(1));
+		OfferWindow window = OfferWindow.compile(offer);
+
+		// 2026-06-01 is a Monday; 23:30 UTC on Sunday is already Monday in Berlin.
+		assertTrue(window.isActive(Instant.parse("2026-05-31T23:30:00Z"),
+				Instant.parse("2026-05-31T23:30:00Z").atZone(BERLIN)));
+		assertFalse(active(window, "2026-05-31T23:30:00Z"));
+		assertEquals(Instant.parse("2026-06-01T00:00:00Z"), next(window, "2026-05-31T23:30:00Z", ZoneOffset.UTC));
+	}
+
+	@Test
+	void startSkippedBySpringForwardTransitionsWhenTheGapEnds() {
+		// Berlin clocks jump from 02:00 to 03:00 on 2026-03-29 (01:00 UTC).
+		OfferWindow window = OfferWindow.compile(offer("02:30", "04:00"));
+		Instant gapEnd = Instant.parse("2026-03-29T01:00:00Z");
+
+		assertEquals(gapEnd, next(window, "2026-03-29T00:30:00Z", BERLIN));
+		assertTrue(window.isActive(gapEnd, gapEnd.atZone(BERLIN)));
+		Instant end = Instant.parse("2026-03-29T02:00:00Z");
+		assertTrue(window.isActive(end, end.atZone(BERLIN)));
+		assertFalse(window.isActive(end.plusNanos(1), end.plusNanos(1).atZone(BERLIN)));
+	}
+
+	@Test
+	void windowRepeatedByFallBackTransitionsAgainInTheSecondHour() {
+		// Berlin clocks go back from 03:00 to 02:00 on 2026-10-25 (01:00 UTC).
+		OfferWindow window = OfferWindow.compile(offer("01:00", "02:15"));
+		Instant firstEnd = Instant.parse("2026-10-25T00:15:00.000000001Z");
+		Instant repeat = Instant.parse("2026-10-25T01:00:00Z");
+
+		assertFalse(window.isActive(firstEnd, firstEnd.atZone(BERLIN)));
+		assertEquals(repeat, next(window, "2026-10-25T00:15:00.000000001Z", BERLIN));
+		assertTrue(window.isActive(repeat, repeat.atZone(BERLIN)));
+		assertEquals(Instant.parse("2026-10-25T01:15:00.000000001Z"), next(window, "2026-10-25T01:00:00Z", BERLIN));
+	}
+
+	@Test
+	void timelineRebuildsOnlyAtTransitions() {
+		Offer always = offer(null, null);
+		Offer daytime = offer("09:00", "17:00");
+		Offer disabled = offer(null, null);
+		disabled.setEnabled(false);
+		OfferTimeline timeline = new OfferTimeline(ZoneOffset.UTC, List.of(always, daytime, disabled),
+				Instant.parse("2026-06-01T08:00:00Z"));
+
+		OfferIndex early = timeline.activeAt(Instant.parse("2026-06-01T08:30:00Z"));
+		assertEquals(List.of(always), early.getOffers());
+		assertEquals(Instant.parse("2026-06-01T09:00:00Z"), timeline.getNextTransition());
+
+		OfferIndex open = timeline.activeAt(Instant.parse("2026-06-01T09:00:00Z"));
+		assertEquals(List.of(always, daytime), open.getOffers());
+		assertTrue(open == timeline.activeAt(Instant.parse("2026-06-01T16:59:59Z")));
+
+		assertEquals(List.of(always), timeline.activeAt(Instant.parse("2026-06-01T17:00:01Z")).getOffers());
+	}
+
+	@Test
+	void timelineFollowsTheRepeatedHour() {
+		Offer nightly = offer("01:00", "02:15");
+		OfferTimeline timeline = new OfferTimeline(BERLIN, List.of(nightly),
+				Instant.parse("2026-10-24T22:00:00Z"));
+
+		assertEquals(List.of(nightly), timeline.activeAt(Instant.parse("2026-10-25T00:00:00Z")).getOffers());
+		assertTrue(timeline.activeAt(Instant.parse("2026-10-25T00:30:00Z")).isEmpty());
+		assertEquals(List.of(nightly), timeline.activeAt(Instant.parse("2026-10-25T01:05:00Z")).getOffers());
+		assertTrue(timeline.activeAt(Instant.parse("2026-10-25T01:30:00Z")).isEmpty());
+	}
+
+	private static Offer offer(String startTime, String endTime) {
+		Offer offer = new Offer();
+		offer.setEnabled(true);
+		offer.setStartTime(startTime);
+		offer.setEndTime(endTime);
+		return offer;
+	}
+
+	private static boolean active(OfferWindow window, String now) {
+		Instant instant = Instant.parse(now);
+		return window.isActive(instant, instant.atZone(ZoneOffset.UTC));
+	}
+
+	private static Instant next(OfferWindow window, String now, ZoneId zone) {
+		Instant instant = Instant.parse(now);
+		return window.nextTransition(instant, instant.atZone(zone));
+	}
+}
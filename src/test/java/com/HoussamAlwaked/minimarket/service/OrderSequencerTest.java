@@ -0,0 +1,250 @@
+package com.HoussamAlwaked.minimarket.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Precondition;
+import com.google.cloud.firestore.WriteBatch;
+import com.google.cloud.firestore.WriteResult;
+import com.HoussamAlwaked.minimarket.dto.OrderItemRequest;
+import com.HoussamAlwaked.minimarket.dto.OrderRequest;
+import com.HoussamAlwaked.minimarket.entity.Money;
+import com.HoussamAlwaked.minimarket.entity.Order;
+import com.HoussamAlwaked.minimarket.entity.Product;
+import com.HoussamAlwaked.minimarket.exception.BadRequestException;
+import com.HoussamAlwaked.minimarket.repository.IdempotencyKeyRepository;
+import com.HoussamAlwaked.minimarket.repository.OrderRepository;
+import com.HoussamAlwaked.minimarket.repository.ProductRepository;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class OrderSequencerTest {
+
+	private static final String STORE_ID = "store-1";
+	private static final String PRODUCT_ID = "product-1";
+	private static final int STORED_STOCK = 10;
+
+	private final OrderService orderService = mock(OrderService.class);
+	private final OfferService offerService = mock(OfferService.class);
+	private final OrderRepository orderRepository = mock(OrderRepository.class);
+	private final ProductRepository productRepository = mock(ProductRepository.class);
+	private final Firestore firestore = mock(Firestore.class);
+	private final WriteBatch writeBatch = mock(WriteBatch.class);
+	private final List<Thread> callers = new ArrayList<>();
+	private final AtomicInteger loads = new AtomicInteger();
+	private final CountDownLatch firstLoadStarted = new CountDownLatch(1);
+	private final CountDownLatch releaseFirstLoad = new CountDownLatch(1);
+	private OrderSequencer sequencer;
+	private ApiFuture<List<WriteResult>> committed;
+	private volatile int storedShards;
+
+	@BeforeEach
+	void setUp() {
+		sequencer = new OrderSequencer(orderService, offerService, orderRepository, productRepository,
+				mock(IdempotencyKeyRepository.class), mock(CatalogVersionService.class), firestore);
+		when(orderService.validateOrderRequest(anyString(), any(OrderRequest.class))).thenAnswer(invocation -> {
+			OrderRequest request = invocation.getArgument(1);
+			OrderItemRequest item = request.getItems().get(0);
+			return Map.of(item.getProductId(), item.getQuantity());
+		});
+		when(orderService.buildOrder(anyString(), any(), any(), any(), any())).thenAnswer(invocation -> {
+			Order order = new Order();
+			order.setId(UUID.randomUUID().toString());
+			order.setCustomerId(invocation.getArgument(0));
+			order.setStoreId(STORE_ID);
+			return order;
+		});
+		when(offerService.loadOfferIndex(eq(STORE_ID), any())).thenReturn(OfferIndex.empty());
+		when(productRepository.getDocument(anyString())).thenReturn(mock(DocumentReference.class));
+		when(orderRepository.getDocument(anyString())).thenReturn(mock(DocumentReference.class));
+		when(orderRepository.toMap(any(Order.class))).thenReturn(Map.of());
+		when(firestore.batch()).thenReturn(writeBatch);
+		WriteResult result = mock(WriteResult.class);
+		when(result.getUpdateTime()).thenReturn(Timestamp.ofTimeSecondsAndNanos(2, 0));
+		committed = ApiFutures.immediateFuture(List.of(result));
+		DocumentSnapshot snapshot = mock(DocumentSnapshot.class);
+		when(snapshot.exists()).thenReturn(true);
+		when(snapshot.getId()).thenReturn(PRODUCT_ID);
+		when(snapshot.getUpdateTime()).thenReturn(Timestamp.ofTimeSecondsAndNanos(1, 0));
+		when(productRepository.fromSnapshot(snapshot)).thenAnswer(invocation -> storedProduct());
+		when(firestore.getAll(any(DocumentReference[].class))).thenAnswer(invocation -> {
+			if (loads.incrementAndGet() == 1) {
+				firstLoadStarted.countDown();
+				releaseFirstLoad.await(5, TimeUnit.SECONDS);
+			}
+			return ApiFutures.immediateFuture(List.of(snapshot));
+		});
+	}
+
+	@AfterEach
+	void tearDown() {
+		releaseFirstLoad.countDown();
+		sequencer.destroy();
+	}
+
+	@Test
+	void ordersQueuedBehindABatchAreCommittedTogether() throws Exception {
+		when(writeBatch.commit()).thenReturn(committed);
+
+		Future<Order> first = submit("customer-a", 1);
+		assertTrue(firstLoadStarted.await(5, TimeUnit.SECONDS));
+		Future<Order> second = submit("customer-b", 2);
+		Future<Order> third = submit("customer-c", 3);
+		awaitQueued();
+		releaseFirstLoad.countDown();
+
+		assertEquals("customer-a", first.get(5, TimeUnit.SECONDS).getCustomerId());
+		assertEquals("customer-b", second.get(5, TimeUnit.SECONDS).getCustomerId());
+		assertEquals("customer-c", third.get(5, TimeUnit.SECONDS).getCustomerId());
+		verify(writeBatch, times(2)).commit();
+		verify(writeBatch).update(any(DocumentReference.class), eq(stockFields(9)), any(Precondition.class));
+		// Both queued orders came off the view in one write, so no intermediate stock was written.
+		verify(writeBatch).update(any(DocumentReference.class), eq(stockFields(4)), any(Precondition.class));
+		verify(writeBatch, never()).update(any(DocumentReference.class), eq(stockFields(7)),
+				any(Precondition.class));
+		// The view is kept between batches, so the product was loaded once.
+		assertEquals(1, loads.get());
+		verify(orderService, never()).createOrder(anyString(), any(), any());
+	}
+
+	@Test
+	void stockIsCheckedAgainstEarlierOrdersOfTheSameBatch() throws Exception {
+		when(writeBatch.commit()).thenReturn(committed);
+
+		Future<Order> first = submit("customer-a", 1);
+		assertTrue(firstLoadStarted.await(5, TimeUnit.SECONDS));
+		Future<Order> fits = submit("customer-b", 5);
+		Future<Order> tooMany = submit("customer-c", 5);
+		awaitQueued();
+		releaseFirstLoad.countDown();
+
+		first.get(5, TimeUnit.SECONDS);
+		assertEquals("customer-b", fits.get(5, TimeUnit.SECONDS).getCustomerId());
+		ExecutionException rejected = assertThrows(ExecutionException.class,
+				() -> tooMany.get(5, TimeUnit.SECONDS));
+		assertInstanceOf(BadRequestException.class, rejected.getCause());
+		verify(writeBatch).update(any(DocumentReference.class), eq(stockFields(4)), any(Precondition.class));
+	}
+
+	@Test
+	void failedCommitFallsBackWithoutBlockingTheLane() throws Exception {
+		releaseFirstLoad.countDown();
+		ApiFuture<List<WriteResult>> conflict = ApiFutures.immediateFailedFuture(
+				new IllegalStateException("stored product changed"));
+		when(writeBatch.commit()).thenReturn(conflict).thenReturn(committed);
+		when(orderRepository.existsById(anyString())).thenReturn(false);
+		Order fallbackOrder = new Order();
+		CountDownLatch fallbackStarted = new CountDownLatch(1);
+		CountDownLatch releaseFallback = new CountDownLatch(1);
+		when(orderService.createOrder(eq("customer-a"), any(OrderRequest.class), isNull())).thenAnswer(invocation -> {
+			fallbackStarted.countDown();
+			releaseFallback.await(5, TimeUnit.SECONDS);
+			return fallbackOrder;
+		});
+
+		Future<Order> first = submit("customer-a", 1);
+		assertTrue(fallbackStarted.await(5, TimeUnit.SECONDS));
+		// The lane keeps committing batches while the fallback transaction is still running.
+		assertEquals("customer-b", submit("customer-b", 2).get(5, TimeUnit.SECONDS).getCustomerId());
+		assertFalse(first.isDone());
+		releaseFallback.countDown();
+
+		assertSame(fallbackOrder, first.get(5, TimeUnit.SECONDS));
+		// The failed write dropped the view, so the product was read again.
+		assertEquals(2, loads.get());
+	}
+
+	@Test
+	void commitThatFailedAfterBeingAppliedIsNotRetried() throws Exception {
+		releaseFirstLoad.countDown();
+		ApiFuture<List<WriteResult>> timedOut = ApiFutures.immediateFailedFuture(
+				new IllegalStateException("deadline exceeded"));
+		when(writeBatch.commit()).thenReturn(timedOut);
+		when(orderRepository.existsById(anyString())).thenReturn(true);
+
+		assertEquals("customer-a", submit("customer-a", 1).get(5, TimeUnit.SECONDS).getCustomerId());
+		verify(orderService, never()).createOrder(anyString(), any(), any());
+	}
+
+	@Test
+	void shardedProductsUseTheTransactionalPath() throws Exception {
+		releaseFirstLoad.countDown();
+		storedShards = 4;
+		Order transactional = new Order();
+		when(orderService.createOrder(eq("customer-a"), any(OrderRequest.class), isNull()))
+				.thenReturn(transactional);
+
+		assertSame(transactional, submit("customer-a", 1).get(5, TimeUnit.SECONDS));
+		verify(writeBatch, never()).commit();
+	}
+
+	private Future<Order> submit(String customerId, int quantity) {
+		OrderItemRequest item = new OrderItemRequest();
+		item.setProductId(PRODUCT_ID);
+		item.setQuantity(quantity);
+		OrderRequest request = new OrderRequest();
+		request.setStoreId(STORE_ID);
+		request.setItems(List.of(item));
+		FutureTask<Order> call = new FutureTask<>(() -> sequencer.createOrder(customerId, request, null));
+		Thread caller = new Thread(call, "caller-" + customerId);
+		caller.setDaemon(true);
+		callers.add(caller);
+		caller.start();
+		return call;
+	}
+
+	// A caller parks on its order's result only once the order is queued.
+	private void awaitQueued() throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		for (Thread caller : callers) {
+			while (caller.getState() != Thread.State.WAITING) {
+				assertTrue(System.nanoTime() < deadline, caller.getName() + " was never queued");
+				Thread.sleep(5);
+			}
+		}
+	}
+
+	private Product storedProduct() {
+		Product product = new Product();
+		product.setId(PRODUCT_ID);
+		product.setStoreId(STORE_ID);
+		product.setPrice(Money.parse("1.50"));
+		product.setStock(STORED_STOCK);
+		product.setStockShards(storedShards);
+		return product;
+	}
+
+	private static Map<String, Object> stockFields(int stock) {
+		return Map.of("stock", stock, ProductRepository.IN_STOCK_FIELD, stock > 0);
+	}
+}
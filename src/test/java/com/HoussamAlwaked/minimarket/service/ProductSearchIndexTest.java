@@ -0,0 +1,170 @@
+package com.HoussamAlwaked.minimarket.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.HoussamAlwaked.minimarket.entity.Product;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class ProductSearchIndexTest {
+
+	@Test
+	void lastQueryWordMatchesAsPrefix() {
+		ProductSearchIndex index = index(
+				product("1", "Green Apple", 5),
+				product("2", "Green Tea", 5),
+				product("3", "Greek Yogurt", 5));
+
+		assertEquals(List.of("1", "2", "3"), ids(index.search("gre", 10)));
+		assertEquals(List.of("1", "2"), ids(index.search("green", 10)));
+		assertEquals(List.of("2"), ids(index.search("green t", 10)));
+		assertEquals(List.of(), ids(index.search("gree apple", 10)));
+	}
+
+	@Test
+	void trailingSeparatorMakesTheLastWordWhole() {
+		ProductSearchIndex index = index(product("1", "Tea", 5), product("2", "Teapot", 5));
+
+		assertEquals(List.of("1", "2"), ids(index.search("tea", 10)));
+		assertEquals(List.of("1"), ids(index.search("tea ", 10)));
+		assertEquals(List.of(), ids(index.search("te ", 10)));
+	}
+
+	@Test
+	void ignoresCaseAccentsAndPunctuation() {
+		ProductSearchIndex index = index(
+				product("1", "Cr\u00e8me Br\u00fbl\u00e9e", 5),
+				product("2", "Jalape\u00f1o-Lime Chips", 5));
+
+		assertEquals(List.of("1"), ids(index.search("CREME bru", 10)));
+		assertEquals(List.of("1"), ids(index.search("cr\u00e8me br\u00fbl\u00e9e", 10)));
+		assertEquals(List.of("2"), ids(index.search("jalapeno lime", 10)));
+		assertEquals(List.of(), ids(index.search(" - ", 10)));
+	}
+
+	@Test
+	void prefixesLongerThanTheIndexedLengthStillMatchExactly() {
+		ProductSearchIndex index = index(
+				product("1", "Chocolatechipcookie", 5),
+				product("2", "Chocolatechunk", 5));
+
+		assertEquals(List.of("1", "2"), ids(index.search("chocolatech", 10)));
+		assertEquals(List.of("1"), ids(index.search("chocolatechip", 10)));
+		assertEquals(List.of("1"), ids(index.search("chocolatechipcookie", 10)));
+		assertEquals(List.of(), ids(index.search("chocolatechipcookies", 10)));
+	}
+
+	@Test
+	void ranksLeadingMatchesThenWholeWordsThenStock() {
+		ProductSearchIndex index = index(
+				product("1", "Organic Milk", 50),
+				product("2", "Milk Chocolate", 1),
+				product("3", "Milkshake", 100),
+				product("4", "Milk", 0),
+				product("5", "Milk", 0));
+
+		// Leading whole matches first, out of stock behind in stock, equal rows by id.
+		assertEquals(List.of("2", "4", "5", "3", "1"), ids(index.search("milk", 10)));
+		assertEquals(List.of("2", "4"), ids(index.search("milk", 2)));
+		assertEquals(List.of(), ids(index.search("milk", 0)));
+	}
+
+	@Test
+	void updatesReplaceTheOldNameAndRemovalsFreeTheSlot() {
+		ProductSearchIndex index = index(product("1", "Apple Juice", 5), product("2", "Apple Pie", 5));
+
+		index.upsert(product("1", "Orange Juice", 5));
+		index.remove("2");
+		index.remove("missing");
+		index.upsert(product("3", "Apple Crumble", 5));
+
+		assertEquals(List.of("3"), ids(index.search("apple", 10)));
+		assertEquals(List.of("1"), ids(index.search("juice", 10)));
+		assertEquals(List.of(), ids(index.search("pie", 10)));
+	}
+
+	@Test
+	void stockUpdatesKeepTheNameAndChangeTheRanking() {
+		ProductSearchIndex index = index(product("1", "Rice", 5), product("2", "Rice", 9));
+
+		index.upsert(product("1", "Rice", 20));
+
+		assertEquals(List.of("1", "2"), ids(index.search("rice", 10)));
+		assertEquals(20, index.search("rice", 1).get(0).getStock());
+	}
+
+	@Test
+	void removalsInAnyOrderLeaveTheOtherPostingsIntact() {
+		ProductSearchIndex index = new ProductSearchIndex();
+		List<String> expected = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			String id = String.format("p%03d", i);
+			index.upsert(product(id, "Bean " + (i % 2 == 0 ? "Soup" : "Salad"), 1));
+			expected.add(id);
+		}
+		for (int i = 0; i < 100; i += 3) {
+			index.remove(String.format("p%03d", i));
+			expected.remove(String.format("p%03d", i));
+		}
+		for (int i = 1; i < 100; i += 3) {
+			index.upsert(product(String.format("p%03d", i), "Lentil Soup", 1));
+			expected.remove(String.format("p%03d", i));
+		}
+
+		List<String> beans = ids(index.search("bean", 1000));
+		beans.sort(null);
+		assertEquals(expected, beans);
+		assertEquals(33, index.search("lentil", 1000).size());
+		assertEquals(List.of(), ids(index.search("bean lentil", 10)));
+	}
+
+	@Test
+	void repeatedWordsListAProductOnce() {
+		ProductSearchIndex index = index(product("1", "Choco Choco Chip", 5));
+
+		assertEquals(List.of("1"), ids(index.search("choco", 10)));
+		index.remove("1");
+		assertEquals(List.of(), ids(index.search("choco", 10)));
+	}
+
+	@Test
+	void resultsAreCopies() {
+		ProductSearchIndex index = index(product("1", "Bread", 5));
+
+		index.search("bread", 10).get(0).setName("Changed");
+
+		assertEquals("Bread", index.search("bread", 10).get(0).getName());
+	}
+
+	@Test
+	void productsWithoutANameNeverMatch() {
+		ProductSearchIndex index = index(product("1", null, 5), product("2", "Bread", 5));
+
+		assertEquals(List.of("2"), ids(index.search("b", 10)));
+	}
+
+	private static ProductSearchIndex index(Product... products) {
+		ProductSearchIndex index = new ProductSearchIndex();
+		for (Product product : products) {
+			index.upsert(product);
+		}
+		return index;
+	}
+
+	private static Product product(String id, String name, int stock) {
+		Product product = new Product();
+		product.setId(id);
+		product.setName(name);
+		product.setStock(stock);
+		return product;
+	}
+
+	private static List<String> ids(List<Product> products) {
+		List<String> ids = new ArrayList<>();
+		for (Product product : products) {
+			ids.add(product.getId());
+		}
+		return ids;
+	}
+}